@@ -0,0 +1,144 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Debug screen showing the counters and latencies of the content provider operations since
+ * the app started, to spot slow paths without attaching a profiler. Only part of the debug
+ * builds. The metrics are read from the provider in the background.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    // TextView showing the metrics
+    private TextView mMetricsTextView;
+
+    // Task reading the metrics, or null if none was started
+    private MetricsTask mMetricsTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        mMetricsTextView = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics(false);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mMetricsTask != null) {
+            mMetricsTask.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh_metrics:
+                showMetrics(false);
+                return true;
+            case R.id.action_reset_metrics:
+                showMetrics(true);
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Read the metrics from the provider in the background, then show them. The metrics of a
+     * read still running are not shown.
+     *
+     * @param reset true to reset the counters once they are read
+     */
+    private void showMetrics(boolean reset) {
+        if (mMetricsTask != null) {
+            mMetricsTask.cancel(false);
+        }
+        mMetricsTask = new MetricsTask(getContentResolver(), reset);
+        mMetricsTask.execute();
+    }
+
+    /**
+     * Show the metrics read from the provider, one paragraph per operation.
+     */
+    private void showMetrics(Bundle metrics) {
+        if (metrics == null) {
+            mMetricsTextView.setText(null);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(getString(R.string.metrics_notifications,
+                metrics.getLong(Metrics.EXTRA_NOTIFICATIONS)));
+        text.append('\n').append(getString(R.string.metrics_cache,
+                metrics.getLong(Metrics.EXTRA_CACHE_HITS),
+                metrics.getLong(Metrics.EXTRA_CACHE_MISSES),
+                metrics.getInt(Metrics.EXTRA_CACHE_ENTRIES)));
+        ArrayList<String> operations = metrics.getStringArrayList(Metrics.EXTRA_OPERATIONS);
+        if (operations != null) {
+            for (String operation : operations) {
+                Bundle stat = metrics.getBundle(operation);
+                long calls = stat.getLong(Metrics.EXTRA_CALLS);
+                long[] histogram = stat.getLongArray(Metrics.EXTRA_HISTOGRAM);
+                text.append("\n\n").append(getString(R.string.metrics_operation,
+                        operation,
+                        calls,
+                        stat.getLong(Metrics.EXTRA_ERRORS),
+                        stat.getLong(Metrics.EXTRA_ROWS),
+                        calls != 0 ? stat.getLong(Metrics.EXTRA_TOTAL_MICROS) / calls : 0,
+                        Metrics.percentileMicros(histogram, 0.5),
+                        Metrics.percentileMicros(histogram, 0.99),
+                        stat.getLong(Metrics.EXTRA_MAX_MICROS)));
+            }
+        }
+        mMetricsTextView.setText(text);
+    }
+
+    /**
+     * Reads the metrics from the provider, which may wait for the database, off the main thread.
+     */
+    private class MetricsTask extends AsyncTask<Void, Void, Bundle> {
+
+        private final ContentResolver mContentResolver;
+        private final boolean mReset;
+
+        MetricsTask(ContentResolver contentResolver, boolean reset) {
+            mContentResolver = contentResolver;
+            mReset = reset;
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... params) {
+            Bundle extras = new Bundle();
+            extras.putBoolean(Metrics.EXTRA_RESET, mReset);
+            return mContentResolver.call(ProductEntry.CONTENT_URI, Metrics.METHOD, null, extras);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle metrics) {
+            showMetrics(metrics);
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -22,6 +24,7 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ItemContract.Money;
 import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
 
 /**
@@ -53,6 +56,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     // EditText for the Supplier Phone Number
     private EditText mSupplierPhoneNumber;
 
+    // EditText field to enter the stock below which the item is reordered
+    private EditText mReorderThresholdEditText;
+
 
     /**
      * Boolean flag that keeps track of whether the product has been edited (true) or not (false)
@@ -121,6 +127,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mItemRemoveButton = findViewById(R.id.edit_remove_item_button);
         mSupplierNameEditText = findViewById(R.id.edit_supplier_name);
         mSupplierPhoneNumber = findViewById(R.id.edit_supplier_phone_number);
+        mReorderThresholdEditText = findViewById(R.id.edit_reorder_threshold);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -131,6 +138,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mItemRemoveButton.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierPhoneNumber.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
 
         // Handles button for increasing quantity
         mItemAddButton.setOnClickListener(new View.OnClickListener() {
@@ -269,7 +277,28 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return false;
         }
 
-        Float itemPrice = Float.parseFloat(itemPriceString);
+        long itemPrice;
+        try {
+            itemPrice = Money.parseCents(itemPriceString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.toast_invalid_product_price, Toast.LENGTH_LONG).show();
+            return false;
+        }
+        if (itemPrice < 0) {
+            Toast.makeText(this, R.string.toast_invalid_product_price, Toast.LENGTH_LONG).show();
+            return false;
+        }
+
+        // An empty threshold never reorders
+        int reorderThreshold = 0;
+        if (!isEmpty(mReorderThresholdEditText)) {
+            try {
+                reorderThreshold = Integer.parseInt(mReorderThresholdEditText.getText().toString().trim());
+            } catch (NumberFormatException e) {
+                Toast.makeText(this, R.string.toast_invalid_reorder_threshold, Toast.LENGTH_LONG).show();
+                return false;
+            }
+        }
 
         // Create a ContentValues object where column names are the keys,
         // and product attributes from the editor are the values.
@@ -279,40 +308,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, itemQuantity);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierNameString);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, supplierPhoneNumberString);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, reorderThreshold);
+
+        // The write runs on the writer thread, after the writes started before it. The toasts
+        // use the application context, the activity is finished by then.
+        final Context appContext = getApplicationContext();
+        final Uri currentProductUri = mCurrentProductUri;
+        final ContentValues productValues = values;
 
 // Determine if this is a new or existing item by checking if mCurrentProductUri is null or not
-        if (mCurrentProductUri == null) {
+        if (currentProductUri == null) {
             // This is a NEW item, so insert a new one into the provider,
             // returning the content URI for the new item.
-            Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            WriteExecutor.getInstance(this).submit(new WriteExecutor.Write<Uri>() {
+                @Override
+                public Uri run(ContentResolver contentResolver) {
+                    return contentResolver.insert(ProductEntry.CONTENT_URI, productValues);
+                }
+            }, new WriteExecutor.Callback<Uri>() {
+                @Override
+                public void onWriteFinished(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    // If the new content URI is null, then there was an error with insertion.
+                    Toast.makeText(appContext, newUri == null ?
+                                    R.string.editor_insert_item_failed :
+                                    R.string.editor_insert_item_successful,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         } else {
             // Otherwise this is an EXISTING item, so update with content URI: mCurrentProductUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentProductUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            WriteExecutor.getInstance(this).submit(new WriteExecutor.Write<Integer>() {
+                @Override
+                public Integer run(ContentResolver contentResolver) {
+                    return contentResolver.update(currentProductUri, productValues, null, null);
+                }
+            }, new WriteExecutor.Callback<Integer>() {
+                @Override
+                public void onWriteFinished(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    // If no rows were affected, then there was an error with the update.
+                    Toast.makeText(appContext, rowsAffected == null || rowsAffected == 0 ?
+                                    R.string.editor_insert_item_failed :
+                                    R.string.editor_insert_item_successful,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         }
         return true;
     }
@@ -368,7 +412,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_PRODUCT_PRICE,
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -395,20 +440,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             int productQuantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
             int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+            int reorderThresholdColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
 
             // Extract out the value from the Cursor for the given column index
             String productName = cursor.getString(productNameColumnIndex);
-            Float productPrice = cursor.getFloat(productPriceColumnIndex);
+            long productPrice = cursor.getLong(productPriceColumnIndex);
             itemQuantity = cursor.getInt(productQuantityColumnIndex);
             String supplierName = cursor.getString(supplierNameColumnIndex);
             String supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
+            int reorderThreshold = cursor.getInt(reorderThresholdColumnIndex);
 
             // Update the views on the screen with the values from the database
             mItemNameEditText.setText(productName);
-            mItemPriceEditText.setText(String.valueOf(productPrice));
+            mItemPriceEditText.setText(Money.formatCents(productPrice));
             mItemQuantityTextView.setText(String.valueOf(itemQuantity));
             mSupplierNameEditText.setText(supplierName);
             mSupplierPhoneNumber.setText(supplierPhoneNumber);
+            mReorderThresholdEditText.setText(reorderThreshold > 0 ? String.valueOf(reorderThreshold) : "");
 
             displayQuantity();
         }
@@ -423,6 +471,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         displayQuantity();
         mSupplierNameEditText.setText("");
         mSupplierPhoneNumber.setText("");
+        mReorderThresholdEditText.setText("");
     }
 
     /**
@@ -489,21 +538,27 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deleteItem() {
         // Only perform the delete if this is an existing item.
         if (mCurrentProductUri != null) {
-            // Call the ContentResolver to delete the item at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentProductUri
-            // content URI already identifies the item that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentProductUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Call the ContentResolver to delete the item at the given content URI, on the
+            // writer thread. Pass in null for the selection and selection args because the
+            // mCurrentProductUri content URI already identifies the item that we want.
+            final Context appContext = getApplicationContext();
+            final Uri currentProductUri = mCurrentProductUri;
+            WriteExecutor.getInstance(this).submit(new WriteExecutor.Write<Integer>() {
+                @Override
+                public Integer run(ContentResolver contentResolver) {
+                    return contentResolver.delete(currentProductUri, null, null);
+                }
+            }, new WriteExecutor.Callback<Integer>() {
+                @Override
+                public void onWriteFinished(Integer rowsDeleted) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    // If no rows were deleted, then there was an error with the delete.
+                    Toast.makeText(appContext, rowsDeleted == null || rowsDeleted == 0 ?
+                                    R.string.editor_delete_item_failed :
+                                    R.string.editor_delete_item_successful,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         }
 
         // Close the activity
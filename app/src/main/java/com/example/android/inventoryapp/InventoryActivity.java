@@ -1,21 +1,40 @@
 package com.example.android.inventoryapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.app.ProgressDialog;
 import android.content.ContentUris;
-import android.content.CursorLoader;
+import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.ItemContract;
+import com.example.android.inventoryapp.data.ItemContract.Snapshots;
+import com.example.android.inventoryapp.data.ProductCsv;
+
+import java.io.File;
 
 import static com.example.android.inventoryapp.data.ItemContract.ProductEntry;
 
@@ -30,13 +49,108 @@ public class InventoryActivity extends AppCompatActivity implements
      * Identifier for the product data loader
      */
     private static final int PRODUCT_LOADER = 0;
+
+    /**
+     * Number of products loaded at once by the list
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The next page starts loading when the user scrolls this close to the end of the list
+     */
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+
+    /**
+     * Request codes of the documents picked for the CSV import and export
+     */
+    private static final int REQUEST_IMPORT_CSV = 1;
+    private static final int REQUEST_EXPORT_CSV = 2;
+
+    /**
+     * Request code of the permission to post the low stock notifications
+     */
+    private static final int REQUEST_POST_NOTIFICATIONS = 3;
+
+    /**
+     * First Android version asking for the permission to post notifications: Android 13.
+     */
+    private static final int POST_NOTIFICATIONS_SDK = 33;
+    private static final String PERMISSION_POST_NOTIFICATIONS = "android.permission.POST_NOTIFICATIONS";
+
+    /**
+     * Class of the screen of the provider metrics, in the debug source set only
+     */
+    private static final String METRICS_ACTIVITY =
+            InventoryActivity.class.getPackage().getName() + ".MetricsActivity";
+
+    /**
+     * Snapshot of the database saved from the menu, in the private files of the app
+     */
+    private static final String SNAPSHOT_FILE_NAME = "snapshots/store.db";
     private static final String LOG_TAG = InventoryActivity.class.getSimpleName();
 
+    /**
+     * Intent extra choosing the order the list starts with, one of the {@link ProductEntry} sorts
+     */
+    static final String EXTRA_SORT = "com.example.android.inventoryapp.extra.SORT";
+
+    /**
+     * Keys of the list order and price filter in the saved instance state
+     */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_MIN_PRICE = "min_price";
+    private static final String STATE_MAX_PRICE = "max_price";
+
     /**
      * Adapter for the ListView
      */
     private ItemCursorAdapter mCursorAdapter;
 
+    /**
+     * List showing the products
+     */
+    private ListView mProductsListView;
+
+    /**
+     * Writes the sales made from the list, combining the quick successive taps
+     */
+    private SaleCoalescer mSaleCoalescer;
+
+    /**
+     * Progress of the running CSV import, or null
+     */
+    private ProgressDialog mImportProgressDialog;
+
+    /**
+     * Products last delivered by the loader. They are not shown while a deletion of all the
+     * products can still be undone or is running.
+     */
+    private Cursor mLoadedCursor;
+    private boolean mProductsHidden;
+
+    /**
+     * True while the deletion of all the products can still be undone, before it starts
+     */
+    private boolean mDeleteAllPending;
+    private ProductDeleteAllTask mDeleteAllTask;
+    private Snackbar mDeleteAllSnackbar;
+
+    /**
+     * Text the products are searched for, null when the whole list is shown
+     */
+    private String mSearchQuery;
+
+    /**
+     * Order of the list, one of the {@link ProductEntry} sorts
+     */
+    private String mSort = ProductEntry.SORT_ID;
+
+    /**
+     * Price range of the list in cents, or null for no bound
+     */
+    private Long mMinPriceCents;
+    private Long mMaxPriceCents;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -54,6 +168,7 @@ public class InventoryActivity extends AppCompatActivity implements
 
         // Find the ListView which will be populated with the product data
         ListView productsListView = (ListView) findViewById(R.id.product_list);
+        mProductsListView = productsListView;
 
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
@@ -61,7 +176,25 @@ public class InventoryActivity extends AppCompatActivity implements
 
         // Setup an Adapter to create a list item for each row of product data in the Cursor.
         // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new ItemCursorAdapter(this, null);
+        mSaleCoalescer = new SaleCoalescer(WriteExecutor.getInstance(this),
+                new SaleCoalescer.OnSaleWrittenListener() {
+                    @Override
+                    public void onSaleWritten(long productId, int unitsSold, int newQuantity) {
+                        // Keep showing the new stock until the row is loaded again
+                        mCursorAdapter.updateQuantity(mProductsListView, productId, newQuantity);
+                        Toast.makeText(InventoryActivity.this, getResources().getQuantityString(
+                                R.plurals.items_sold, unitsSold, unitsSold), Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onSaleFailed(long productId, int units) {
+                        // The sales are dropped, show the stock without them again
+                        mCursorAdapter.rebindRow(mProductsListView, productId);
+                        Toast.makeText(InventoryActivity.this, R.string.item_not_sold,
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+        mCursorAdapter = new ItemCursorAdapter(this, null, mSaleCoalescer);
         productsListView.setAdapter(mCursorAdapter);
 
         // Setup the item click listener
@@ -84,16 +217,176 @@ public class InventoryActivity extends AppCompatActivity implements
             }
         });
 
+        // Load the next page of products as the user approaches the end of the list
+        productsListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0 &&
+                        firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_DISTANCE) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+                    if (loader != null) {
+                        ((ProductPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
+        // Restore the order and filter the user chose before the activity was recreated
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, ProductEntry.SORT_ID);
+            if (savedInstanceState.containsKey(STATE_MIN_PRICE)) {
+                mMinPriceCents = savedInstanceState.getLong(STATE_MIN_PRICE);
+            }
+            if (savedInstanceState.containsKey(STATE_MAX_PRICE)) {
+                mMaxPriceCents = savedInstanceState.getLong(STATE_MAX_PRICE);
+            }
+        } else if (getIntent().hasExtra(EXTRA_SORT)) {
+            // Such as the lowest stock first, from the low stock notification
+            mSort = getIntent().getStringExtra(EXTRA_SORT);
+        }
+
+        if (savedInstanceState == null) {
+            requestNotificationPermission();
+        }
+
         // Kick off the loader
         getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
     }
 
     /**
-     * Helper method to delete all products in the database.
+     * Ask for the permission to post notifications, needed from Android 13 for the low stock
+     * notifications of the {@link LowStockMonitor}. Without it the monitor posts nothing. The
+     * system shows the request only until the user answers it.
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= POST_NOTIFICATIONS_SDK &&
+                checkSelfPermission(PERMISSION_POST_NOTIFICATIONS) !=
+                        PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{PERMISSION_POST_NOTIFICATIONS},
+                    REQUEST_POST_NOTIFICATIONS);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        if (mMinPriceCents != null) {
+            outState.putLong(STATE_MIN_PRICE, mMinPriceCents);
+        }
+        if (mMaxPriceCents != null) {
+            outState.putLong(STATE_MAX_PRICE, mMaxPriceCents);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't keep sales pending while the list is not shown, they could be lost
+        mSaleCoalescer.flush();
+        // Nor the deletion of all products, the user left without undoing it
+        startDeleteAllProducts();
+        // The ledger is compacted while the list is not shown, after the writes above
+        LedgerCompactor.compactIfDue(this);
+    }
+
+    /**
+     * Helper method to delete all products in the database. The products are hidden at once,
+     * and only deleted once the user had a chance to undo it.
      */
     private void deleteAllProducts() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v(LOG_TAG, rowsDeleted + " rows deleted from product database");
+        if (mDeleteAllPending || mDeleteAllTask != null) {
+            return;
+        }
+        mDeleteAllPending = true;
+        setProductsHidden(true);
+
+        mDeleteAllSnackbar = Snackbar.make(mProductsListView, R.string.delete_all_pending,
+                Snackbar.LENGTH_LONG);
+        mDeleteAllSnackbar.setAction(R.string.undo, new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mDeleteAllPending = false;
+                setProductsHidden(false);
+            }
+        });
+        mDeleteAllSnackbar.setCallback(new Snackbar.Callback() {
+            @Override
+            public void onDismissed(Snackbar snackbar, int event) {
+                if (event != DISMISS_EVENT_ACTION) {
+                    startDeleteAllProducts();
+                }
+            }
+        });
+        mDeleteAllSnackbar.show();
+    }
+
+    /**
+     * Start deleting all the products in the background, if the user didn't undo it.
+     */
+    private void startDeleteAllProducts() {
+        if (!mDeleteAllPending) {
+            return;
+        }
+        mDeleteAllPending = false;
+
+        mDeleteAllSnackbar = Snackbar.make(mProductsListView, R.string.delete_all_started,
+                Snackbar.LENGTH_INDEFINITE);
+        mDeleteAllSnackbar.setAction(R.string.cancel, new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                // Stops after the current chunk, the products deleted so far stay deleted
+                if (mDeleteAllTask != null) {
+                    mDeleteAllTask.cancel(false);
+                }
+            }
+        });
+        mDeleteAllSnackbar.show();
+
+        mDeleteAllTask = new ProductDeleteAllTask(getContentResolver(),
+                new ProductDeleteAllTask.Callbacks() {
+                    @Override
+                    public void onDeleteProgress(int rowsDeleted, int rowCount) {
+                        if (mDeleteAllSnackbar != null) {
+                            mDeleteAllSnackbar.setText(getString(R.string.delete_all_progress,
+                                    rowsDeleted, rowCount));
+                        }
+                    }
+
+                    @Override
+                    public void onDeleteFinished(int rowsDeleted, boolean cancelled) {
+                        mDeleteAllTask = null;
+                        if (mDeleteAllSnackbar != null) {
+                            mDeleteAllSnackbar.dismiss();
+                            mDeleteAllSnackbar = null;
+                        }
+                        if (isFinishing()) {
+                            return;
+                        }
+                        // The loader reloads after the final notification, show what is left
+                        setProductsHidden(false);
+                        String message = getResources().getQuantityString(
+                                R.plurals.products_deleted, rowsDeleted, rowsDeleted);
+                        if (cancelled) {
+                            message = getString(R.string.delete_all_cancelled, message);
+                        }
+                        Toast.makeText(InventoryActivity.this, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
+        mDeleteAllTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Hide the products from the list, or show the ones last loaded again.
+     */
+    private void setProductsHidden(boolean hidden) {
+        mProductsHidden = hidden;
+        mCursorAdapter.swapCursor(hidden ? null : mLoadedCursor);
     }
 
     @Override
@@ -101,21 +394,358 @@ public class InventoryActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        menu.findItem(getSortMenuItemId(mSort)).setChecked(true);
+
+        // Search the products as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String searchQuery = TextUtils.isEmpty(newText) ? null : newText;
+                if (!TextUtils.equals(searchQuery, mSearchQuery)) {
+                    mSearchQuery = searchQuery;
+                    getLoaderManager().restartLoader(PRODUCT_LOADER, null, InventoryActivity.this);
+                }
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_clear_filter).setVisible(
+                mMinPriceCents != null || mMaxPriceCents != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" options
+            case R.id.action_sort_id:
+                setSort(ProductEntry.SORT_ID, item);
+                return true;
+            case R.id.action_sort_name:
+                setSort(ProductEntry.SORT_NAME, item);
+                return true;
+            case R.id.action_sort_quantity:
+                setSort(ProductEntry.SORT_QUANTITY, item);
+                return true;
+            case R.id.action_sort_price:
+                setSort(ProductEntry.SORT_PRICE, item);
+                return true;
+            case R.id.action_sort_supplier:
+                setSort(ProductEntry.SORT_SUPPLIER, item);
+                return true;
+            // Respond to a click on the "Filter by price" menu option
+            case R.id.action_filter_price:
+                showPriceFilterDialog();
+                return true;
+            // Respond to a click on the "Clear filter" menu option
+            case R.id.action_clear_filter:
+                setPriceFilter(null, null);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
                 return true;
+            // Respond to a click on the "Import CSV" menu option: pick the file to import
+            case R.id.action_import_csv:
+                Intent importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                importIntent.setType("*/*");
+                importIntent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                        ProductCsv.MIME_TYPE, "text/comma-separated-values", "text/plain"});
+                startActivityForResult(importIntent, REQUEST_IMPORT_CSV);
+                return true;
+            // Respond to a click on the "Export CSV" menu option: pick the file to write
+            case R.id.action_export_csv:
+                Intent exportIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                exportIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                exportIntent.setType(ProductCsv.MIME_TYPE);
+                exportIntent.putExtra(Intent.EXTRA_TITLE, getString(R.string.export_file_name));
+                startActivityForResult(exportIntent, REQUEST_EXPORT_CSV);
+                return true;
+            // Respond to a click on the "Save snapshot" menu option
+            case R.id.action_snapshot:
+                new SnapshotTask(getContentResolver(), Snapshots.METHOD_SNAPSHOT,
+                        getSnapshotFile(), mSnapshotCallbacks)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                return true;
+            // Respond to a click on the "Restore snapshot" menu option
+            case R.id.action_restore_snapshot:
+                showRestoreConfirmationDialog();
+                return true;
+            // Respond to a click on the "Provider metrics" menu option, only shown in debug builds
+            case R.id.action_metrics:
+                startActivity(new Intent().setClassName(this, METRICS_ACTIVITY));
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private static int getSortMenuItemId(String sort) {
+        switch (sort) {
+            case ProductEntry.SORT_NAME:
+                return R.id.action_sort_name;
+            case ProductEntry.SORT_QUANTITY:
+                return R.id.action_sort_quantity;
+            case ProductEntry.SORT_PRICE:
+                return R.id.action_sort_price;
+            case ProductEntry.SORT_SUPPLIER:
+                return R.id.action_sort_supplier;
+            default:
+                return R.id.action_sort_id;
+        }
+    }
+
+    /**
+     * Show the products in another order, reloading the list from its first page.
+     */
+    private void setSort(String sort, MenuItem item) {
+        item.setChecked(true);
+        if (!sort.equals(mSort)) {
+            mSort = sort;
+            getLoaderManager().restartLoader(PRODUCT_LOADER, null, this);
+        }
+    }
+
+    /**
+     * Only show the products priced in the given range, in cents. A null bound is not applied.
+     */
+    private void setPriceFilter(Long minPriceCents, Long maxPriceCents) {
+        mMinPriceCents = minPriceCents;
+        mMaxPriceCents = maxPriceCents;
+        invalidateOptionsMenu();
+        getLoaderManager().restartLoader(PRODUCT_LOADER, null, this);
+    }
+
+    /**
+     * Ask the user for the price range of the products to show. An empty field leaves that end
+     * of the range open.
+     */
+    private void showPriceFilterDialog() {
+        final View dialogView = getLayoutInflater().inflate(R.layout.dialog_price_filter, null);
+        final EditText minPriceEditText = (EditText) dialogView.findViewById(R.id.filter_min_price);
+        final EditText maxPriceEditText = (EditText) dialogView.findViewById(R.id.filter_max_price);
+        if (mMinPriceCents != null) {
+            minPriceEditText.setText(ItemContract.Money.formatCents(mMinPriceCents));
+        }
+        if (mMaxPriceCents != null) {
+            maxPriceEditText.setText(ItemContract.Money.formatCents(mMaxPriceCents));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_price_title);
+        builder.setView(dialogView);
+        builder.setPositiveButton(R.string.filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                Long minPriceCents;
+                Long maxPriceCents;
+                try {
+                    minPriceCents = parsePriceBound(minPriceEditText);
+                    maxPriceCents = parsePriceBound(maxPriceEditText);
+                } catch (NumberFormatException e) {
+                    minPriceCents = -1L;
+                    maxPriceCents = null;
+                }
+                if ((minPriceCents != null && minPriceCents < 0) ||
+                        (maxPriceCents != null && maxPriceCents < 0) ||
+                        (minPriceCents != null && maxPriceCents != null && minPriceCents > maxPriceCents)) {
+                    Toast.makeText(InventoryActivity.this, R.string.filter_price_invalid,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                setPriceFilter(minPriceCents, maxPriceCents);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Return the price typed in the field in cents, or null if it is empty.
+     *
+     * @throws NumberFormatException if the text is not a decimal number
+     */
+    private static Long parsePriceBound(EditText editText) {
+        String text = editText.getText().toString().trim();
+        return TextUtils.isEmpty(text) ? null : ItemContract.Money.parseCents(text);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        switch (requestCode) {
+            case REQUEST_IMPORT_CSV:
+                importProducts(data.getData());
+                break;
+            case REQUEST_EXPORT_CSV:
+                exportProducts(data.getData());
+                break;
+            default:
+                super.onActivityResult(requestCode, resultCode, data);
+        }
+    }
+
+    /**
+     * Import the products of a CSV file in the background, showing the progress.
+     */
+    private void importProducts(Uri source) {
+        mImportProgressDialog = new ProgressDialog(this);
+        mImportProgressDialog.setTitle(R.string.import_progress_title);
+        mImportProgressDialog.setMessage(getString(R.string.import_progress_rows, 0));
+        mImportProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mImportProgressDialog.setMax(100);
+        mImportProgressDialog.setCancelable(false);
+        mImportProgressDialog.show();
+
+        new ProductImportTask(getContentResolver(), source, new ProductImportTask.Callbacks() {
+            @Override
+            public void onImportProgress(int rowsImported, int percent) {
+                if (mImportProgressDialog == null) {
+                    return;
+                }
+                mImportProgressDialog.setMessage(getString(R.string.import_progress_rows, rowsImported));
+                if (percent >= 0) {
+                    mImportProgressDialog.setProgress(percent);
+                }
+            }
+
+            @Override
+            public void onImportFinished(ProductImportTask.Result result) {
+                if (mImportProgressDialog != null) {
+                    mImportProgressDialog.dismiss();
+                    mImportProgressDialog = null;
+                }
+                if (isFinishing()) {
+                    return;
+                }
+                showImportResult(result);
+            }
+        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Tell the user how many products were imported, and why rows were skipped.
+     */
+    private void showImportResult(ProductImportTask.Result result) {
+        StringBuilder message = new StringBuilder();
+        if (result.mFailure != null) {
+            message.append(getString(R.string.import_failed, result.mFailure)).append("\n\n");
+        }
+        message.append(getString(R.string.import_result, result.mRowsImported, result.mRowsFailed));
+        if (!result.mErrors.isEmpty()) {
+            message.append("\n\n").append(getString(R.string.import_result_errors));
+            for (String error : result.mErrors) {
+                message.append('\n').append(error);
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.import_result_title)
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    /**
+     * Write the products to a CSV file in the background.
+     */
+    private void exportProducts(Uri destination) {
+        new ProductExportTask(getContentResolver(), destination, new ProductExportTask.Callbacks() {
+            @Override
+            public void onExportFinished(boolean success) {
+                Toast.makeText(InventoryActivity.this,
+                        success ? R.string.export_successful : R.string.export_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private File getSnapshotFile() {
+        return new File(getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Prompt the user to confirm that they want to replace the inventory with the snapshot.
+     */
+    private void showRestoreConfirmationDialog() {
+        final File snapshot = getSnapshotFile();
+        if (!snapshot.exists()) {
+            Toast.makeText(this, R.string.no_snapshot, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String savedOn = DateUtils.formatDateTime(this, snapshot.lastModified(),
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.restore_dialog_msg, savedOn));
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Pending sales were made on the current inventory, write them first: the
+                // restore runs on the writer thread, after them
+                mSaleCoalescer.flush();
+                new SnapshotTask(getContentResolver(), Snapshots.METHOD_RESTORE, snapshot,
+                        mSnapshotCallbacks).executeOnExecutor(
+                        WriteExecutor.getInstance(InventoryActivity.this));
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Tell the user whether the snapshot was saved or restored. The list reloads by itself
+     * after a restore, through the change notifications.
+     */
+    private final SnapshotTask.Callbacks mSnapshotCallbacks = new SnapshotTask.Callbacks() {
+        @Override
+        public void onSnapshotFinished(String method, Bundle result) {
+            String message;
+            if (Snapshots.METHOD_SNAPSHOT.equals(method)) {
+                message = result != null ? getString(R.string.snapshot_successful,
+                        result.getLong(Snapshots.EXTRA_DURATION_MILLIS)) :
+                        getString(R.string.snapshot_failed);
+            } else {
+                message = getString(result != null ? R.string.restore_successful :
+                        R.string.restore_failed);
+            }
+            Toast.makeText(InventoryActivity.this, message, Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mImportProgressDialog != null) {
+            mImportProgressDialog.dismiss();
+            mImportProgressDialog = null;
+        }
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         // Define a projection that specifies the columns from the table we care about.
@@ -126,24 +756,49 @@ public class InventoryActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_QUANTITY
         };
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
+        // The products in the order and price range the user chose
+        Uri.Builder listUri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_SORT, mSort);
+        if (mMinPriceCents != null) {
+            listUri.appendQueryParameter(ProductEntry.QUERY_PARAMETER_MIN_PRICE,
+                    String.valueOf(mMinPriceCents));
+        }
+        if (mMaxPriceCents != null) {
+            listUri.appendQueryParameter(ProductEntry.QUERY_PARAMETER_MAX_PRICE,
+                    String.valueOf(mMaxPriceCents));
+        }
+
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // one page at a time
+        ProductPageLoader loader = new ProductPageLoader(this,   // Parent activity context
                 projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+                PAGE_SIZE,              // Products per page
+                mSearchQuery,           // Text to search for, null for all products
+                listUri.build());       // Order and filter of the list
+
+        // Only rebind the rows of the products that changed, such as after a sale
+        loader.setOnRowsChangedListener(new ProductPageLoader.OnRowsChangedListener() {
+            @Override
+            public void onRowsChanged(LongSparseArray<ContentValues> rows) {
+                mCursorAdapter.updateRows(mProductsListView, rows);
+            }
+        });
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         // Update {@link ItemCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
+        mLoadedCursor = data;
+        if (!mProductsHidden) {
+            mCursorAdapter.swapCursor(data);
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
+        mLoadedCursor = null;
         mCursorAdapter.swapCursor(null);
     }
 }
\ No newline at end of file
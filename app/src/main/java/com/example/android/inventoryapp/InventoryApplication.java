@@ -0,0 +1,34 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Turns StrictMode on in debug builds, so any disk access on the main thread is logged. The
+ * writes go through {@link WriteExecutor} and the reads through loaders, so the list and the
+ * editor should keep it silent.
+ * <p>
+ * Starts the {@link LowStockMonitor} for the lifetime of the process.
+ */
+public class InventoryApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+
+        new LowStockMonitor(this).start();
+    }
+}
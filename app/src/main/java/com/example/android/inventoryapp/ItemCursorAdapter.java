@@ -2,33 +2,167 @@ package com.example.android.inventoryapp;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.net.Uri;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CursorAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ItemContract.Money;
 import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
 
 /**
  * {@link ItemCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of product data as its data source. This adapter knows
  * how to create list items for each row of product data in the {@link Cursor}.
+ * <p>
+ * Products changed after the cursor was loaded are passed to {@link #updateRows}, which
+ * only rebinds their views, instead of swapping in a whole new cursor.
+ * <p>
+ * Binding a row allocates nothing: the views and text buffers of each list item are kept in
+ * its {@link ViewHolder}, the column indices are looked up once per cursor, and all the sale
+ * buttons share a single click listener.
+ * <p>
+ * Sales go through a {@link SaleCoalescer}, and the quantities shown already subtract the units
+ * sold but not written yet.
  */
 class ItemCursorAdapter extends CursorAdapter {
 
+    /**
+     * New values of the products changed since the cursor was loaded, keyed by ID. They take
+     * precedence over the cursor rows until the next cursor is swapped in.
+     */
+    private final LongSparseArray<ContentValues> mChangedRows = new LongSparseArray<>();
+
+    // Column indices of the product attributes in the current cursor
+    private int mIdColumnIndex;
+    private int mNameColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
+
+    // Collects the sales until they are written
+    private final SaleCoalescer mSaleCoalescer;
+
+    /**
+     * Sells one unit of the product of the clicked sale button. The button tag holds the
+     * {@link ViewHolder} of its list item.
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+
+            // Only sell if there is at least one item left once the pending sales are written.
+            if (holder.mQuantity - mSaleCoalescer.getPendingUnits(holder.mProductId) <= 0) {
+                Toast.makeText(v.getContext(), R.string.item_not_sold, Toast.LENGTH_LONG).show();
+                v.setEnabled(false);
+                return;
+            }
+
+            // The sale is written later with the next taps, show the new stock right away
+            mSaleCoalescer.sell(holder.mProductId);
+            showQuantity(holder);
+        }
+    };
+
     /**
      * Constructs a new {@link ItemCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context       The context
+     * @param c             The cursor from which to get the data.
+     * @param saleCoalescer Writes the sales made with the sale buttons
      */
-    public ItemCursorAdapter(Context context, Cursor c) {
+    public ItemCursorAdapter(Context context, Cursor c, SaleCoalescer saleCoalescer) {
         super(context, c, 0 /* flags */);
+        mSaleCoalescer = saleCoalescer;
+        findColumnIndices(c);
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != getCursor()) {
+            // The new cursor holds the current values of every row
+            mChangedRows.clear();
+            findColumnIndices(newCursor);
+        }
+        return super.swapCursor(newCursor);
+    }
+
+    /**
+     * Look up the columns of the product attributes in the cursor, once for all its rows.
+     */
+    private void findColumnIndices(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        mIdColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+        mNameColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+        mPriceColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+        mQuantityColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    /**
+     * Record the new values of the changed products and rebind the visible ones. The other rows
+     * pick up their values when they are scrolled into view.
+     *
+     * @param listView The list this adapter is attached to
+     * @param rows     New values of the changed products, keyed by ID
+     */
+    void updateRows(ListView listView, LongSparseArray<ContentValues> rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            mChangedRows.put(rows.keyAt(i), rows.valueAt(i));
+        }
+
+        int firstPosition = listView.getFirstVisiblePosition();
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            int position = firstPosition + i;
+            if (position < getCount() && rows.get(getItemId(position)) != null) {
+                // Binds the row again into the existing view
+                getView(position, listView.getChildAt(i), listView);
+            }
+        }
+    }
+
+    /**
+     * Record the new stock of a product, such as returned by a sale, and rebind its view if it
+     * is visible.
+     *
+     * @param listView  The list this adapter is attached to
+     * @param productId ID of the product
+     * @param quantity  New stock of the product
+     */
+    void updateQuantity(ListView listView, long productId, int quantity) {
+        ContentValues changedRow = mChangedRows.get(productId);
+        if (changedRow == null) {
+            changedRow = new ContentValues();
+            mChangedRows.put(productId, changedRow);
+        }
+        changedRow.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        rebindRow(listView, productId);
+    }
+
+    /**
+     * Bind the product again into its view if it is visible, such as after its pending sales
+     * were dropped.
+     *
+     * @param listView  The list this adapter is attached to
+     * @param productId ID of the product
+     */
+    void rebindRow(ListView listView, long productId) {
+        int firstPosition = listView.getFirstVisiblePosition();
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            int position = firstPosition + i;
+            if (position < getCount() && getItemId(position) == productId) {
+                getView(position, listView.getChildAt(i), listView);
+                break;
+            }
+        }
     }
 
     /**
@@ -43,7 +177,22 @@ class ItemCursorAdapter extends CursorAdapter {
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        return attachViewHolder(view);
+    }
+
+    /**
+     * Find the views of a new list item once, they are reused for every row bound to it. The
+     * view must hold the views of list_item.xml, with the same IDs.
+     *
+     * @return the view
+     */
+    View attachViewHolder(View view) {
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        holder.mSaleButton.setTag(holder);
+        holder.mSaleButton.setOnClickListener(mSaleClickListener);
+        return view;
     }
 
     /**
@@ -56,59 +205,91 @@ class ItemCursorAdapter extends CursorAdapter {
      *                correct row.
      */
     @Override
-    public void bindView(final View view, final Context context, final Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView productNameTextView = (TextView) view.findViewById(R.id.product_name);
-        TextView productPriceTextView = (TextView) view.findViewById(R.id.product_price);
-        TextView productQuantityTextView = (TextView) view.findViewById(R.id.product_quantity);
-
-        // Find the columns of product attributes that we're interested in
-        final int productNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-        int productPriceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-        final int productQuantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-
-        // Read the product attributes from the Cursor for the current product
-        String productName = cursor.getString(productNameColumnIndex);
-        Float productPrice = cursor.getFloat(productPriceColumnIndex);
-        final Integer productQuantity = cursor.getInt(productQuantityColumnIndex);
-
-        // Update the TextViews with the attributes for the current product
-        productNameTextView.setText(productName);
-        productPriceTextView.setText(String.valueOf(productPrice));
-        productQuantityTextView.setText(String.valueOf(productQuantity));
-
-        final Button saleButton = (Button) view.findViewById(R.id.sale_button);
-        if (productQuantity == 0) saleButton.setEnabled(false);
-        else saleButton.setEnabled(true);
-
-        saleButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-
-                // check if there is at least one item to sell
-                if (cursor.getInt(productQuantityColumnIndex) >= 0) {
-                    ContentValues values = new ContentValues();
-                    int updatedProductQuantity = productQuantity - 1;
-                    values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, updatedProductQuantity);
-
-                    int idColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
-                    long id = cursor.getLong(idColumnIndex);
-                    int rowsAffected = context.getContentResolver().update(Uri.withAppendedPath(ProductEntry.CONTENT_URI, String.valueOf(id)), values, null, null);
-
-                    // Show a toast message depending on whether or not the update was successful.
-                    if (rowsAffected == 0) {
-                        // If no rows were affected, then there was an error with the update.
-                        Toast.makeText(view.getContext(), R.string.item_not_sold, Toast.LENGTH_LONG).show();
-                    } else {
-                        // Otherwise, the update was successful and we can display a toast.
-                        Toast.makeText(view.getContext(), R.string.item_sold, Toast.LENGTH_LONG).show();
-                    }
-
-                } else {
-                    saleButton.setEnabled(false);
-                }
-            }
-        });
+    public void bindView(View view, Context context, Cursor cursor) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+
+        // Read the product attributes for the current product, from its changed values if any
+        // or else from the Cursor
+        holder.mProductId = cursor.getLong(mIdColumnIndex);
+        ContentValues changedRow = mChangedRows.get(holder.mProductId);
+        if (changedRow != null && changedRow.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            holder.mNameTextView.setText(changedRow.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        } else {
+            // Copy the name straight into the buffer of the list item instead of a new String
+            cursor.copyStringToBuffer(mNameColumnIndex, holder.mNameBuffer);
+            holder.mNameTextView.setText(holder.mNameBuffer.data, 0, holder.mNameBuffer.sizeCopied);
+        }
+        long productPrice;
+        if (changedRow != null && changedRow.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            productPrice = changedRow.getAsLong(ProductEntry.COLUMN_PRODUCT_PRICE);
+        } else {
+            productPrice = cursor.getLong(mPriceColumnIndex);
+        }
+        if (changedRow != null && changedRow.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+            holder.mQuantity = changedRow.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        } else {
+            holder.mQuantity = cursor.getInt(mQuantityColumnIndex);
+        }
+
+        // Format the price into the buffer of the list item
+        int priceStart = Money.formatCents(productPrice, holder.mPriceChars);
+        holder.mPriceTextView.setText(holder.mPriceChars, priceStart,
+                holder.mPriceChars.length - priceStart);
+        showQuantity(holder);
+    }
+
+    /**
+     * Show the stock of the product bound to the list item, minus the units sold but not
+     * written yet.
+     */
+    private void showQuantity(ViewHolder holder) {
+        int quantity = holder.mQuantity - mSaleCoalescer.getPendingUnits(holder.mProductId);
+        int quantityStart = formatInt(quantity, holder.mQuantityChars);
+        holder.mQuantityTextView.setText(holder.mQuantityChars, quantityStart,
+                holder.mQuantityChars.length - quantityStart);
+        holder.mSaleButton.setEnabled(quantity > 0);
+    }
+
+    /**
+     * Write the decimal digits of the value at the end of the buffer, which must hold at least
+     * 11 chars. Return the index of the first char written.
+     */
+    private static int formatInt(int value, char[] buffer) {
+        // Work on the negative value, so that Integer.MIN_VALUE fits too
+        int position = buffer.length;
+        int remaining = value < 0 ? value : -value;
+        do {
+            buffer[--position] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            buffer[--position] = '-';
+        }
+        return position;
+    }
+
+    /**
+     * Views and text buffers of a list item, created once with its view.
+     */
+    private static class ViewHolder {
+        final TextView mNameTextView;
+        final TextView mPriceTextView;
+        final TextView mQuantityTextView;
+        final Button mSaleButton;
+
+        final CharArrayBuffer mNameBuffer = new CharArrayBuffer(64);
+        final char[] mPriceChars = new char[Money.MAX_FORMATTED_LENGTH];
+        final char[] mQuantityChars = new char[11];
+
+        // ID and stock of the product currently bound to the list item
+        long mProductId;
+        int mQuantity;
 
+        ViewHolder(View view) {
+            mNameTextView = (TextView) view.findViewById(R.id.product_name);
+            mPriceTextView = (TextView) view.findViewById(R.id.product_price);
+            mQuantityTextView = (TextView) view.findViewById(R.id.product_quantity);
+            mSaleButton = (Button) view.findViewById(R.id.sale_button);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+/**
+ * Compacts the ledger of the stock movements in the background, at most once every
+ * {@link #INTERVAL_MILLIS}. The movements older than {@link #RETENTION_MILLIS} are folded into a
+ * snapshot per product, so the ledger only grows with the recent history. The ledger of every
+ * store is compacted, one store after the other.
+ * <p>
+ * The compaction runs on the {@link WriteExecutor}, after the writes already submitted, and
+ * the provider compacts a few products per transaction, so sales are never held up for long.
+ */
+final class LedgerCompactor {
+
+    /**
+     * Minimum time between two compactions.
+     */
+    private static final long INTERVAL_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * Age of the movements kept in the ledger, one by one.
+     */
+    private static final long RETENTION_MILLIS = 30 * DateUtils.DAY_IN_MILLIS;
+
+    private static final String PREFERENCES_NAME = "ledger_compaction";
+    private static final String KEY_LAST_RUN_MILLIS = "last_run_millis";
+
+    private LedgerCompactor() {
+    }
+
+    /**
+     * Compact the ledger in the background if the last compaction is older than
+     * {@link #INTERVAL_MILLIS}. Call it when the app leaves the screen.
+     */
+    static void compactIfDue(Context context) {
+        final Context appContext = context.getApplicationContext();
+        WriteExecutor.getInstance(appContext).submit(new WriteExecutor.Write<Void>() {
+            @Override
+            public Void run(ContentResolver contentResolver) {
+                // The preferences are read on the writer thread too, they are a file
+                SharedPreferences preferences =
+                        appContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+                long now = System.currentTimeMillis();
+                long lastRun = preferences.getLong(KEY_LAST_RUN_MILLIS, 0);
+                if (now - lastRun < INTERVAL_MILLIS && now >= lastRun) {
+                    return null;
+                }
+
+                Cursor stores = contentResolver.query(StoreEntry.CONTENT_URI,
+                        new String[]{StoreEntry._ID}, null, null, null);
+                if (stores == null) {
+                    return null;
+                }
+                try {
+                    while (stores.moveToNext()) {
+                        Bundle extras = new Bundle();
+                        extras.putLong(StockMovementEntry.EXTRA_BEFORE_MILLIS, now - RETENTION_MILLIS);
+                        extras.putLong(StoreEntry.EXTRA_STORE_ID, stores.getLong(0));
+                        contentResolver.call(StockMovementEntry.CONTENT_URI,
+                                StockMovementEntry.METHOD_COMPACT, null, extras);
+                    }
+                } finally {
+                    stores.close();
+                }
+                preferences.edit().putLong(KEY_LAST_RUN_MILLIS, now).apply();
+                return null;
+            }
+        }, null);
+    }
+}
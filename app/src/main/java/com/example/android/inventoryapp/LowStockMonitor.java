@@ -0,0 +1,250 @@
+package com.example.android.inventoryapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.text.format.DateUtils;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Posts a notification when products go below their reorder threshold.
+ * <p>
+ * The monitor watches the ledgers of the stock movements of every store. A change schedules a
+ * check {@link #CHECK_DELAY_MILLIS} later, so a burst of sales costs a single check. Each check
+ * only looks at the movements appended to each ledger since the previous one, remembered by
+ * their ID per store, and the provider reads the products to reorder from an index holding only
+ * them: a check costs the same whatever the size of the catalog.
+ * <p>
+ * Must be created and started on the main thread.
+ */
+final class LowStockMonitor {
+
+    /**
+     * Time between a change of the ledger and the check of the products it moved.
+     */
+    private static final long CHECK_DELAY_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final String CHANNEL_ID = "low_stock";
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final String PREFERENCES_NAME = "low_stock_monitor";
+    private static final String KEY_LAST_MOVEMENT_ID = "last_movement_id";
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler();
+
+    // True while a check is scheduled and not started yet
+    private boolean mCheckPending;
+
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCheckPending = false;
+            check();
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleCheck();
+        }
+    };
+
+    LowStockMonitor(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Start watching the ledgers, and check the movements appended since the app last ran.
+     */
+    void start() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(StockMovementEntry.CONTENT_URI, false, mObserver);
+        // The other stores notify on their scoped URIs, such as "stores/2/movements". The other
+        // changes of their products schedule a check too, which finds no new movement.
+        contentResolver.registerContentObserver(StoreEntry.CONTENT_URI, true, mObserver);
+        scheduleCheck();
+    }
+
+    private void scheduleCheck() {
+        if (!mCheckPending) {
+            mCheckPending = true;
+            mHandler.postDelayed(mCheckRunnable, CHECK_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Find the products that went below their threshold since the last check, on the writer
+     * thread so the check sees the writes submitted before it, and notify them.
+     */
+    private void check() {
+        WriteExecutor.getInstance(mContext).submit(new WriteExecutor.Write<List<String>>() {
+            @Override
+            public List<String> run(ContentResolver contentResolver) {
+                return findNewLowStock(contentResolver);
+            }
+        }, new WriteExecutor.Callback<List<String>>() {
+            @Override
+            public void onWriteFinished(List<String> products) {
+                // The checked range is remembered anyway: the sales made while notifications
+                // were off are not notified once they are turned on
+                if (products != null && !products.isEmpty() && areNotificationsEnabled()) {
+                    notifyLowStock(products);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return a line for each product that went below its threshold through the movements
+     * appended since the last check, store after store.
+     */
+    private List<String> findNewLowStock(ContentResolver contentResolver) {
+        List<String> products = new ArrayList<>();
+        Cursor stores = contentResolver.query(StoreEntry.CONTENT_URI,
+                new String[]{StoreEntry._ID}, null, null, null);
+        if (stores == null) {
+            return products;
+        }
+        SharedPreferences preferences =
+                mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        try {
+            while (stores.moveToNext()) {
+                findNewLowStock(contentResolver, preferences, stores.getLong(0), products);
+            }
+        } finally {
+            stores.close();
+        }
+        return products;
+    }
+
+    /**
+     * Add a line for each product of the store that went below its threshold through the
+     * movements appended to its ledger since the last check, and remember the last of them.
+     * The IDs of the movements are only comparable within a store.
+     */
+    private void findNewLowStock(ContentResolver contentResolver, SharedPreferences preferences,
+                                 long storeId, List<String> products) {
+        // The default store keeps the key it had before the stores
+        String key = storeId == StoreEntry.DEFAULT_STORE_ID ?
+                KEY_LAST_MOVEMENT_ID : KEY_LAST_MOVEMENT_ID + "_" + storeId;
+        long lastMovementId = preferences.getLong(key, -1);
+        long latestMovementId = queryLatestMovementId(contentResolver, storeId);
+        if (latestMovementId == lastMovementId) {
+            return;
+        }
+
+        // The first check, or a restored database with a shorter ledger, starts from its end
+        if (lastMovementId != -1 && latestMovementId > lastMovementId) {
+            Uri uri = StoreEntry.buildStoreUri(storeId, ProductEntry.CONTENT_LOW_STOCK_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_AFTER,
+                            String.valueOf(lastMovementId))
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_UNTIL,
+                            String.valueOf(latestMovementId))
+                    .build());
+            Cursor cursor = contentResolver.query(uri, new String[]{
+                    ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        if (storeId == StoreEntry.DEFAULT_STORE_ID) {
+                            products.add(mContext.getString(R.string.low_stock_product,
+                                    cursor.getString(0), cursor.getInt(1)));
+                        } else {
+                            products.add(mContext.getString(R.string.low_stock_store_product,
+                                    cursor.getString(0), cursor.getInt(1), storeId));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        preferences.edit().putLong(key, latestMovementId).apply();
+    }
+
+    /**
+     * Return the ID of the last movement of the ledger of the store, or -1 if it is empty.
+     */
+    private static long queryLatestMovementId(ContentResolver contentResolver, long storeId) {
+        Uri uri = StoreEntry.buildStoreUri(storeId, StockMovementEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(StockMovementEntry.QUERY_PARAMETER_LIMIT, "1")
+                .build());
+        Cursor cursor = contentResolver.query(uri, new String[]{StockMovementEntry._ID},
+                null, null, StockMovementEntry._ID + " DESC");
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return true if the app may post notifications, false if the user turned them off or
+     * didn't grant the permission asked for by {@link InventoryActivity}.
+     */
+    private boolean areNotificationsEnabled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return true;
+        }
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        return notificationManager.areNotificationsEnabled();
+    }
+
+    /**
+     * Post, or replace, the notification listing the products to reorder. Opening it shows
+     * the products with the lowest stock first.
+     */
+    @SuppressWarnings("deprecation")
+    private void notifyLowStock(List<String> products) {
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    mContext.getString(R.string.low_stock_channel), NotificationManager.IMPORTANCE_DEFAULT));
+            builder = new Notification.Builder(mContext, CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(mContext);
+        }
+
+        Notification.InboxStyle style = new Notification.InboxStyle();
+        for (String product : products) {
+            style.addLine(product);
+        }
+        Intent intent = new Intent(mContext, InventoryActivity.class)
+                .putExtra(InventoryActivity.EXTRA_SORT, ProductEntry.SORT_QUANTITY)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+
+        builder.setSmallIcon(android.R.drawable.stat_sys_warning)
+                .setContentTitle(mContext.getResources().getQuantityString(
+                        R.plurals.low_stock_title, products.size(), products.size()))
+                .setContentText(products.get(0))
+                .setStyle(style)
+                .setContentIntent(PendingIntent.getActivity(mContext, 0, intent,
+                        PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE))
+                .setAutoCancel(true);
+        notificationManager.notify(NOTIFICATION_ID, builder.build());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StatsEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+
+/**
+ * Deletes every product in the background, a chunk at a time. Each chunk is a short transaction
+ * of its own, so the list and the sales keep reading and writing between them, and the task can
+ * be cancelled between two chunks. Listeners are notified once, when the task ends.
+ * <p>
+ * Only the products that exist when the task starts are deleted, the ones added meanwhile stay.
+ */
+class ProductDeleteAllTask extends AsyncTask<Void, Integer, Integer> {
+
+    private static final String LOG_TAG = ProductDeleteAllTask.class.getSimpleName();
+
+    /**
+     * Number of products deleted by each transaction.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Receives the progress and the outcome of the deletion on the main thread.
+     */
+    interface Callbacks {
+        void onDeleteProgress(int rowsDeleted, int rowCount);
+
+        void onDeleteFinished(int rowsDeleted, boolean cancelled);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Callbacks mCallbacks;
+
+    // Number of products when the task started, set before the first progress update
+    private int mRowCount;
+
+    ProductDeleteAllTask(ContentResolver contentResolver, Callbacks callbacks) {
+        mContentResolver = contentResolver;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        long lastId = queryLastId();
+        mRowCount = queryProductCount();
+
+        Uri chunkUri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(CHUNK_SIZE))
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+        String selection = ProductEntry._ID + " <= ?";
+        String[] selectionArgs = {String.valueOf(lastId)};
+
+        int rowsDeleted = 0;
+        try {
+            while (!isCancelled()) {
+                int chunk = mContentResolver.delete(chunkUri, selection, selectionArgs);
+                if (chunk == 0) {
+                    break;
+                }
+                rowsDeleted += chunk;
+                publishProgress(rowsDeleted);
+            }
+        } finally {
+            // The single notification of the whole deletion, even if it stopped early. The
+            // ledgers of the products went with them.
+            if (rowsDeleted != 0) {
+                mContentResolver.notifyChange(ProductEntry.CONTENT_URI, null);
+                mContentResolver.notifyChange(StockMovementEntry.CONTENT_URI, null);
+            }
+        }
+        Log.v(LOG_TAG, rowsDeleted + " rows deleted from product database");
+        return rowsDeleted;
+    }
+
+    /**
+     * Return the highest product ID, or 0 if there are no products.
+     */
+    private long queryLastId() {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, "1")
+                .build();
+        Cursor cursor = mContentResolver.query(uri, new String[]{ProductEntry._ID}, null, null,
+                ProductEntry._ID + " DESC");
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int queryProductCount() {
+        Cursor cursor = mContentResolver.query(StatsEntry.CONTENT_URI,
+                new String[]{StatsEntry.COLUMN_PRODUCT_COUNT}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mCallbacks.onDeleteProgress(values[0], Math.max(mRowCount, values[0]));
+    }
+
+    @Override
+    protected void onPostExecute(Integer rowsDeleted) {
+        mCallbacks.onDeleteFinished(rowsDeleted, false);
+    }
+
+    @Override
+    protected void onCancelled(Integer rowsDeleted) {
+        mCallbacks.onDeleteFinished(rowsDeleted != null ? rowsDeleted : 0, true);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies the CSV export of the products to a file chosen by the user. The provider streams the
+ * rows through a pipe while they are copied, so the catalog is never held in memory.
+ */
+class ProductExportTask extends AsyncTask<Void, Void, Boolean> {
+
+    private static final String LOG_TAG = ProductExportTask.class.getSimpleName();
+
+    /**
+     * Receives the outcome of the export on the main thread.
+     */
+    interface Callbacks {
+        void onExportFinished(boolean success);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Uri mDestination;
+    private final Callbacks mCallbacks;
+
+    ProductExportTask(ContentResolver contentResolver, Uri destination, Callbacks callbacks) {
+        mContentResolver = contentResolver;
+        mDestination = destination;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = mContentResolver.openInputStream(ProductEntry.CONTENT_EXPORT_URI);
+            output = mContentResolver.openOutputStream(mDestination);
+            if (input == null || output == null) {
+                return false;
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            output.flush();
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to export the products to " + mDestination, e);
+            return false;
+        } finally {
+            closeQuietly(input);
+            closeQuietly(output);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to copy
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean success) {
+        mCallbacks.onExportFinished(success);
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.OpenableColumns;
+
+import com.example.android.inventoryapp.data.CsvReader;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductCsv;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports the products of a CSV file in the {@link ProductCsv} format. The file is parsed one
+ * record at a time, and the products are inserted by chunks, each chunk in a single transaction
+ * of the provider. Memory use doesn't depend on the size of the file.
+ * <p>
+ * Invalid rows are skipped and reported in the {@link Result}, with their line in the file.
+ */
+class ProductImportTask extends AsyncTask<Void, Integer, ProductImportTask.Result> {
+
+    /**
+     * Number of products inserted by each transaction.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Number of errors kept to report, the following ones are only counted.
+     */
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    /**
+     * Receives the progress of the import on the main thread.
+     */
+    interface Callbacks {
+        /**
+         * Called after each chunk is inserted.
+         *
+         * @param rowsImported Number of products imported so far
+         * @param percent      Part of the file read so far, or -1 if the file size is unknown
+         */
+        void onImportProgress(int rowsImported, int percent);
+
+        /**
+         * Called once the whole file was read, or the import failed.
+         */
+        void onImportFinished(Result result);
+    }
+
+    /**
+     * Outcome of the import.
+     */
+    static class Result {
+        // Number of products inserted, and of rows skipped
+        int mRowsImported;
+        int mRowsFailed;
+
+        // "line: message" of the first rows skipped
+        final ArrayList<String> mErrors = new ArrayList<>();
+
+        // Reason the file could not be read at all, or null
+        String mFailure;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Uri mSource;
+    private final Callbacks mCallbacks;
+
+    ProductImportTask(ContentResolver contentResolver, Uri source, Callbacks callbacks) {
+        mContentResolver = contentResolver;
+        mSource = source;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected Result doInBackground(Void... params) {
+        Result result = new Result();
+        long size = querySize();
+        CountingInputStream input = null;
+        try {
+            InputStream stream = mContentResolver.openInputStream(mSource);
+            if (stream == null) {
+                throw new IOException("Can't open " + mSource);
+            }
+            input = new CountingInputStream(stream);
+            CsvReader reader = new CsvReader(new BufferedReader(
+                    new InputStreamReader(input, StandardCharsets.UTF_8)));
+
+            List<String> header = reader.readRecord();
+            if (header == null) {
+                result.mFailure = "The file is empty.";
+                return result;
+            }
+            int[] indices = ProductCsv.parseHeader(header);
+
+            List<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+            List<Integer> chunkLines = new ArrayList<>(CHUNK_SIZE);
+            List<String> record;
+            while ((record = reader.readRecord()) != null && !isCancelled()) {
+                if (record.size() == 1 && record.get(0).trim().isEmpty()) {
+                    // Blank line
+                    continue;
+                }
+                try {
+                    chunk.add(ProductCsv.parseRecord(record, indices));
+                    chunkLines.add(reader.getRecordLine());
+                } catch (IllegalArgumentException e) {
+                    addError(result, reader.getRecordLine(), e.getMessage());
+                }
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    insertChunk(result, chunk, chunkLines);
+                    publishProgress(result.mRowsImported,
+                            size > 0 ? (int) (input.mCount * 100 / size) : -1);
+                }
+            }
+            if (!chunk.isEmpty() && !isCancelled()) {
+                insertChunk(result, chunk, chunkLines);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // The file can't be read, or its header is not valid
+            result.mFailure = e.getMessage();
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Insert the products of the chunk in a single transaction, and clear it. If the provider
+     * refuses the chunk, the products are inserted one by one to find the rows at fault.
+     */
+    private void insertChunk(Result result, List<ContentValues> chunk, List<Integer> chunkLines) {
+        try {
+            result.mRowsImported += mContentResolver.bulkInsert(ProductEntry.CONTENT_URI,
+                    chunk.toArray(new ContentValues[chunk.size()]));
+        } catch (IllegalArgumentException | SQLException e) {
+            for (int i = 0; i < chunk.size(); i++) {
+                try {
+                    if (mContentResolver.insert(ProductEntry.CONTENT_URI, chunk.get(i)) != null) {
+                        result.mRowsImported++;
+                    } else {
+                        addError(result, chunkLines.get(i), "The product could not be saved.");
+                    }
+                } catch (IllegalArgumentException | SQLException rowException) {
+                    addError(result, chunkLines.get(i), rowException.getMessage());
+                }
+            }
+        }
+        chunk.clear();
+        chunkLines.clear();
+    }
+
+    private static void addError(Result result, int line, String message) {
+        result.mRowsFailed++;
+        if (result.mErrors.size() < MAX_REPORTED_ERRORS) {
+            result.mErrors.add(line + ": " + message);
+        }
+    }
+
+    /**
+     * Return the size of the file in bytes, or -1 if it is unknown.
+     */
+    private long querySize() {
+        Cursor cursor = mContentResolver.query(mSource, new String[]{OpenableColumns.SIZE},
+                null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mCallbacks.onImportProgress(values[0], values[1]);
+    }
+
+    @Override
+    protected void onPostExecute(Result result) {
+        mCallbacks.onImportFinished(result);
+    }
+
+    @Override
+    protected void onCancelled(Result result) {
+        if (result != null) {
+            mCallbacks.onImportFinished(result);
+        }
+    }
+
+    /**
+     * Counts the bytes read, to report the progress of the import.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.example.android.inventoryapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loader that reads the product list one page at a time. The first page is loaded when the
+ * loader starts, and {@link #loadNextPage()} appends the next one, using the sort columns of the
+ * last loaded product as the key of the query. That way the time to show the first rows
+ * doesn't depend on how many products are stored.
+ * <p>
+ * When the data changes, the rows the user already scrolled through are loaded again in a single
+ * page, so the list keeps its position.
+ * <p>
+ * If a search query is given, the loader only returns the first page of the best matching products.
+ * <p>
+ * When a single product is updated, the list is not reloaded: only that row is queried again and
+ * handed to the {@link OnRowsChangedListener}, so a sale costs the same whatever the list size.
+ * If the list is sorted or filtered, the list is reloaded instead when the update moves the
+ * product or takes it in or out of the filter.
+ */
+class ProductPageLoader extends AsyncTaskLoader<Cursor> {
+
+    /**
+     * Receives the products that changed since the last delivered cursor.
+     */
+    interface OnRowsChangedListener {
+        /**
+         * Called on the main thread with the new values of the changed products, keyed by
+         * {@link ProductEntry#_ID}. The values hold the columns of the loader projection.
+         */
+        void onRowsChanged(LongSparseArray<ContentValues> rows);
+    }
+
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onProductChanged(uri);
+        }
+    };
+
+    private final String[] mProjection;
+    private final int mPageSize;
+    private final String mSearchQuery;
+
+    // Products URI with the sort and filter parameters, and the sort columns but the last one,
+    // the product ID. Null if the products are in ID order.
+    private final Uri mListUri;
+    private final String[] mKeyColumns;
+
+    // True if an update can move a row or take it in or out of the list
+    private final boolean mCheckUpdatedRows;
+
+    // The pages currently delivered to the client, merged into a single cursor
+    private volatile PageCursor mCursor;
+
+    // True if the next load should append a page instead of reloading the list
+    private volatile boolean mAppendPending;
+
+    // True while a load is running
+    private boolean mLoading;
+
+    private OnRowsChangedListener mRowsChangedListener;
+
+    private boolean mObserverRegistered;
+
+    // IDs of the updated products waiting for their row to be queried again
+    private final Set<Long> mChangedIds = new HashSet<>();
+
+    // Query of the updated rows currently running, or null
+    private RowQueryTask mRowQueryTask;
+
+    // Load sequence at which each row handed to the listener since the last cursor was queried
+    private final LongSparseArray<Integer> mChangedRowSequences = new LongSparseArray<>();
+
+    // Incremented each time a load starts. Rows queried after a load started may be newer than
+    // the cursor it returns, rows queried before are older.
+    private volatile int mLoadSequence;
+
+    /**
+     * Creates a new loader.
+     *
+     * @param context    The context
+     * @param projection Columns to include in the resulting Cursor, must contain {@link ProductEntry#_ID}
+     * @param pageSize   Number of products loaded by each page
+     * @param searchQuery Text to search the products for, or null to list all of them
+     * @param listUri    {@link ProductEntry#CONTENT_URI} with the sort and filter query
+     *                   parameters of the list. They are ignored by a search.
+     */
+    ProductPageLoader(Context context, String[] projection, int pageSize, String searchQuery,
+                      Uri listUri) {
+        super(context);
+        mPageSize = pageSize;
+        mSearchQuery = searchQuery;
+        // Search results have their own order, and no filter
+        mListUri = searchQuery != null ? ProductEntry.CONTENT_URI : listUri;
+
+        String sort = mListUri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT);
+        String[] sortColumns = ProductEntry.getSortColumns(sort != null ? sort : ProductEntry.SORT_ID);
+        mKeyColumns = sortColumns.length > 1 ?
+                Arrays.copyOf(sortColumns, sortColumns.length - 1) : null;
+        mCheckUpdatedRows = mKeyColumns != null ||
+                mListUri.getQueryParameter(ProductEntry.QUERY_PARAMETER_MIN_PRICE) != null ||
+                mListUri.getQueryParameter(ProductEntry.QUERY_PARAMETER_MAX_PRICE) != null;
+
+        // The key of the next page is read from the rows
+        Set<String> columns = new LinkedHashSet<>(Arrays.asList(projection));
+        columns.addAll(Arrays.asList(sortColumns));
+        mProjection = columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Set the listener receiving the products updated after the last delivered cursor. Without
+     * a listener, every change reloads the list.
+     */
+    void setOnRowsChangedListener(OnRowsChangedListener listener) {
+        mRowsChangedListener = listener;
+    }
+
+    /**
+     * Start loading the page following the rows that are already loaded. Does nothing if a load
+     * is running or if all the products have been loaded.
+     */
+    void loadNextPage() {
+        PageCursor cursor = mCursor;
+        if (mLoading || cursor == null || !cursor.mHasMore) {
+            return;
+        }
+        mAppendPending = true;
+        forceLoad();
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mLoading = true;
+        mLoadSequence++;
+        super.onForceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        int sequence = mLoadSequence;
+        PageCursor current = mCursor;
+        boolean append = mAppendPending && current != null;
+        mAppendPending = false;
+
+        if (append) {
+            // Query the page following the last loaded product and add it to the existing ones
+            Cursor page = queryPage(current, mPageSize);
+            Cursor[] pages = Arrays.copyOf(current.mPages, current.mPages.length + 1);
+            pages[pages.length - 1] = page;
+            // The cursor is as old as its oldest page
+            return new PageCursor(pages, page, mPageSize, current, mKeyColumns, current.mSequence);
+        }
+
+        // Reload from the start, at least as many rows as the user has already seen
+        int limit = mPageSize;
+        if (current != null) {
+            limit = Math.max(limit, current.getCount());
+        }
+        Cursor page = queryPage(null, limit);
+        PageCursor cursor = new PageCursor(new Cursor[]{page}, page, limit, null, mKeyColumns, sequence);
+        if (mSearchQuery != null) {
+            // Search results are ranked, there is no key to load a next page from
+            cursor.mHasMore = false;
+        }
+        return cursor;
+    }
+
+    /**
+     * Query at most {@code limit} products following the last product of {@code after}, or the
+     * first ones if it is null.
+     */
+    private Cursor queryPage(PageCursor after, int limit) {
+        Uri baseUri = mSearchQuery != null ? ProductEntry.buildSearchUri(mSearchQuery) : mListUri;
+        Uri.Builder builder = baseUri.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+        if (after != null && after.mLastId >= 0) {
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(after.mLastId));
+            if (after.mLastKey != null) {
+                for (String value : after.mLastKey) {
+                    builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_KEY, value);
+                }
+            }
+        }
+
+        Cursor page = getContext().getContentResolver().query(builder.build(), mProjection,
+                null, null, null);
+        if (page != null) {
+            // Fill the cursor window here, on the background thread
+            page.getCount();
+        }
+        return page;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        mLoading = false;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            closePages((PageCursor) cursor, null);
+            return;
+        }
+        PageCursor oldCursor = mCursor;
+        mCursor = (PageCursor) cursor;
+        // The adapter drops the changed rows with the old cursor: query again the ones that may
+        // be newer than the new cursor
+        for (int i = 0; i < mChangedRowSequences.size(); i++) {
+            if (mChangedRowSequences.valueAt(i) >= mCursor.mSequence) {
+                mChangedIds.add(mChangedRowSequences.keyAt(i));
+            }
+        }
+        mChangedRowSequences.clear();
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        if (oldCursor != null && oldCursor != cursor) {
+            closePages(oldCursor, mCursor);
+        }
+
+        if (!mChangedIds.isEmpty() && mRowQueryTask == null) {
+            queryChangedRows();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    ProductEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        mLoading = false;
+        closePages((PageCursor) cursor, mCursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mChangedIds.clear();
+        mChangedRowSequences.clear();
+        if (mRowQueryTask != null) {
+            mRowQueryTask.cancel(false);
+            mRowQueryTask = null;
+        }
+
+        closePages(mCursor, null);
+        mCursor = null;
+    }
+
+    /**
+     * Handle a change notification of the products. Updates of a single product only query that
+     * row again, any other change reloads the list.
+     */
+    private void onProductChanged(Uri uri) {
+        String operation = uri != null ?
+                uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_OPERATION) : null;
+        PageCursor cursor = mCursor;
+        if (cursor == null || operation == null) {
+            onContentChanged();
+            return;
+        }
+
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        if (ProductEntry.OPERATION_INSERT.equals(operation) && mSearchQuery == null
+                && mKeyColumns == null && cursor.mHasMore && id > cursor.mLastId) {
+            // New products get the highest IDs: it will show up when its page is loaded
+            return;
+        }
+        if (!ProductEntry.OPERATION_UPDATE.equals(operation) || mSearchQuery != null
+                || mRowsChangedListener == null) {
+            // Inserts and deletes move the other rows, and an update may change the rank of a
+            // search result: reload the list
+            onContentChanged();
+            return;
+        }
+        if (mKeyColumns == null && id > cursor.mLastId && cursor.mHasMore) {
+            // The product is not loaded yet, its page will have the new values
+            return;
+        }
+
+        mChangedIds.add(id);
+        if (mRowQueryTask == null) {
+            queryChangedRows();
+        }
+    }
+
+    /**
+     * Start querying the rows of the changed products in the background.
+     */
+    private void queryChangedRows() {
+        String[] ids = new String[mChangedIds.size()];
+        int i = 0;
+        for (Long id : mChangedIds) {
+            ids[i++] = String.valueOf(id);
+        }
+        mChangedIds.clear();
+        mRowQueryTask = new RowQueryTask(mLoadSequence, ids);
+        mRowQueryTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Queries the current values of some products.
+     */
+    private class RowQueryTask extends AsyncTask<Void, Void, LongSparseArray<ContentValues>> {
+        private final int mTaskSequence;
+        private final String[] mIds;
+
+        RowQueryTask(int sequence, String[] ids) {
+            mTaskSequence = sequence;
+            mIds = ids;
+        }
+
+        @Override
+        protected LongSparseArray<ContentValues> doInBackground(Void... params) {
+            LongSparseArray<ContentValues> rows = new LongSparseArray<>(mIds.length);
+            String[] placeholders = new String[mIds.length];
+            Arrays.fill(placeholders, "?");
+            String selection = ProductEntry._ID + " IN (" + TextUtils.join(",", placeholders) + ")";
+
+            // Query through the filter of the list, the rows it drops are missing
+            Cursor cursor = getContext().getContentResolver().query(mListUri,
+                    mProjection, selection, mIds, null);
+            if (cursor == null) {
+                return rows;
+            }
+            try {
+                int idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+                while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    DatabaseUtils.cursorRowToContentValues(cursor, values);
+                    rows.put(cursor.getLong(idColumnIndex), values);
+                }
+            } finally {
+                cursor.close();
+            }
+            return rows;
+        }
+
+        @Override
+        protected void onPostExecute(LongSparseArray<ContentValues> rows) {
+            mRowQueryTask = null;
+            if (isReset()) {
+                return;
+            }
+            // Rows queried before the load of the current cursor started are older than it
+            PageCursor cursor = mCursor;
+            if (cursor != null && mTaskSequence >= cursor.mSequence && mCheckUpdatedRows
+                    && movedInList(cursor, mIds, rows)) {
+                // Rebinding the rows in place is not enough
+                onContentChanged();
+            } else if (cursor != null && mTaskSequence >= cursor.mSequence && rows.size() > 0
+                    && mRowsChangedListener != null) {
+                for (int i = 0; i < rows.size(); i++) {
+                    mChangedRowSequences.put(rows.keyAt(i), mTaskSequence);
+                }
+                mRowsChangedListener.onRowsChanged(rows);
+            }
+            if (!mChangedIds.isEmpty()) {
+                queryChangedRows();
+            }
+        }
+    }
+
+    /**
+     * Return true if one of the queried products is not where the cursor shows it anymore: its
+     * sort columns changed, or it entered or left the filter of the list. The cursor is walked on
+     * the main thread, its rows are already in memory.
+     */
+    private boolean movedInList(PageCursor cursor, String[] ids,
+                                LongSparseArray<ContentValues> rows) {
+        Set<Long> queriedIds = new HashSet<>();
+        for (String id : ids) {
+            queriedIds.add(Long.parseLong(id));
+        }
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+        int position = cursor.getPosition();
+        try {
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext() && !queriedIds.isEmpty()) {
+                long id = cursor.getLong(idColumnIndex);
+                if (!queriedIds.remove(id)) {
+                    continue;
+                }
+                ContentValues values = rows.get(id);
+                if (values == null) {
+                    // Filtered out, or deleted, which is notified on its own
+                    return true;
+                }
+                if (mKeyColumns != null) {
+                    for (String column : mKeyColumns) {
+                        if (!TextUtils.equals(values.getAsString(column),
+                                cursor.getString(cursor.getColumnIndexOrThrow(column)))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        } finally {
+            cursor.moveToPosition(position);
+        }
+
+        // The products not loaded yet. Sorted by ID, they show up when their page is loaded,
+        // but in another order they may belong to the loaded pages now.
+        for (Long id : queriedIds) {
+            if (rows.get(id) != null && (mKeyColumns != null || id < cursor.mLastId || !cursor.mHasMore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the pages of {@code cursor} that are not part of {@code keep}. The merged cursor
+     * itself is never closed, as that would close the pages still shared with {@code keep}.
+     */
+    private static void closePages(PageCursor cursor, PageCursor keep) {
+        if (cursor == null) {
+            return;
+        }
+        List<Cursor> kept = keep != null ? Arrays.asList(keep.mPages) : null;
+        for (Cursor page : cursor.mPages) {
+            if (page != null && !page.isClosed() && (kept == null || !kept.contains(page))) {
+                page.close();
+            }
+        }
+    }
+
+    /**
+     * The loaded pages merged into a single cursor, together with the key of the next page.
+     */
+    private static class PageCursor extends MergeCursor {
+        private final Cursor[] mPages;
+        private final long mLastId;
+        // Values of the key columns in the last row, or null if the products are in ID order
+        private final String[] mLastKey;
+        private final int mSequence;
+        private boolean mHasMore;
+
+        // Page holding the current row
+        private Cursor mCurrentPage;
+
+        PageCursor(Cursor[] pages, Cursor lastPage, int lastPageLimit, PageCursor previous,
+                   String[] keyColumns, int sequence) {
+            super(pages);
+            mPages = pages;
+            mSequence = sequence;
+
+            // A page shorter than requested means there is nothing left to load
+            int lastPageCount = lastPage != null ? lastPage.getCount() : 0;
+            mHasMore = lastPageCount == lastPageLimit;
+            if (lastPageCount > 0 && lastPage.moveToLast()) {
+                mLastId = lastPage.getLong(lastPage.getColumnIndexOrThrow(ProductEntry._ID));
+                if (keyColumns != null) {
+                    mLastKey = new String[keyColumns.length];
+                    for (int i = 0; i < keyColumns.length; i++) {
+                        mLastKey[i] = lastPage.getString(lastPage.getColumnIndexOrThrow(keyColumns[i]));
+                    }
+                } else {
+                    mLastKey = null;
+                }
+            } else if (previous != null) {
+                mLastId = previous.mLastId;
+                mLastKey = previous.mLastKey;
+            } else {
+                mLastId = -1;
+                mLastKey = null;
+            }
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            mCurrentPage = null;
+            int pageStart = 0;
+            for (Cursor page : mPages) {
+                if (page == null) {
+                    continue;
+                }
+                int pageCount = page.getCount();
+                if (newPosition < pageStart + pageCount) {
+                    mCurrentPage = page;
+                    break;
+                }
+                pageStart += pageCount;
+            }
+            return super.onMove(oldPosition, newPosition);
+        }
+
+        /**
+         * Copy straight from the window of the current page: the default implementation of a
+         * merged cursor reads the value as a new String first.
+         */
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            mCurrentPage.copyStringToBuffer(columnIndex, buffer);
+        }
+    }
+}
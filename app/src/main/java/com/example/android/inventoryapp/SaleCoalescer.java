@@ -0,0 +1,132 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+/**
+ * Combines the sales of a product made in quick succession into a single write. Each sale only
+ * adds to the units pending for the product, and {@link #FLUSH_DELAY_MILLIS} after the first one
+ * the pending units of every product are sold with one provider call per product. A burst of
+ * taps on a sale button then costs one write and one change notification. The writes run on the
+ * {@link WriteExecutor}, and the units being written still count as pending until they are.
+ * <p>
+ * All the methods must be called on the main thread.
+ */
+class SaleCoalescer {
+
+    /**
+     * Time the sales of a burst are collected before being written, in milliseconds.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
+    /**
+     * Receives the result of the writes.
+     */
+    interface OnSaleWrittenListener {
+        /**
+         * The pending units of the product were sold, and its stock is now {@code newQuantity}.
+         */
+        void onSaleWritten(long productId, int unitsSold, int newQuantity);
+
+        /**
+         * The pending units of the product could not be sold, because its stock changed meanwhile
+         * or the product was deleted. Nothing was written.
+         */
+        void onSaleFailed(long productId, int units);
+    }
+
+    private final WriteExecutor mWriteExecutor;
+    private final OnSaleWrittenListener mListener;
+    private final Handler mHandler = new Handler();
+
+    // Units sold but not written yet, keyed by product ID
+    private final LongSparseArray<Integer> mPendingUnits = new LongSparseArray<>();
+
+    // Units handed to the write executor whose write didn't finish yet, keyed by product ID
+    private final LongSparseArray<Integer> mWritingUnits = new LongSparseArray<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    SaleCoalescer(WriteExecutor writeExecutor, OnSaleWrittenListener listener) {
+        mWriteExecutor = writeExecutor;
+        mListener = listener;
+    }
+
+    /**
+     * Sell one unit of the product. The sale is written with the other sales of the burst.
+     */
+    void sell(long productId) {
+        if (mPendingUnits.size() == 0) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+        }
+        mPendingUnits.put(productId, mPendingUnits.get(productId, 0) + 1);
+    }
+
+    /**
+     * Return the units of the product sold but not written yet, to subtract from its stock.
+     */
+    int getPendingUnits(long productId) {
+        return mPendingUnits.get(productId, 0) + mWritingUnits.get(productId, 0);
+    }
+
+    /**
+     * Start writing the pending sales now. Call it before the sales could be lost, such as
+     * when the activity stops.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPendingUnits.size() == 0) {
+            return;
+        }
+
+        // Take the pending sales first, the listener may sell again
+        LongSparseArray<Integer> pendingUnits = mPendingUnits.clone();
+        mPendingUnits.clear();
+
+        for (int i = 0; i < pendingUnits.size(); i++) {
+            long productId = pendingUnits.keyAt(i);
+            int units = pendingUnits.valueAt(i);
+            mWritingUnits.put(productId, mWritingUnits.get(productId, 0) + units);
+            writeSale(productId, units);
+        }
+    }
+
+    private void writeSale(final long productId, final int units) {
+        mWriteExecutor.submit(new WriteExecutor.Write<Bundle>() {
+            @Override
+            public Bundle run(ContentResolver contentResolver) {
+                // The provider sells all the units at once, or none if the stock is too low
+                Bundle extras = new Bundle();
+                extras.putInt(ProductEntry.EXTRA_QUANTITY, units);
+                return contentResolver.call(ProductEntry.CONTENT_URI,
+                        ProductEntry.METHOD_SELL, String.valueOf(productId), extras);
+            }
+        }, new WriteExecutor.Callback<Bundle>() {
+            @Override
+            public void onWriteFinished(Bundle result) {
+                int writingUnits = mWritingUnits.get(productId, 0) - units;
+                if (writingUnits > 0) {
+                    mWritingUnits.put(productId, writingUnits);
+                } else {
+                    mWritingUnits.remove(productId);
+                }
+
+                if (result != null) {
+                    mListener.onSaleWritten(productId, units,
+                            result.getInt(ProductEntry.EXTRA_NEW_QUANTITY));
+                } else {
+                    mListener.onSaleFailed(productId, units);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.Snapshots;
+
+import java.io.File;
+
+/**
+ * Writes a snapshot of the database, or restores it, in the background. A new snapshot is first
+ * written next to the previous one, and only replaces it once complete.
+ */
+class SnapshotTask extends AsyncTask<Void, Void, Bundle> {
+
+    private static final String LOG_TAG = SnapshotTask.class.getSimpleName();
+
+    /**
+     * Receives the outcome on the main thread: the bundle returned by the provider method, or
+     * null if it failed.
+     */
+    interface Callbacks {
+        void onSnapshotFinished(String method, Bundle result);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String mMethod;
+    private final File mFile;
+    private final Callbacks mCallbacks;
+
+    /**
+     * @param method {@link Snapshots#METHOD_SNAPSHOT} or {@link Snapshots#METHOD_RESTORE}
+     */
+    SnapshotTask(ContentResolver contentResolver, String method, File file, Callbacks callbacks) {
+        mContentResolver = contentResolver;
+        mMethod = method;
+        mFile = file;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected Bundle doInBackground(Void... params) {
+        if (!Snapshots.METHOD_SNAPSHOT.equals(mMethod)) {
+            return mContentResolver.call(ProductEntry.CONTENT_URI, mMethod, mFile.getPath(), null);
+        }
+
+        File directory = mFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create " + directory);
+            return null;
+        }
+        File partial = new File(mFile.getPath() + ".partial");
+        Bundle result = mContentResolver.call(ProductEntry.CONTENT_URI, mMethod,
+                partial.getPath(), null);
+        if (result != null && !partial.renameTo(mFile)) {
+            Log.e(LOG_TAG, "Can't move " + partial + " to " + mFile);
+            partial.delete();
+            return null;
+        }
+        return result;
+    }
+
+    @Override
+    protected void onPostExecute(Bundle result) {
+        mCallbacks.onSnapshotFinished(mMethod, result);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the writes started from the UI, such as saving a product or selling it, on a single
+ * background thread, one after the other in the order they were submitted. The main thread
+ * never waits on the disk, and two writes to the same product can never be reordered.
+ * <p>
+ * The outcome of each write is delivered to its callback on the main thread.
+ */
+final class WriteExecutor implements Executor {
+
+    private static final String LOG_TAG = WriteExecutor.class.getSimpleName();
+
+    /**
+     * A write to run on the writer thread.
+     */
+    interface Write<T> {
+        /**
+         * Perform the write, and return its result.
+         */
+        T run(ContentResolver contentResolver);
+    }
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    interface Callback<T> {
+        /**
+         * @param result what the write returned, or null if it threw an exception
+         */
+        void onWriteFinished(T result);
+    }
+
+    private static WriteExecutor sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "InventoryWriter");
+        }
+    });
+
+    private WriteExecutor(Context context) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Return the executor shared by the whole app.
+     */
+    static synchronized WriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WriteExecutor(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue the write after the ones already submitted.
+     *
+     * @param callback Receives the result on the main thread, may be null
+     */
+    <T> void submit(final Write<T> write, final Callback<T> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                try {
+                    result = write.run(mContentResolver);
+                } catch (RuntimeException e) {
+                    // Such as a product rejected by the provider, reported as a failed write
+                    Log.e(LOG_TAG, "Write failed", e);
+                }
+                if (callback == null) {
+                    return;
+                }
+                final T finalResult = result;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onWriteFinished(finalResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run the command on the writer thread after the writes already submitted, such as an
+     * {@link android.os.AsyncTask} that must not overtake them.
+     */
+    @Override
+    public void execute(Runnable command) {
+        mExecutor.execute(command);
+    }
+}
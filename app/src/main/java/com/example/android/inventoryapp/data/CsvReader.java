@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records one at a time from a character stream, as described by RFC 4180: fields
+ * are separated by commas, records by line breaks, and quoted fields may hold commas, line
+ * breaks and doubled quotes. Only the current record is held in memory, so files of any size
+ * can be read.
+ */
+public final class CsvReader {
+
+    private static final int END_OF_STREAM = -1;
+
+    // Marks an empty pushback slot
+    private static final int NO_CHAR = -2;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+    private int mPushedBack = NO_CHAR;
+
+    private final StringBuilder mField = new StringBuilder();
+    private final ArrayList<String> mRecord = new ArrayList<>();
+
+    // Number of line breaks read so far, and line where the current record starts
+    private int mLineBreaks;
+    private int mRecordLine;
+
+    public CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record. The returned list is reused by the next call.
+     *
+     * @return the fields of the record, or null at the end of the stream
+     * @throws IOException if the stream can't be read or ends inside a quoted field
+     */
+    public List<String> readRecord() throws IOException {
+        mRecord.clear();
+        mField.setLength(0);
+        mRecordLine = mLineBreaks + 1;
+
+        int c = read();
+        if (c == END_OF_STREAM) {
+            return null;
+        }
+        boolean quoted = false;
+        boolean fieldStart = true;
+        while (true) {
+            if (quoted) {
+                if (c == END_OF_STREAM) {
+                    throw new IOException("Unterminated quoted field starting on line " + mRecordLine);
+                }
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        // A doubled quote stands for a quote in the field
+                        mField.append('"');
+                    } else {
+                        quoted = false;
+                        mPushedBack = next;
+                    }
+                } else {
+                    mField.append((char) c);
+                }
+            } else if (c == ',') {
+                endField();
+                fieldStart = true;
+                c = read();
+                continue;
+            } else if (c == '\r' || c == '\n' || c == END_OF_STREAM) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        mPushedBack = next;
+                    }
+                }
+                endField();
+                return mRecord;
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+            } else {
+                mField.append((char) c);
+            }
+            fieldStart = false;
+            c = read();
+        }
+    }
+
+    /**
+     * Return the line of the stream where the last record read starts, from 1.
+     */
+    public int getRecordLine() {
+        return mRecordLine;
+    }
+
+    private void endField() {
+        mRecord.add(mField.toString());
+        mField.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (mPushedBack != NO_CHAR) {
+            int c = mPushedBack;
+            mPushedBack = NO_CHAR;
+            return c;
+        }
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return END_OF_STREAM;
+            }
+        }
+        char c = mBuffer[mPosition++];
+        if (c == '\n') {
+            mLineBreaks++;
+        }
+        return c;
+    }
+}
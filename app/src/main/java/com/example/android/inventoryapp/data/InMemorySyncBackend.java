@@ -0,0 +1,73 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link SyncBackend} keeping the latest change of every product in memory, in the same
+ * process. Devices syncing against the same instance share their products, such as the stores
+ * of a single device or a device and a fake server.
+ * <p>
+ * The cursor of a pull is the last server version it returned. The changes are indexed by
+ * version, so a pull reads the changes after the cursor without looking at the others.
+ */
+public final class InMemorySyncBackend implements SyncBackend {
+
+    /**
+     * Latest change of each product, deletions included, by global ID.
+     */
+    private final Map<String, SyncPayload.Change> mChanges = new HashMap<>();
+
+    /**
+     * Global ID of the latest changes, by server version.
+     */
+    private final TreeMap<Long, String> mVersions = new TreeMap<>();
+
+    private long mLastVersion;
+
+    @Override
+    public synchronized byte[] pull(String cursor, int limit) throws IOException {
+        long after;
+        try {
+            after = cursor != null ? Long.parseLong(cursor) : 0;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid cursor " + cursor);
+        }
+        List<SyncPayload.Change> changes = new ArrayList<>();
+        long last = after;
+        for (Map.Entry<Long, String> entry : mVersions.tailMap(after, false).entrySet()) {
+            if (changes.size() == limit) {
+                break;
+            }
+            changes.add(mChanges.get(entry.getValue()));
+            last = entry.getKey();
+        }
+        return SyncPayload.writeBatch(new SyncPayload.Batch(changes, String.valueOf(last)));
+    }
+
+    @Override
+    public synchronized byte[] push(byte[] payload) throws IOException {
+        Map<String, Long> accepted = new LinkedHashMap<>();
+        List<String> rejected = new ArrayList<>();
+        for (SyncPayload.Change change : SyncPayload.readBatch(payload).changes) {
+            SyncPayload.Change latest = mChanges.get(change.globalId);
+            long latestVersion = latest != null ? latest.version : 0;
+            if (change.version != latestVersion) {
+                // The device hasn't seen the latest change of the product yet
+                rejected.add(change.globalId);
+                continue;
+            }
+            mLastVersion++;
+            mVersions.remove(latestVersion);
+            mVersions.put(mLastVersion, change.globalId);
+            mChanges.put(change.globalId, change.withVersion(mLastVersion));
+            accepted.put(change.globalId, mLastVersion);
+        }
+        return SyncPayload.writeResults(new SyncPayload.Results(accepted, rejected));
+    }
+}
@@ -4,16 +4,49 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 public final class ItemContract {
 
     public static final String CONTENT_AUTHORITY = "com.example.android.inventoryapp";
     private static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PRODUCTS = "products";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_SUPPLIERS = "suppliers";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_MOVEMENTS = "movements";
+    public static final String PATH_LOW_STOCK = "low_stock";
+    public static final String PATH_STORES = "stores";
+    public static final String PATH_STOCK = "stock";
 
     public static class ProductEntry implements BaseColumns {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * Base URI of the product full-text search. Use {@link #buildSearchUri(String)} to search.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * URI of the whole catalog as a CSV file, in the format of {@link ProductCsv}. Open it
+         * for reading with {@link ContentResolver#openInputStream(Uri)}: the rows are streamed
+         * from the database as they are read.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The products whose stock is below their {@link #COLUMN_PRODUCT_REORDER_THRESHOLD},
+         * lowest stock first. They are read from an index holding only those products, so the
+         * query costs the same whatever the size of the catalog.
+         * <p>
+         * With {@link #QUERY_PARAMETER_CHANGED_AFTER}, only the products that went below their
+         * threshold through the movements of the ledger in that range are returned.
+         */
+        public static final Uri CONTENT_LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -27,12 +60,737 @@ public final class ItemContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
         public static final String TABLE_NAME = "products";
+
+        /**
+         * View joining every product with its supplier. Product queries read from it.
+         */
+        public static final String VIEW_NAME = "products_with_suppliers";
+
+        /**
+         * Full-text index over the product and supplier names. Its docid is the product {@link #_ID}.
+         */
+        public static final String FTS_TABLE_NAME = "products_fts";
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PRODUCT_NAME = "product_name";
+        /**
+         * Price of the product as a whole number of cents. Use {@link Money} to convert it
+         * from and to the decimal amount shown to the user.
+         */
         public static final String COLUMN_PRODUCT_PRICE = "price";
         public static final String COLUMN_PRODUCT_QUANTITY = "quantity";
-        public static final String COLUMN_PRODUCT_SUPPLIER_NAME = "supplier_name";
-        public static final String COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
 
+        /**
+         * Stock below which the product should be reordered. Zero, the default, never reorders.
+         */
+        public static final String COLUMN_PRODUCT_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * {@link SupplierEntry#_ID} of the supplier of the product.
+         */
+        public static final String COLUMN_PRODUCT_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name and phone number of the supplier, joined from the suppliers table when reading
+         * products. When they are written together instead of {@link #COLUMN_PRODUCT_SUPPLIER_ID},
+         * the product is linked to the supplier with that name and phone number, which is created
+         * if needed.
+         */
+        public static final String COLUMN_PRODUCT_SUPPLIER_NAME = SupplierEntry.COLUMN_SUPPLIER_NAME;
+        public static final String COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER = SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER;
+
+        /**
+         * Provider method that sells some units of a product. The product ID is passed as the
+         * argument and the number of units as {@link #EXTRA_QUANTITY}. The stock is decreased
+         * only if enough units are left. Returns a bundle holding {@link #EXTRA_NEW_QUANTITY},
+         * or null if the product does not exist or has not enough units in stock.
+         */
+        public static final String METHOD_SELL = "sell";
+        public static final String EXTRA_QUANTITY = "quantity";
+        public static final String EXTRA_NEW_QUANTITY = "new_quantity";
+
+        /**
+         * Query parameters for {@link #CONTENT_LOW_STOCK_URI} restricting the products to the
+         * ones that went below their threshold through the movements whose
+         * {@link StockMovementEntry#_ID} is greater than "changed_after" and, if given, at most
+         * "changed_until". A product created below its threshold in that range counts too.
+         */
+        public static final String QUERY_PARAMETER_CHANGED_AFTER = "changed_after";
+        public static final String QUERY_PARAMETER_CHANGED_UNTIL = "changed_until";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that limits the number of products returned.
+         * A delete on {@link #CONTENT_URI} also honours it, deleting at most that many of the
+         * matching products, lowest {@link #_ID} first, so a large delete can run in short
+         * transactions.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter for the inserts, bulk inserts, updates and deletes of
+         * {@link #CONTENT_URI}: "false" skips the change notifications, of the products, their
+         * suppliers and their ledger. A caller splitting a large change into several writes uses
+         * it, and notifies {@link #CONTENT_URI} itself once it is done. Inside a batch, which
+         * notifies once at its end, it is ignored.
+         */
+        public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} used for keyset paging: only the products
+         * following the product with this {@link #_ID} in the sort order are returned. Without
+         * {@link #QUERY_PARAMETER_SORT}, they are the products with a greater {@link #_ID}.
+         * With it, the values of the sort columns of that product must be given in
+         * {@link #QUERY_PARAMETER_AFTER_KEY}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter for keyset paging with {@link #QUERY_PARAMETER_SORT}: the value of each
+         * column returned by {@link #getSortColumns(String)} but {@link #_ID}, for the product
+         * given in {@link #QUERY_PARAMETER_AFTER_ID}. Repeat it once per column, in order.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} choosing the order of the products, instead of
+         * a sort order: one of the SORT_ values. Every order is read from an index, and ends with
+         * {@link #_ID} to break the ties. Search results ignore it, they are ranked.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Products in the order they were added, the default.
+         */
+        public static final String SORT_ID = "id";
+
+        /**
+         * Products by name, in the order of the device language and ignoring case.
+         */
+        public static final String SORT_NAME = "name";
+
+        /**
+         * Products with the lowest stock first.
+         */
+        public static final String SORT_QUANTITY = "quantity";
+
+        /**
+         * Cheapest products first.
+         */
+        public static final String SORT_PRICE = "price";
+
+        /**
+         * Products by supplier name, in the order of the device language and ignoring case.
+         */
+        public static final String SORT_SUPPLIER = "supplier";
+
+        /**
+         * Query parameters for {@link #CONTENT_URI} keeping only the products whose price, in
+         * cents, is at least or at most the given value.
+         */
+        public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+        public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+
+        /**
+         * Return the columns whose values order the products for the sort, the last one being
+         * {@link #_ID}. Their values for the last product of a page are the key of the next page.
+         *
+         * @throws IllegalArgumentException if the sort is not one of the SORT_ values
+         */
+        public static String[] getSortColumns(String sort) {
+            switch (sort) {
+                case SORT_ID:
+                    return new String[]{_ID};
+                case SORT_NAME:
+                    return new String[]{COLUMN_PRODUCT_NAME, _ID};
+                case SORT_QUANTITY:
+                    return new String[]{COLUMN_PRODUCT_QUANTITY, _ID};
+                case SORT_PRICE:
+                    return new String[]{COLUMN_PRODUCT_PRICE, _ID};
+                case SORT_SUPPLIER:
+                    return new String[]{COLUMN_PRODUCT_SUPPLIER_NAME, COLUMN_PRODUCT_SUPPLIER_ID, _ID};
+                default:
+                    throw new IllegalArgumentException("Unknown sort " + sort);
+            }
+        }
+
+        /**
+         * Query parameter of the change notifications sent for a single product, telling what
+         * happened to it: {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} or
+         * {@link #OPERATION_DELETE}. Changes that may touch many products are notified on
+         * {@link #CONTENT_URI} instead.
+         */
+        public static final String QUERY_PARAMETER_OPERATION = "op";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        /**
+         * Build the URI notified when a single product is inserted, updated or deleted.
+         */
+        public static Uri buildChangeUri(long id, String operation) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendQueryParameter(QUERY_PARAMETER_OPERATION, operation)
+                    .build();
+        }
+
+        /**
+         * Build the URI that searches products by product or supplier name. Every word of the
+         * query matches as a prefix, and the best matches come first. The
+         * {@link #QUERY_PARAMETER_LIMIT} parameter may be appended to the returned URI.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+    }
+
+    public static class SupplierEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        public static final String TABLE_NAME = "suppliers";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
+        public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+
+        /**
+         * Build the URI listing the products of a supplier. The rows have the same columns as
+         * the ones of {@link ProductEntry#CONTENT_URI}.
+         */
+        public static Uri buildProductsUri(long supplierId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(supplierId))
+                    .appendPath(PATH_PRODUCTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inventory statistics, kept up to date by the database on every product change, so reading
+     * them never scans the products table.
+     */
+    public static class StatsEntry {
+
+        /**
+         * Single row with the totals of the whole inventory.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * One row per supplier, with the totals of its products.
+         */
+        public static final Uri SUPPLIERS_CONTENT_URI = Uri.withAppendedPath(SupplierEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the inventory totals.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * The MIME type of the {@link #SUPPLIERS_CONTENT_URI} for the totals of every supplier.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        public static final String TABLE_NAME = "inventory_stats";
+        public static final String SUPPLIER_TABLE_NAME = "supplier_stats";
+
+        /**
+         * {@link SupplierEntry#_ID} of the supplier, only in the rows of {@link #SUPPLIERS_CONTENT_URI}.
+         * Those rows also hold {@link SupplierEntry#COLUMN_SUPPLIER_NAME}.
+         */
+        public static final String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Number of products.
+         */
+        public static final String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Sum of the quantities of the products.
+         */
+        public static final String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Sum of price times quantity of the products, in cents.
+         */
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+    }
+
+    /**
+     * Ledger of the stock movements: every sale, restock and adjustment of a product is appended
+     * as a row, and never changed afterwards. The stock of a product,
+     * {@link ProductEntry#COLUMN_PRODUCT_QUANTITY}, is kept up to date by the database as
+     * movements are appended.
+     * <p>
+     * The ledger of a product starts with a {@link #TYPE_SNAPSHOT} row holding its stock when it
+     * was created. Compacting the ledger, with {@link #METHOD_COMPACT}, folds the movements older
+     * than a given time into that snapshot, which keeps its {@link #_ID}.
+     * <p>
+     * Listeners of the ledger are notified on {@link #CONTENT_URI}.
+     */
+    public static class StockMovementEntry implements BaseColumns {
+
+        /**
+         * The movements of every product. New movements are appended by inserting rows at this URI.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of movements.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single movement.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        public static final String TABLE_NAME = "stock_movements";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * {@link ProductEntry#_ID} of the product whose stock moved.
+         */
+        public static final String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Kind of movement, one of the TYPE constants.
+         */
+        public static final String COLUMN_TYPE = "type";
+
+        /**
+         * Number of units the stock moved by: negative for a sale, positive for a restock. For a
+         * {@link #TYPE_SNAPSHOT}, the stock of the product at the time of the row instead.
+         */
+        public static final String COLUMN_QUANTITY_CHANGE = "quantity_change";
+
+        /**
+         * Time of the movement, in milliseconds since the epoch. Set by the provider when the
+         * movement is appended.
+         */
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Possible values of {@link #COLUMN_TYPE}. Snapshots are written by the provider only.
+         */
+        public static final int TYPE_SNAPSHOT = 0;
+        public static final int TYPE_SALE = 1;
+        public static final int TYPE_RESTOCK = 2;
+        public static final int TYPE_ADJUSTMENT = 3;
+
+        /**
+         * Query parameters selecting a time range of the ledger, in milliseconds since the epoch:
+         * the movements at or after "from", and before "to". Either may be left out.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /**
+         * Query parameter limiting the number of returned movements. The movements are returned
+         * oldest first.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Provider method folding the movements older than {@link #EXTRA_BEFORE_MILLIS} into the
+         * first snapshot of each product, which then holds the stock and the time of the last of
+         * them. The stocks don't change. Returns a bundle with
+         * {@link #EXTRA_ROWS_DELETED}.
+         */
+        public static final String METHOD_COMPACT = "compact_ledger";
+
+        /**
+         * Time before which the movements are compacted, as a long in milliseconds since the epoch.
+         */
+        public static final String EXTRA_BEFORE_MILLIS = "before_millis";
+
+        /**
+         * Number of ledger rows removed by the compaction, as an int.
+         */
+        public static final String EXTRA_ROWS_DELETED = "rows_deleted";
+
+        /**
+         * Build the URI listing the movements of a single product, oldest first. The time range
+         * and limit parameters may be appended to it.
+         */
+        public static Uri buildProductMovementsUri(long productId) {
+            return ProductEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(productId))
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Shop locations. Each store keeps its products, suppliers and ledger in a database file of
+     * its own, so writes to one store never wait for another. A store is created by its first
+     * use.
+     * <p>
+     * The URIs of the other contract classes address the {@link #DEFAULT_STORE_ID default store}.
+     * {@link #buildStoreUri(long, Uri)} scopes any of them to another store, such as
+     * "stores/2/products/5", and the listeners of a store are notified on its scoped URIs. The
+     * provider methods act on the store given by {@link #EXTRA_STORE_ID}.
+     * <p>
+     * {@link #CONTENT_URI} lists the stores, and {@link #CONTENT_STOCK_URI} sums the stock of
+     * the products of every store.
+     */
+    public static final class StoreEntry implements BaseColumns {
+
+        /**
+         * The stores, one row per store with its {@link #_ID}, default store first.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STORES);
+
+        /**
+         * The stock of every product across the stores: one row per product name with the
+         * {@link ProductEntry#COLUMN_PRODUCT_NAME}, the total
+         * {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} and the {@link #COLUMN_STORE_COUNT},
+         * ordered by name. The selection applies to the products table of each store, such as
+         * "product_name=?" for the stock of a single product. The stores are queried in parallel.
+         */
+        public static final Uri CONTENT_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STOCK);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stores.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STORES;
+
+        /**
+         * The MIME type of the {@link #CONTENT_STOCK_URI}.
+         */
+        public static final String CONTENT_STOCK_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Number of stores holding a product, in the rows of {@link #CONTENT_STOCK_URI}.
+         */
+        public static final String COLUMN_STORE_COUNT = "store_count";
+
+        /**
+         * The store addressed by the URIs that are not scoped to a store.
+         */
+        public static final long DEFAULT_STORE_ID = 0;
+
+        /**
+         * Store a provider method acts on, as a long. The default store if left out.
+         */
+        public static final String EXTRA_STORE_ID = "store_id";
+
+        private StoreEntry() {
+        }
+
+        /**
+         * Scope a URI of the other contract classes to a store, such as
+         * {@link ProductEntry#CONTENT_URI} to "stores/2/products". The query parameters are
+         * kept. URIs of the default store are returned unchanged.
+         */
+        public static Uri buildStoreUri(long storeId, Uri uri) {
+            if (storeId == DEFAULT_STORE_ID) {
+                return uri;
+            }
+            if (storeId < 0) {
+                throw new IllegalArgumentException("Invalid store " + storeId);
+            }
+            Uri.Builder builder = uri.buildUpon()
+                    .path(PATH_STORES)
+                    .appendPath(String.valueOf(storeId));
+            for (String segment : uri.getPathSegments()) {
+                builder.appendPath(segment);
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Change tracking of the products, read and written by {@link SyncEngine} only.
+     * <p>
+     * Every product has a {@link #COLUMN_GLOBAL_ID} naming it on every device, and a
+     * {@link #COLUMN_ROW_VERSION} taken from a database-wide counter each time it changes. A
+     * deleted product leaves a tombstone with its global ID and the version of the deletion. The
+     * changes since a sync are the rows and tombstones with a higher version, read from indexes.
+     */
+    public static final class SyncEntry {
+
+        /**
+         * Columns of the products table, set by the database.
+         */
+        public static final String COLUMN_GLOBAL_ID = "global_id";
+        public static final String COLUMN_ROW_VERSION = "row_version";
+
+        /**
+         * Single row holding the counter of the versions, {@link #COLUMN_VERSION}, the last
+         * version pushed to the backend, {@link #COLUMN_PUSHED_VERSION}, and the position of the
+         * backend changes already pulled, {@link #COLUMN_PULL_CURSOR}.
+         */
+        public static final String STATE_TABLE_NAME = "sync_state";
+        public static final String COLUMN_VERSION = "version";
+        public static final String COLUMN_PUSHED_VERSION = "pushed_version";
+        public static final String COLUMN_PULL_CURSOR = "pull_cursor";
+
+        /**
+         * Deleted products, by {@link #COLUMN_GLOBAL_ID}, with the version of their deletion.
+         */
+        public static final String TOMBSTONES_TABLE_NAME = "sync_tombstones";
+
+        /**
+         * Last values of each product agreed with the backend, by {@link #COLUMN_GLOBAL_ID}, with
+         * the {@link #COLUMN_SERVER_VERSION} of the backend. The fields of a product changed
+         * since are the ones differing from them.
+         */
+        public static final String BASE_TABLE_NAME = "sync_base";
+        public static final String COLUMN_SERVER_VERSION = "server_version";
+
+        private SyncEntry() {
+        }
+    }
+
+    /**
+     * Counters and latency histograms of the provider operations since the process started.
+     * Read them by calling {@link #METHOD} on the provider.
+     * <p>
+     * The returned bundle holds {@link #EXTRA_NOTIFICATIONS}, the query cache statistics
+     * {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES} and {@link #EXTRA_CACHE_ENTRIES},
+     * and {@link #EXTRA_OPERATIONS}, the names of the measured operations, such as
+     * "query products/#". Each name maps to a nested bundle with {@link #EXTRA_CALLS},
+     * {@link #EXTRA_ERRORS}, {@link #EXTRA_ROWS}, {@link #EXTRA_TOTAL_MICROS},
+     * {@link #EXTRA_MAX_MICROS} and {@link #EXTRA_HISTOGRAM}.
+     */
+    public static final class Metrics {
+
+        /**
+         * Provider method returning the metrics. If the extras hold {@link #EXTRA_RESET} set
+         * to true, the counters start again from zero after being read.
+         */
+        public static final String METHOD = "metrics";
+        public static final String EXTRA_RESET = "reset";
+
+        /**
+         * Number of change notifications sent, as a long.
+         */
+        public static final String EXTRA_NOTIFICATIONS = "notifications";
+
+        /**
+         * Number of queries answered from the query cache, and of the ones that missed it,
+         * as longs.
+         */
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+        /**
+         * Number of query results held by the query cache, as an int.
+         */
+        public static final String EXTRA_CACHE_ENTRIES = "cache_entries";
+
+        /**
+         * Names of the measured operations, as a string array list.
+         */
+        public static final String EXTRA_OPERATIONS = "operations";
+
+        /**
+         * Number of calls of the operation, as a long.
+         */
+        public static final String EXTRA_CALLS = "calls";
+
+        /**
+         * Number of calls of the operation that threw an exception, as a long.
+         */
+        public static final String EXTRA_ERRORS = "errors";
+
+        /**
+         * Rows returned by queries, or rows inserted, updated or deleted, as a long.
+         */
+        public static final String EXTRA_ROWS = "rows";
+
+        /**
+         * Total and longest time spent in the operation, in microseconds, as longs.
+         */
+        public static final String EXTRA_TOTAL_MICROS = "total_micros";
+        public static final String EXTRA_MAX_MICROS = "max_micros";
+
+        /**
+         * Number of calls per latency bucket, as a long array. Bucket {@code i} counts the calls
+         * that took less than {@link #bucketLimitMicros(int)} microseconds, and at least the
+         * limit of bucket {@code i - 1}. The last bucket counts the slower calls too.
+         */
+        public static final String EXTRA_HISTOGRAM = "histogram";
+
+        private Metrics() {
+        }
+
+        /**
+         * Exclusive upper bound of the latency bucket, in microseconds. Buckets double in size,
+         * starting from 1 microsecond.
+         */
+        public static long bucketLimitMicros(int bucket) {
+            return 1L << bucket;
+        }
+
+        /**
+         * Upper bound in microseconds of the latency under which the given fraction of the calls
+         * completed, from a histogram returned in {@link #EXTRA_HISTOGRAM}. Return 0 if the
+         * histogram is empty.
+         */
+        public static long percentileMicros(long[] histogram, double fraction) {
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return bucketLimitMicros(i);
+                }
+            }
+            return bucketLimitMicros(histogram.length - 1);
+        }
+    }
+
+    /**
+     * Snapshots of the whole database, written and restored by calling the provider methods.
+     * The argument of both methods is the path of the snapshot file, in storage private to the app.
+     */
+    public static final class Snapshots {
+
+        /**
+         * Write a consistent copy of the database while it stays in use. Returns a bundle with
+         * {@link #EXTRA_DURATION_MILLIS} and {@link #EXTRA_BLOCKED_MILLIS}, or null if the
+         * snapshot could not be written.
+         */
+        public static final String METHOD_SNAPSHOT = "snapshot";
+
+        /**
+         * Replace the whole database with a snapshot. Returns a bundle with
+         * {@link #EXTRA_DURATION_MILLIS}, or null if the snapshot is not valid, in which case
+         * the database is left unchanged.
+         * <p>
+         * The cursors of the store obtained before the restore are invalid, and may throw once
+         * it is done. The URIs of the store are notified before the database is closed: close
+         * the cursors and query again.
+         */
+        public static final String METHOD_RESTORE = "restore";
+
+        /**
+         * Time the method took, as a long in milliseconds.
+         */
+        public static final String EXTRA_DURATION_MILLIS = "duration_millis";
+
+        /**
+         * Time the writes to the database were blocked by the snapshot, as a long in
+         * milliseconds. Zero on Android 11 and later, where the snapshot is read on a connection
+         * of its own while the writes go on.
+         */
+        public static final String EXTRA_BLOCKED_MILLIS = "blocked_millis";
+
+        private Snapshots() {
+        }
+    }
+
+    /**
+     * Conversions between prices stored as cents and the decimal amounts typed and shown in the app.
+     * Working with whole cents keeps prices exact, and lets sums over prices run as integer math.
+     */
+    public static final class Money {
+
+        private static final int CENTS_PER_UNIT = 100;
+
+        /**
+         * Length of the longest amount written by {@link #formatCents(long, char[])}: a sign,
+         * 17 digits, the decimal point and 2 decimals.
+         */
+        public static final int MAX_FORMATTED_LENGTH = 21;
+
+        private Money() {
+        }
+
+        /**
+         * Parse a decimal amount, such as "12.5", into cents. Amounts with more than two decimals
+         * are rounded to the nearest cent.
+         *
+         * @throws NumberFormatException if the text is not a decimal number or is out of range
+         */
+        public static long parseCents(String amount) {
+            try {
+                return new BigDecimal(amount.trim())
+                        .setScale(2, RoundingMode.HALF_UP)
+                        .movePointRight(2)
+                        .longValueExact();
+            } catch (ArithmeticException e) {
+                throw new NumberFormatException("Amount out of range: " + amount);
+            }
+        }
+
+        /**
+         * Format cents as a decimal amount with two decimals, such as "12.50".
+         */
+        public static String formatCents(long cents) {
+            StringBuilder builder = new StringBuilder();
+            appendCents(builder, cents);
+            return builder.toString();
+        }
+
+        /**
+         * Write cents as a decimal amount with two decimals at the end of the buffer, without
+         * allocating. The buffer must hold at least {@link #MAX_FORMATTED_LENGTH} chars.
+         *
+         * @return the index of the first char written, the amount runs to the end of the buffer
+         */
+        public static int formatCents(long cents, char[] buffer) {
+            // Work on the negative value, so that Long.MIN_VALUE fits too
+            int position = buffer.length;
+            long remaining = cents < 0 ? cents : -cents;
+            for (int i = 0; i < 2; i++) {
+                buffer[--position] = (char) ('0' - remaining % 10);
+                remaining /= 10;
+            }
+            buffer[--position] = '.';
+            do {
+                buffer[--position] = (char) ('0' - remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+            if (cents < 0) {
+                buffer[--position] = '-';
+            }
+            return position;
+        }
+
+        /**
+         * Append cents to the builder as a decimal amount with two decimals, such as "12.50".
+         */
+        public static void appendCents(StringBuilder builder, long cents) {
+            if (cents < 0) {
+                builder.append('-');
+                cents = -cents;
+            }
+            long fraction = cents % CENTS_PER_UNIT;
+            builder.append(cents / CENTS_PER_UNIT).append('.');
+            if (fraction < 10) {
+                builder.append('0');
+            }
+            builder.append(fraction);
+        }
     }
 }
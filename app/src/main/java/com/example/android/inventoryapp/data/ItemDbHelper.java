@@ -2,34 +2,291 @@ package com.example.android.inventoryapp.data;
 
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
 
-import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opens the database of a store. The schema is created and upgraded in place by the migration chain
+ * of {@link ItemMigrations}.
+ * <p>
+ * The database uses write-ahead logging, so the list loaders keep reading while sales and edits
+ * are written, each reader on its own pooled connection.
+ * <p>
+ * The database can be copied to a snapshot file while in use, and replaced by a snapshot.
+ * <p>
+ * Every store has its own database file: the default store keeps the original "store.db", the
+ * others are named after their ID, such as "store_2.db".
+ */
 public class ItemDbHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "store.db";
-    private static final int DB_VERSION = 1;
 
+    /**
+     * Names of the database files of the stores other than the default one.
+     */
+    private static final String STORE_DB_NAME_FORMAT = "store_%d.db";
+    private static final Pattern STORE_DB_NAME_PATTERN = Pattern.compile("store_([1-9]\\d*)\\.db");
+    private static final int DB_VERSION = ItemMigrations.LATEST_VERSION;
+
+    /**
+     * Number of WAL pages after which a commit checkpoints the log back into the database.
+     * Small enough to keep the log and read lookups short, large enough to batch the
+     * checkpoint work of many small writes such as sales.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /**
+     * Upper bound for the size of the WAL file once it has been checkpointed, in bytes.
+     */
+    private static final long WAL_JOURNAL_SIZE_LIMIT = 4 * 1024 * 1024;
+
+    /**
+     * Suffixes of the files SQLite keeps next to the database.
+     */
+    private static final String[] DATABASE_FILE_SUFFIXES = {"-wal", "-shm", "-journal"};
+
+    /**
+     * First Android version whose SQLite (3.28) has VACUUM INTO: Android 11.
+     */
+    private static final int VACUUM_INTO_SDK = 30;
+
+    private final Context mContext;
+    private final long mStoreId;
+
+    public ItemDbHelper(Context context, long storeId) {
+        super(context, databaseName(storeId), null, DB_VERSION);
+        mContext = context;
+        mStoreId = storeId;
+        // Readers get their own connections from the pool instead of waiting for the writer
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Return the ID of the store whose database this helper opens.
+     */
+    long getStoreId() {
+        return mStoreId;
+    }
+
+    private static String databaseName(long storeId) {
+        return storeId == StoreEntry.DEFAULT_STORE_ID ? DB_NAME :
+                String.format(Locale.ROOT, STORE_DB_NAME_FORMAT, storeId);
+    }
+
+    /**
+     * Return the IDs of the stores that have a database file, in ascending order. The default
+     * store is always part of them.
+     */
+    static List<Long> findStoreIds(Context context) {
+        List<Long> storeIds = new ArrayList<>();
+        storeIds.add(StoreEntry.DEFAULT_STORE_ID);
+        String[] names = context.getDatabasePath(DB_NAME).getParentFile().list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = STORE_DB_NAME_PATTERN.matcher(name);
+                if (matcher.matches()) {
+                    try {
+                        storeIds.add(Long.parseLong(matcher.group(1)));
+                    } catch (NumberFormatException e) {
+                        // Not a file of this app
+                    }
+                }
+            }
+        }
+        Collections.sort(storeIds);
+        return storeIds;
+    }
 
-    public ItemDbHelper(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        // Products must point to an existing supplier
+        sqLiteDatabase.setForeignKeyConstraintsEnabled(true);
+        // With WAL, NORMAL only syncs at checkpoints: a commit can be lost on power failure,
+        // but the database can't be corrupted, and every write saves an fsync.
+        sqLiteDatabase.execSQL("PRAGMA synchronous = NORMAL");
+        execPragma(sqLiteDatabase, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        execPragma(sqLiteDatabase, "PRAGMA journal_size_limit = " + WAL_JOURNAL_SIZE_LIMIT);
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        String SQL_CREATE_ITEMS_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " (" +
-                ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " +
-                ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER, " +
-                ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, " +
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL DEFAULT 0, " +
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL DEFAULT 0);";
-        sqLiteDatabase.execSQL(SQL_CREATE_ITEMS_TABLE);
+        ItemMigrations.createInitialSchema(sqLiteDatabase);
+        ItemMigrations.migrate(sqLiteDatabase, 1, DB_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        ItemMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Write a consistent and compacted copy of the database to the file, while the database
+     * stays in use. From Android 11, SQLite copies it with VACUUM INTO inside a single read
+     * transaction, on a read-only connection of its own: with WAL the writers of the pool go on
+     * meanwhile, only the checkpoints can't move the log past the copy until it is done. Before
+     * that, the database files are copied while the writers are held off, and the copy is
+     * compacted afterwards.
+     *
+     * @return the time the writers were blocked, in milliseconds, zero with VACUUM INTO
+     */
+    long snapshot(File destination) throws IOException {
+        if (destination.exists() && !destination.delete()) {
+            throw new IOException("Can't replace " + destination);
+        }
+        // Opening the database creates or upgrades it first if needed
+        SQLiteDatabase database = getWritableDatabase();
+        File databaseFile = mContext.getDatabasePath(getDatabaseName());
+        long blockedMillis = 0;
+
+        if (Build.VERSION.SDK_INT >= VACUUM_INTO_SDK) {
+            // Not a connection of the pool: on the primary one, the copy would hold off every
+            // write of the app until it is done
+            SQLiteDatabase reader = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY);
+            try {
+                reader.execSQL("VACUUM INTO ?", new Object[]{destination.getPath()});
+            } finally {
+                reader.close();
+            }
+        } else {
+            // An immediate transaction keeps the writers and the checkpoints away, so the
+            // database and its log don't change while they are copied. Readers go on.
+            long startMillis = SystemClock.elapsedRealtime();
+            database.beginTransactionNonExclusive();
+            try {
+                copyFile(databaseFile, destination);
+                File wal = new File(databaseFile.getPath() + "-wal");
+                if (wal.exists()) {
+                    copyFile(wal, new File(destination.getPath() + "-wal"));
+                }
+            } finally {
+                database.endTransaction();
+                blockedMillis = SystemClock.elapsedRealtime() - startMillis;
+            }
+        }
+
+        // Make the snapshot a single self-contained file: apply the copied log, compact it
+        // if VACUUM INTO didn't, and leave WAL mode
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(destination.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            if (Build.VERSION.SDK_INT < VACUUM_INTO_SDK) {
+                copy.execSQL("VACUUM");
+            }
+            execPragma(copy, "PRAGMA journal_mode = DELETE");
+        } finally {
+            copy.close();
+        }
+        deleteDatabaseFiles(destination);
+        return blockedMillis;
+    }
+
+    /**
+     * Replace the database with a snapshot written by {@link #snapshot(File)}. The snapshot is
+     * copied and checked first, and the copy then takes the place of the database in a single
+     * rename, so a failure at any point leaves either the old or the new database in place.
+     * Snapshots of older versions are upgraded when the database is opened again.
+     * <p>
+     * The database is closed: no other thread may use it during the restore, and the objects
+     * obtained from it before, cursors included, can't be used anymore. A cursor still open
+     * fails with an {@link IllegalStateException} when it needs to read the database again.
+     */
+    synchronized void restore(File snapshot) throws IOException {
+        File databaseFile = mContext.getDatabasePath(getDatabaseName());
+        File restored = new File(databaseFile.getPath() + ".restore");
+        copyFile(snapshot, restored);
+
+        try {
+            SQLiteDatabase copy = SQLiteDatabase.openDatabase(restored.getPath(), null,
+                    SQLiteDatabase.OPEN_READWRITE);
+            try {
+                execPragma(copy, "PRAGMA journal_mode = DELETE");
+                String check = DatabaseUtils.stringForQuery(copy, "PRAGMA quick_check", null);
+                if (!"ok".equals(check)) {
+                    throw new IOException("Corrupted snapshot: " + check);
+                }
+                int version = copy.getVersion();
+                if (version < 1 || version > DB_VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version);
+                }
+            } finally {
+                copy.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteDatabaseFiles(restored);
+            restored.delete();
+            throw e;
+        }
+
+        // Closing the last connection checkpoints the log into the old database
+        close();
+        deleteDatabaseFiles(databaseFile);
+        if (!restored.renameTo(databaseFile)) {
+            throw new IOException("Can't move " + restored + " to " + databaseFile);
+        }
+    }
+
+    /**
+     * Delete the log and shared memory files of the database, not the database itself.
+     */
+    private static void deleteDatabaseFiles(File databaseFile) {
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            File file = new File(databaseFile.getPath() + suffix);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Copy the file, and sync the copy to the disk.
+     */
+    private static void copyFile(File source, File destination) throws IOException {
+        InputStream input = new FileInputStream(source);
+        try {
+            FileOutputStream output = new FileOutputStream(destination);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
 
+    /**
+     * Run a PRAGMA that returns its new value as a row.
+     */
+    private static void execPragma(SQLiteDatabase sqLiteDatabase, String pragma) {
+        Cursor cursor = sqLiteDatabase.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 }
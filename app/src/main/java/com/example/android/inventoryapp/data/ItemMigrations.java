@@ -0,0 +1,510 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StatsEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.SyncEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+
+/**
+ * Ordered chain of schema migrations for the store database.
+ * <p>
+ * The migration at index {@code i} of {@link #MIGRATIONS} upgrades the database from version
+ * {@code i + 1} to version {@code i + 2}. A new schema version is added by appending a migration at
+ * the end of the array. New databases are created with the version 1 schema and then go through
+ * the whole chain, so a fresh install and an upgraded database always end up with the same schema.
+ */
+final class ItemMigrations {
+
+    private static final String LOG_TAG = ItemMigrations.class.getSimpleName();
+
+    /**
+     * Condition of the products below their reorder threshold, in the low stock index and in
+     * the queries reading it.
+     */
+    static final String LOW_STOCK_CONDITION = ProductEntry.COLUMN_PRODUCT_QUANTITY + " < " +
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD;
+
+    /**
+     * A single step of the chain, upgrading the database by one version.
+     * It runs inside the transaction opened by {@link android.database.sqlite.SQLiteOpenHelper}.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Version 2: full-text index of the product and supplier names.
+     */
+    private static final Migration ADD_SEARCH_INDEX = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4(" +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ");");
+
+            // Index the products that already exist
+            db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ") " +
+                    "SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " FROM " + ProductEntry.TABLE_NAME);
+
+            // Keep the index in sync with the products table. Changes to other columns,
+            // such as the quantity, don't touch the index.
+            String SQL_INSERT_INTO_INDEX = "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ") " +
+                    "VALUES (new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME + ", new." +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ");";
+            String SQL_DELETE_FROM_INDEX = "DELETE FROM " + ProductEntry.FTS_TABLE_NAME +
+                    " WHERE docid = old." + ProductEntry._ID + ";";
+
+            db.execSQL("CREATE TRIGGER products_fts_ai AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_INSERT_INTO_INDEX + " END;");
+            db.execSQL("CREATE TRIGGER products_fts_au AFTER UPDATE OF " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME +
+                    " ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_DELETE_FROM_INDEX + " " + SQL_INSERT_INTO_INDEX + " END;");
+            db.execSQL("CREATE TRIGGER products_fts_ad AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_DELETE_FROM_INDEX + " END;");
+        }
+    };
+
+    /**
+     * Version 3: secondary indexes for the sorted and filtered product queries.
+     */
+    private static final Migration ADD_PRODUCT_INDEXES = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX products_supplier_name_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ");");
+            db.execSQL("CREATE INDEX products_quantity_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+            db.execSQL("CREATE INDEX products_price_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+        }
+    };
+
+    /**
+     * Version 4: prices are stored as whole cents instead of decimal amounts.
+     */
+    private static final Migration STORE_PRICES_AS_CENTS = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_PRODUCT_PRICE +
+                    " = CAST(ROUND(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * 100) AS INTEGER)" +
+                    " WHERE " + ProductEntry.COLUMN_PRODUCT_PRICE + " IS NOT NULL");
+        }
+    };
+
+    /**
+     * Version 5: suppliers move to their own table, referenced by the products. The products
+     * table is rebuilt without the supplier columns, and a view joins both tables back together
+     * for the product queries.
+     */
+    private static final Migration NORMALIZE_SUPPLIERS = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " (" +
+                    SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL, " +
+                    "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + "));");
+            db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " (" +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") " +
+                    "SELECT DISTINCT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " FROM " + ProductEntry.TABLE_NAME);
+
+            // SQLite can't drop columns, copy the products into a narrower table
+            db.execSQL("CREATE TABLE products_new (" +
+                    ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER, " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES " +
+                    SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "));");
+            db.execSQL("INSERT INTO products_new (" +
+                    ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ") " +
+                    "SELECT p." + ProductEntry._ID + ", p." + ProductEntry.COLUMN_PRODUCT_NAME + ", p." +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", s." +
+                    SupplierEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " +
+                    SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " = p." +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " AND s." +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = p." +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+            // Dropping the old table also drops its indexes and triggers
+            db.execSQL("DROP TABLE " + ProductEntry.TABLE_NAME);
+            db.execSQL("ALTER TABLE products_new RENAME TO " + ProductEntry.TABLE_NAME);
+
+            db.execSQL("CREATE INDEX products_supplier_id_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ");");
+            db.execSQL("CREATE INDEX products_quantity_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+            db.execSQL("CREATE INDEX products_price_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+
+            db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID + ", " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                    " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME +
+                    " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+
+            // The search index keeps its rows, only the triggers feeding it change
+            String SQL_INSERT_INTO_INDEX = "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ") " +
+                    "VALUES (new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME +
+                    ", (SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME +
+                    " WHERE " + SupplierEntry._ID + " = new." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + "));";
+            String SQL_DELETE_FROM_INDEX = "DELETE FROM " + ProductEntry.FTS_TABLE_NAME +
+                    " WHERE docid = old." + ProductEntry._ID + ";";
+
+            db.execSQL("CREATE TRIGGER products_fts_ai AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_INSERT_INTO_INDEX + " END;");
+            db.execSQL("CREATE TRIGGER products_fts_au AFTER UPDATE OF " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID +
+                    " ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_DELETE_FROM_INDEX + " " + SQL_INSERT_INTO_INDEX + " END;");
+            db.execSQL("CREATE TRIGGER products_fts_ad AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_DELETE_FROM_INDEX + " END;");
+            db.execSQL("CREATE TRIGGER suppliers_fts_au AFTER UPDATE OF " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME +
+                    " BEGIN UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME +
+                    " WHERE docid IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME +
+                    " WHERE " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = new." + SupplierEntry._ID + "); END;");
+        }
+    };
+
+    /**
+     * Version 6: summary tables holding the inventory totals, overall and per supplier, maintained
+     * by triggers on the products table.
+     */
+    private static final Migration ADD_INVENTORY_STATS = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String STATS_COLUMNS = StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                    StatsEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0, " +
+                    StatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0";
+            String SQL_SUMS = "COUNT(*), IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), " +
+                    "IFNULL(SUM(IFNULL(" + ProductEntry.COLUMN_PRODUCT_PRICE + ", 0) * " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0)";
+
+            // The whole inventory is a single row with the ID 1
+            db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " (" +
+                    "_id INTEGER PRIMARY KEY CHECK (_id = 1), " + STATS_COLUMNS + ");");
+            db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT 1, " + SQL_SUMS +
+                    " FROM " + ProductEntry.TABLE_NAME);
+
+            db.execSQL("CREATE TABLE " + StatsEntry.SUPPLIER_TABLE_NAME + " (" +
+                    StatsEntry.COLUMN_SUPPLIER_ID + " INTEGER PRIMARY KEY REFERENCES " +
+                    SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ") ON DELETE CASCADE, " +
+                    STATS_COLUMNS + ");");
+            db.execSQL("INSERT INTO " + StatsEntry.SUPPLIER_TABLE_NAME + " SELECT " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " + SQL_SUMS + " FROM " +
+                    ProductEntry.TABLE_NAME + " GROUP BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+
+            db.execSQL("CREATE TRIGGER products_stats_ai AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + statsChange("new", "+") + " END;");
+            db.execSQL("CREATE TRIGGER products_stats_ad AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + statsChange("old", "-") + " END;");
+            db.execSQL("CREATE TRIGGER products_stats_au AFTER UPDATE OF " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + statsChange("old", "-") + " " + statsChange("new", "+") + " END;");
+        }
+
+        /**
+         * Statements adding ("+") or removing ("-") the "new" or "old" product row to the totals.
+         */
+        private String statsChange(String row, String sign) {
+            String SQL_SET = " SET " +
+                    StatsEntry.COLUMN_PRODUCT_COUNT + " = " + StatsEntry.COLUMN_PRODUCT_COUNT + " " + sign + " 1, " +
+                    StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " " + sign + " " +
+                    row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE + " " + sign +
+                    " IFNULL(" + row + "." + ProductEntry.COLUMN_PRODUCT_PRICE + ", 0) * " +
+                    row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY;
+            return "UPDATE " + StatsEntry.TABLE_NAME + SQL_SET + " WHERE _id = 1; " +
+                    "INSERT OR IGNORE INTO " + StatsEntry.SUPPLIER_TABLE_NAME + " (" +
+                    StatsEntry.COLUMN_SUPPLIER_ID + ") VALUES (" + row + "." +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + "); " +
+                    "UPDATE " + StatsEntry.SUPPLIER_TABLE_NAME + SQL_SET + " WHERE " +
+                    StatsEntry.COLUMN_SUPPLIER_ID + " = " + row + "." +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";";
+        }
+    };
+
+    /**
+     * Version 7: indexes matching every sort order of the product list, so each of them is read
+     * by walking an index instead of sorting the rows. Names are ordered with the LOCALIZED
+     * collation of Android, which follows the rules of the device language and ignores case at
+     * the first level. Android rebuilds these indexes itself when the language changes.
+     * <p>
+     * Prices are part of a sort key now, and a key can't be NULL: the products of version 1
+     * databases that never got a price get a price of zero, as the inventory totals already
+     * counted them.
+     */
+    private static final Migration ADD_SORT_INDEXES = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_PRODUCT_PRICE +
+                    " = 0 WHERE " + ProductEntry.COLUMN_PRODUCT_PRICE + " IS NULL");
+
+            // Every index of the products table ends with the row ID, which breaks the ties
+            db.execSQL("CREATE INDEX products_name_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE LOCALIZED);");
+            // The products of a supplier are found through products_supplier_id_idx, in row ID
+            // order, so walking the suppliers by name lists the products by supplier
+            db.execSQL("CREATE INDEX suppliers_name_idx ON " + SupplierEntry.TABLE_NAME +
+                    " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + " COLLATE LOCALIZED);");
+
+            // The supplier ID of the view now comes from the suppliers table: it holds the same
+            // value, but SQLite only sees that the supplier index walk is ordered by it if the
+            // ORDER BY names the column of the suppliers table
+            db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME);
+            db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID + ", " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " AS " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                    " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME +
+                    " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+        }
+    };
+
+    /**
+     * Version 8: ledger of the stock movements. The provider appends a row for every change of a
+     * stock, and a trigger adds its quantity change to the stock of the product, so the quantity
+     * column stays the materialized sum of the ledger. Rows are appended in ID order, at the end
+     * of the table and of its timestamp index.
+     * <p>
+     * Every product gets a snapshot row with its current stock: the ledger of a product always
+     * starts with one, and is removed with it.
+     */
+    private static final Migration ADD_STOCK_LEDGER = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + StockMovementEntry.TABLE_NAME + " (" +
+                    StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, " +
+                    StockMovementEntry.COLUMN_TYPE + " INTEGER NOT NULL, " +
+                    StockMovementEntry.COLUMN_QUANTITY_CHANGE + " INTEGER NOT NULL, " +
+                    StockMovementEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+            db.execSQL("CREATE INDEX stock_movements_product_idx ON " + StockMovementEntry.TABLE_NAME +
+                    " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_TIMESTAMP + ");");
+            db.execSQL("CREATE INDEX stock_movements_timestamp_idx ON " + StockMovementEntry.TABLE_NAME +
+                    " (" + StockMovementEntry.COLUMN_TIMESTAMP + ");");
+
+            String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+            db.execSQL("INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_TYPE + ", " +
+                    StockMovementEntry.COLUMN_QUANTITY_CHANGE + ", " + StockMovementEntry.COLUMN_TIMESTAMP +
+                    ") SELECT " + ProductEntry._ID + ", " + StockMovementEntry.TYPE_SNAPSHOT + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + SQL_NOW_MILLIS +
+                    " FROM " + ProductEntry.TABLE_NAME);
+
+            // A new product starts its ledger with its initial stock, a deleted one takes it along
+            db.execSQL("CREATE TRIGGER products_ledger_ai AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_TYPE + ", " +
+                    StockMovementEntry.COLUMN_QUANTITY_CHANGE + ", " + StockMovementEntry.COLUMN_TIMESTAMP +
+                    ") VALUES (new." + ProductEntry._ID + ", " + StockMovementEntry.TYPE_SNAPSHOT + ", new." +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + SQL_NOW_MILLIS + "); END;");
+            db.execSQL("CREATE TRIGGER products_ledger_ad AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + StockMovementEntry.TABLE_NAME + " WHERE " +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + " = old." + ProductEntry._ID + "; END;");
+
+            // Snapshots don't move the stock, every other row does
+            db.execSQL("CREATE TRIGGER stock_movements_ai AFTER INSERT ON " + StockMovementEntry.TABLE_NAME +
+                    " WHEN new." + StockMovementEntry.COLUMN_TYPE + " <> " + StockMovementEntry.TYPE_SNAPSHOT +
+                    " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+                    " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + new." + StockMovementEntry.COLUMN_QUANTITY_CHANGE +
+                    " WHERE " + ProductEntry._ID + " = new." + StockMovementEntry.COLUMN_PRODUCT_ID + "; END;");
+        }
+    };
+
+    /**
+     * Version 9: reorder threshold of the products, and a partial index holding only the
+     * products whose stock is below it. The low stock list reads that index, its size depends
+     * on the number of products to reorder and not on the size of the catalog. The view is
+     * recreated to expose the new column.
+     */
+    private static final Migration ADD_REORDER_THRESHOLD = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                    ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0");
+            // The WHERE clause must match the selection of the low stock queries word for word,
+            // SQLite only uses a partial index for the queries implying its condition
+            db.execSQL("CREATE INDEX products_low_stock_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") WHERE " + LOW_STOCK_CONDITION + ";");
+
+            db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME);
+            db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID + ", " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + ", " +
+                    SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " AS " +
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                    " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME +
+                    " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+        }
+    };
+
+    /**
+     * Version 10: change tracking for the sync. Products get a global ID and a row version,
+     * taken from the counter of the sync state on every insert and every change of a synced
+     * column, including the stock moved by the ledger and the supplier of the product. Deleted
+     * products leave a tombstone. Both versions are indexed, so the changes since a sync are
+     * read without scanning the products.
+     * <p>
+     * The existing products are changes not pushed yet. The version updates of the triggers
+     * only touch the sync columns, so they fire none of the other triggers.
+     */
+    private static final Migration ADD_CHANGE_TRACKING = new Migration() {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String SQL_NEW_GLOBAL_ID = "lower(hex(randomblob(16)))";
+            String SQL_NEXT_VERSION = "UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET " +
+                    SyncEntry.COLUMN_VERSION + " = " + SyncEntry.COLUMN_VERSION + " + 1;";
+            String SQL_VERSION = "(SELECT " + SyncEntry.COLUMN_VERSION + " FROM " +
+                    SyncEntry.STATE_TABLE_NAME + ")";
+
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                    SyncEntry.COLUMN_GLOBAL_ID + " TEXT");
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                    SyncEntry.COLUMN_ROW_VERSION + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                    SyncEntry.COLUMN_GLOBAL_ID + " = " + SQL_NEW_GLOBAL_ID + ", " +
+                    SyncEntry.COLUMN_ROW_VERSION + " = 1");
+            db.execSQL("CREATE UNIQUE INDEX products_global_id_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + SyncEntry.COLUMN_GLOBAL_ID + ");");
+            db.execSQL("CREATE INDEX products_row_version_idx ON " + ProductEntry.TABLE_NAME +
+                    " (" + SyncEntry.COLUMN_ROW_VERSION + ", " + SyncEntry.COLUMN_GLOBAL_ID + ");");
+
+            // The sync state is a single row with the ID 1
+            db.execSQL("CREATE TABLE " + SyncEntry.STATE_TABLE_NAME + " (" +
+                    "_id INTEGER PRIMARY KEY CHECK (_id = 1), " +
+                    SyncEntry.COLUMN_VERSION + " INTEGER NOT NULL, " +
+                    SyncEntry.COLUMN_PUSHED_VERSION + " INTEGER NOT NULL, " +
+                    SyncEntry.COLUMN_PULL_CURSOR + " TEXT);");
+            db.execSQL("INSERT INTO " + SyncEntry.STATE_TABLE_NAME + " VALUES (1, 1, 0, NULL)");
+
+            db.execSQL("CREATE TABLE " + SyncEntry.TOMBSTONES_TABLE_NAME + " (" +
+                    SyncEntry.COLUMN_GLOBAL_ID + " TEXT PRIMARY KEY, " +
+                    SyncEntry.COLUMN_ROW_VERSION + " INTEGER NOT NULL);");
+            db.execSQL("CREATE INDEX sync_tombstones_row_version_idx ON " +
+                    SyncEntry.TOMBSTONES_TABLE_NAME + " (" + SyncEntry.COLUMN_ROW_VERSION + ", " +
+                    SyncEntry.COLUMN_GLOBAL_ID + ");");
+
+            db.execSQL("CREATE TABLE " + SyncEntry.BASE_TABLE_NAME + " (" +
+                    SyncEntry.COLUMN_GLOBAL_ID + " TEXT PRIMARY KEY, " +
+                    SyncEntry.COLUMN_SERVER_VERSION + " INTEGER NOT NULL, " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + " TEXT, " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER, " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER, " +
+                    ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER, " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT, " +
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT);");
+
+            db.execSQL("CREATE TRIGGER products_sync_ai AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_VERSION + " UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                    SyncEntry.COLUMN_GLOBAL_ID + " = IFNULL(new." + SyncEntry.COLUMN_GLOBAL_ID + ", " +
+                    SQL_NEW_GLOBAL_ID + "), " + SyncEntry.COLUMN_ROW_VERSION + " = " + SQL_VERSION +
+                    " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; END;");
+            db.execSQL("CREATE TRIGGER products_sync_au AFTER UPDATE OF " +
+                    ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " +
+                    ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_VERSION + " UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                    SyncEntry.COLUMN_ROW_VERSION + " = " + SQL_VERSION + " WHERE " + ProductEntry._ID +
+                    " = new." + ProductEntry._ID + "; END;");
+            db.execSQL("CREATE TRIGGER products_sync_ad AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_VERSION + " INSERT OR REPLACE INTO " +
+                    SyncEntry.TOMBSTONES_TABLE_NAME + " VALUES (old." + SyncEntry.COLUMN_GLOBAL_ID +
+                    ", " + SQL_VERSION + "); END;");
+            db.execSQL("CREATE TRIGGER suppliers_sync_au AFTER UPDATE OF " +
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                    " ON " + SupplierEntry.TABLE_NAME + " BEGIN " + SQL_NEXT_VERSION + " UPDATE " +
+                    ProductEntry.TABLE_NAME + " SET " + SyncEntry.COLUMN_ROW_VERSION + " = " + SQL_VERSION +
+                    " WHERE " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = new." + SupplierEntry._ID +
+                    "; END;");
+        }
+    };
+
+    /**
+     * All the migrations, in order. Never reorder or remove an entry, only append new ones.
+     */
+    private static final Migration[] MIGRATIONS = {
+            ADD_SEARCH_INDEX,
+            ADD_PRODUCT_INDEXES,
+            STORE_PRICES_AS_CENTS,
+            NORMALIZE_SUPPLIERS,
+            ADD_INVENTORY_STATS,
+            ADD_SORT_INDEXES,
+            ADD_STOCK_LEDGER,
+            ADD_REORDER_THRESHOLD,
+            ADD_CHANGE_TRACKING,
+    };
+
+    /**
+     * Version of the schema produced by the whole chain.
+     */
+    static final int LATEST_VERSION = MIGRATIONS.length + 1;
+
+    private ItemMigrations() {
+    }
+
+    /**
+     * Create the version 1 schema, the starting point of the chain.
+     */
+    static void createInitialSchema(SQLiteDatabase db) {
+        String SQL_CREATE_ITEMS_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " (" +
+                ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " +
+                ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER, " +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, " +
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL DEFAULT 0, " +
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL DEFAULT 0);";
+        db.execSQL(SQL_CREATE_ITEMS_TABLE);
+    }
+
+    /**
+     * Run the migrations upgrading the database from {@code oldVersion} to {@code newVersion},
+     * logging how long each of them takes.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 1 || newVersion > LATEST_VERSION || oldVersion > newVersion) {
+            throw new IllegalArgumentException("No migration from version " + oldVersion +
+                    " to version " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            long start = SystemClock.elapsedRealtime();
+            MIGRATIONS[version - 1].migrate(db);
+            Log.i(LOG_TAG, "Migrated database from version " + version + " to " + (version + 1) +
+                    " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+}
@@ -1,15 +1,60 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.database.SQLException;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
 import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.Snapshots;
+import com.example.android.inventoryapp.data.ItemContract.StatsEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -28,6 +73,71 @@ public class ItemProvider extends ContentProvider {
      * URI matcher code for the content URI for a single item in the products table
      */
     private static final int PRODUCT_ID = 101;
+    /**
+     * URI matcher code for the content URI of a full-text search of the products
+     */
+    private static final int PRODUCT_SEARCH = 102;
+    /**
+     * URI matcher code for the content URI for the inventory totals
+     */
+    private static final int PRODUCT_STATS = 103;
+    /**
+     * URI matcher code for the content URI of the CSV export of the products
+     */
+    private static final int PRODUCT_EXPORT = 104;
+    /**
+     * URI matcher code for the content URI for the stock movements of a single product
+     */
+    private static final int PRODUCT_MOVEMENTS = 105;
+    /**
+     * URI matcher code for the content URI for the products below their reorder threshold
+     */
+    private static final int PRODUCT_LOW_STOCK = 106;
+    /**
+     * URI matcher code for the content URI for the suppliers table
+     */
+    private static final int SUPPLIERS = 200;
+    /**
+     * URI matcher code for the content URI for a single supplier
+     */
+    private static final int SUPPLIER_ID = 201;
+    /**
+     * URI matcher code for the content URI for the products of a single supplier
+     */
+    private static final int SUPPLIER_PRODUCTS = 202;
+    /**
+     * URI matcher code for the content URI for the totals of every supplier
+     */
+    private static final int SUPPLIER_STATS = 203;
+    /**
+     * Code under which the metrics record the calls of the sell method
+     */
+    private static final int METHOD_SELL = 300;
+    /**
+     * Codes under which the metrics record the snapshot and restore methods
+     */
+    private static final int METHOD_SNAPSHOT = 301;
+    private static final int METHOD_RESTORE = 302;
+    /**
+     * Code under which the metrics record the compactions of the ledger
+     */
+    private static final int METHOD_COMPACT_LEDGER = 303;
+    /**
+     * URI matcher code for the content URI for the stock movements table
+     */
+    private static final int MOVEMENTS = 400;
+    /**
+     * URI matcher code for the content URI for a single stock movement
+     */
+    private static final int MOVEMENT_ID = 401;
+    /**
+     * URI matcher code for the content URI listing the stores
+     */
+    private static final int STORES = 500;
+    /**
+     * URI matcher code for the content URI of the stock across the stores
+     */
+    private static final int STORE_STOCK = 501;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -35,6 +145,11 @@ public class ItemProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * Names of the URI patterns and methods in the metrics, keyed by their code.
+     */
+    private static final SparseArray<String> sMetricNames = new SparseArray<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
@@ -43,155 +158,1372 @@ public class ItemProvider extends ContentProvider {
 
         sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_PRODUCTS, PRODUCTS);
         sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_PRODUCTS + "/" + ItemContract.PATH_SEARCH + "/*", PRODUCT_SEARCH);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_PRODUCTS + "/" + ItemContract.PATH_STATS, PRODUCT_STATS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_PRODUCTS + "/" + ItemContract.PATH_EXPORT, PRODUCT_EXPORT);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_PRODUCTS + "/#/" + ItemContract.PATH_MOVEMENTS, PRODUCT_MOVEMENTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_PRODUCTS + "/" + ItemContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_SUPPLIERS + "/#/" + ItemContract.PATH_PRODUCTS, SUPPLIER_PRODUCTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_SUPPLIERS + "/" + ItemContract.PATH_STATS, SUPPLIER_STATS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_MOVEMENTS, MOVEMENTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_MOVEMENTS + "/#", MOVEMENT_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_STORES, STORES);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_STORES + "/" + ItemContract.PATH_STOCK, STORE_STOCK);
+
+        sMetricNames.put(UriMatcher.NO_MATCH, "unknown");
+        sMetricNames.put(PRODUCTS, "products");
+        sMetricNames.put(PRODUCT_ID, "products/#");
+        sMetricNames.put(PRODUCT_SEARCH, "products/search/*");
+        sMetricNames.put(PRODUCT_STATS, "products/stats");
+        sMetricNames.put(PRODUCT_EXPORT, "products/export");
+        sMetricNames.put(PRODUCT_MOVEMENTS, "products/#/movements");
+        sMetricNames.put(PRODUCT_LOW_STOCK, "products/low_stock");
+        sMetricNames.put(SUPPLIERS, "suppliers");
+        sMetricNames.put(SUPPLIER_ID, "suppliers/#");
+        sMetricNames.put(SUPPLIER_PRODUCTS, "suppliers/#/products");
+        sMetricNames.put(SUPPLIER_STATS, "suppliers/stats");
+        sMetricNames.put(MOVEMENTS, "movements");
+        sMetricNames.put(MOVEMENT_ID, "movements/#");
+        sMetricNames.put(STORES, "stores");
+        sMetricNames.put(STORE_STOCK, "stores/stock");
+        sMetricNames.put(METHOD_SELL, ProductEntry.METHOD_SELL);
+        sMetricNames.put(METHOD_SNAPSHOT, Snapshots.METHOD_SNAPSHOT);
+        sMetricNames.put(METHOD_RESTORE, Snapshots.METHOD_RESTORE);
+        sMetricNames.put(METHOD_COMPACT_LEDGER, StockMovementEntry.METHOD_COMPACT);
+    }
+
+    /**
+     * Columns written by the compiled statement used for bulk inserts, in binding order.
+     */
+    private static final String[] BULK_INSERT_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID};
+
+    /**
+     * INSERT statement matching {@link #BULK_INSERT_COLUMNS}.
+     */
+    private static final String SQL_BULK_INSERT = "INSERT INTO " + ProductEntry.TABLE_NAME + " (" +
+            ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+            ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Selection of a single row by its ID. Always the same text, so SQLite reuses the statement
+     * it prepared for it.
+     */
+    private static final String SELECTION_ID = BaseColumns._ID + "=?";
+
+    /**
+     * Returned by {@link #longValue} for a column without a whole number.
+     */
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * Argument of {@link #SELECTION_ID} for the queries of a product by ID, one per thread. The
+     * query copies its arguments when it is compiled, so the next query of the thread can reuse
+     * the array.
+     */
+    private static final ThreadLocal<String[]> sIdSelectionArgs = new ThreadLocal<String[]>() {
+        @Override
+        protected String[] initialValue() {
+            return new String[1];
+        }
+    };
+
+
+    /**
+     * Deletes a single product.
+     */
+    private static final String SQL_DELETE_PRODUCT = "DELETE FROM " + ProductEntry.TABLE_NAME +
+            " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Conditional append to the ledger, used for every change of a stock: the movement is only
+     * appended if the product exists and its stock stays positive, and a trigger then applies it
+     * to the stock. Binds the type, quantity change, timestamp, product ID and quantity change.
+     */
+    private static final String SQL_APPEND_MOVEMENT = "INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" +
+            StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_TYPE + ", " +
+            StockMovementEntry.COLUMN_QUANTITY_CHANGE + ", " + StockMovementEntry.COLUMN_TIMESTAMP + ") " +
+            "SELECT " + ProductEntry._ID + ", ?, ?, ? FROM " + ProductEntry.TABLE_NAME +
+            " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+
+    /**
+     * Order of the ledger queries, oldest first. Both ledger indexes end with the timestamp and
+     * the row ID, so a range of the ledger is read without sorting.
+     */
+    private static final String MOVEMENTS_ORDER = StockMovementEntry.COLUMN_TIMESTAMP + ", " +
+            StockMovementEntry._ID;
+
+    /**
+     * Order of the low stock list: the order of the low stock index.
+     */
+    private static final String LOW_STOCK_ORDER = ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+            ProductEntry._ID;
+
+    /**
+     * Number of products whose ledger is compacted in a single transaction. Sales wait for the
+     * running transaction only, so a compaction never blocks them for long.
+     */
+    private static final int COMPACT_CHUNK_SIZE = 100;
+
+    /**
+     * Reads back the stock of a single product.
+     */
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+            " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Tables joined by a search: the products, and the matching rows of the full-text index with
+     * their rank. The number of term offsets reported for a row is used as its rank, so rows
+     * matching more of the query come first.
+     */
+    private static final String SEARCH_TABLES = ProductEntry.VIEW_NAME + " JOIN (SELECT docid, " +
+            "length(offsets(" + ProductEntry.FTS_TABLE_NAME + ")) AS rank FROM " + ProductEntry.FTS_TABLE_NAME +
+            " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?) AS matches ON " +
+            ProductEntry.VIEW_NAME + "." + ProductEntry._ID + " = matches.docid";
+
+    /**
+     * Order of the search results: best rank first, then by product.
+     */
+    private static final String SEARCH_ORDER = "matches.rank DESC, " +
+            ProductEntry.VIEW_NAME + "." + ProductEntry._ID;
+
+    /**
+     * Per-supplier totals joined with the supplier names.
+     */
+    private static final String SUPPLIER_STATS_TABLES = StatsEntry.SUPPLIER_TABLE_NAME + " JOIN " +
+            SupplierEntry.TABLE_NAME + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID +
+            " = " + StatsEntry.SUPPLIER_TABLE_NAME + "." + StatsEntry.COLUMN_SUPPLIER_ID;
+
+    /**
+     * Collation of the names in the sort indexes, so ordering by a name walks its index.
+     */
+    private static final String COLLATE_LOCALIZED = " COLLATE LOCALIZED";
+
+    /**
+     * Notified on every change of every store: the notification URIs of cursors match their
+     * descendants.
+     */
+    private static final Uri ALL_STORES_URI = Uri.parse("content://" + ItemContract.CONTENT_AUTHORITY);
+
+    /**
+     * Number of threads querying the stores in parallel for the queries across the stores.
+     */
+    private static final int FAN_OUT_THREADS = 4;
+
+    /**
+     * Time after which an idle fan-out thread stops.
+     */
+    private static final long FAN_OUT_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The opened store databases, keyed by store ID. Guarded by itself.
+     */
+    private final Map<Long, StoreDatabase> mStores = new HashMap<>();
+
+    /**
+     * Runs the queries of the stores in parallel for the queries across the stores. Each store
+     * is read on connections of its own database, so they don't wait for each other.
+     */
+    private ThreadPoolExecutor mFanOutExecutor;
+
+    /**
+     * Change notifications collected while a batch is running on the current thread.
+     * A null value means notifications are sent immediately.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /**
+     * Counters and latencies of the provider operations, returned by {@link Metrics#METHOD}.
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(sMetricNames);
+
+    /**
+     * Small query results, returned again until the next write.
+     */
+    private final QueryCache mQueryCache = new QueryCache();
+
+    /**
+     * Initialize the provider and the executor of the queries across the stores. The store
+     * databases are opened on first use.
+     */
+    @Override
+    public boolean onCreate() {
+        mFanOutExecutor = new ThreadPoolExecutor(FAN_OUT_THREADS, FAN_OUT_THREADS,
+                FAN_OUT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mFanOutExecutor.allowCoreThreadTimeOut(true);
+        return true;
+    }
+
+    /**
+     * Return the database of the store, opening it on first use.
+     */
+    StoreDatabase getStore(long storeId) {
+        synchronized (mStores) {
+            StoreDatabase store = mStores.get(storeId);
+            if (store == null) {
+                store = new StoreDatabase(getContext(), storeId);
+                mStores.put(storeId, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Return the database of the store the URI is scoped to, or of the default store.
+     */
+    private StoreDatabase getStore(Uri uri) {
+        return getStore(isStoreScoped(uri) ? Long.parseLong(uri.getPathSegments().get(1)) :
+                StoreEntry.DEFAULT_STORE_ID);
+    }
+
+    /**
+     * Return the database of the store given by {@link StoreEntry#EXTRA_STORE_ID}, or of the
+     * default store.
+     */
+    private StoreDatabase getStore(Bundle extras) {
+        long storeId = extras != null ?
+                extras.getLong(StoreEntry.EXTRA_STORE_ID, StoreEntry.DEFAULT_STORE_ID) :
+                StoreEntry.DEFAULT_STORE_ID;
+        if (storeId < 0) {
+            throw new IllegalArgumentException("Invalid store " + storeId);
+        }
+        return getStore(storeId);
+    }
+
+    /**
+     * Return true if the URI is scoped to a store, such as "stores/2/products".
+     */
+    private static boolean isStoreScoped(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() > 2 && ItemContract.PATH_STORES.equals(segments.get(0)) &&
+                TextUtils.isDigitsOnly(segments.get(1)) && segments.get(1).length() < 19;
+    }
+
+    /**
+     * Remove the store scope of the URI, "stores/2/products" becoming "products". The rest of
+     * the provider works on the URIs without their scope, and scopes the URIs it hands out.
+     */
+    private static Uri unscope(Uri uri) {
+        if (!isStoreScoped(uri)) {
+            return uri;
+        }
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = uri.buildUpon().path(null);
+        for (String segment : segments.subList(2, segments.size())) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Match the URI, scoped to a store or not. The URIs of the stores themselves can't be scoped.
+     */
+    private static int match(Uri uri) {
+        if (!isStoreScoped(uri)) {
+            return sUriMatcher.match(uri);
+        }
+        int match = sUriMatcher.match(unscope(uri));
+        return match == STORES || match == STORE_STOCK ? UriMatcher.NO_MATCH : match;
+    }
+
+    /**
+     * Return true if the results of the queries matched by the code are cached: the single rows
+     * and the statistics, read again and again by the editor and the summary. The lists are
+     * read page by page, each page once, and would only push them out of the cache.
+     */
+    private static boolean isCached(int match) {
+        return match == PRODUCT_ID || match == SUPPLIER_ID || match == PRODUCT_STATS ||
+                match == SUPPLIER_STATS;
+    }
+
+    /**
+     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        long startNanos = ProviderMetrics.start();
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = match(uri);
+        StoreDatabase store = getStore(uri);
+        // The queries across the stores lock each store on the thread that reads it instead,
+        // the fan-out threads would wait for a restore waiting for this thread otherwise
+        boolean dependsOnAllStores = match == STORES || match == STORE_STOCK;
+        Cursor cursor = null;
+        if (!dependsOnAllStores) {
+            store.getLock().readLock().lock();
+        }
+        try {
+            long storeId = store.getStoreId();
+            String cacheKey = isCached(match) ?
+                    QueryCache.key(match, uri, projection, selection, selectionArgs, sortOrder) : null;
+            if (cacheKey != null) {
+                cursor = mQueryCache.get(storeId, cacheKey);
+            }
+            if (cursor == null) {
+                // Read the generation first: a write committed during the query makes the
+                // result stale, and it must not be cached
+                long generation = mQueryCache.generation(storeId);
+                cursor = query(store, match, unscope(uri), projection, selection, selectionArgs, sortOrder);
+                if (cacheKey != null) {
+                    mQueryCache.put(storeId, cacheKey, generation, cursor);
+                }
+            }
+
+            // Set notification URI on the Cursor,
+            // so we know what content URI the Cursor was created for.
+            // If the data at this URI changes, then we know we need to update the Cursor.
+            // Search results and statistics depend on the whole products table.
+            // The ledger is notified as a whole. The queries across the stores depend on
+            // every store.
+            boolean dependsOnAllProducts = match == PRODUCT_SEARCH || match == PRODUCT_STATS ||
+                    match == SUPPLIER_STATS || match == PRODUCT_LOW_STOCK;
+            boolean dependsOnLedger = match == MOVEMENTS || match == MOVEMENT_ID ||
+                    match == PRODUCT_MOVEMENTS;
+            cursor.setNotificationUri(getContext().getContentResolver(),
+                    dependsOnAllProducts ? store.scope(ProductEntry.CONTENT_URI) :
+                            dependsOnLedger ? store.scope(StockMovementEntry.CONTENT_URI) :
+                                    dependsOnAllStores ? ALL_STORES_URI : uri);
+            return cursor;
+        } finally {
+            if (!dependsOnAllStores) {
+                store.getLock().readLock().unlock();
+            }
+            // Counting the rows runs the query and fills the cursor window, which the caller
+            // would do next anyway, so the latency covers the actual work
+            mMetrics.record(ProviderMetrics.QUERY, match, startNanos,
+                    cursor != null ? cursor.getCount() : -1);
+        }
+    }
+
+    private Cursor query(StoreDatabase store, int match, Uri uri, String[] projection,
+                         String selection, String[] selectionArgs, String sortOrder) {
+        // The queries across the stores read every store database
+        if (match == STORES) {
+            return queryStores(projection);
+        } else if (match == STORE_STOCK) {
+            return queryStoreStock(projection, selection, selectionArgs, sortOrder);
+        }
+
+        // Get readable database
+        SQLiteDatabase database = store.getReadableDatabase();
+
+        // This cursor will hold the result of the query
+        Cursor cursor;
+
+        switch (match) {
+            case PRODUCTS:
+                // For the PRODUCTS code, query the products joined with their suppliers with the
+                // given projection, selection, selection arguments, and sort order. The cursor
+                // could contain multiple rows of the products table.
+
+                // The URI may ask for a single page of products: at most "limit" rows,
+                // starting right after the "after_id" key.
+                String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+                    throw new IllegalArgumentException("Invalid limit " + limit + " for " + uri);
+                }
+                // The URI may choose one of the indexed orders instead of a sort order
+                String sort = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT);
+                String[] sortTerms = null;
+                if (sort != null) {
+                    sortTerms = getSortTerms(sort);
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("A sort order can't be given with a sort: " + uri);
+                    }
+                    sortOrder = TextUtils.join(", ", sortTerms);
+                }
+                selection = DatabaseUtils.concatenateWhere(selection, buildPriceSelection(uri, sort));
+
+                String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null) {
+                    if (afterId.isEmpty() || !TextUtils.isDigitsOnly(afterId)) {
+                        throw new IllegalArgumentException("Invalid key " + afterId + " for " + uri);
+                    }
+                    if (sortTerms != null) {
+                        List<String> afterKey = uri.getQueryParameters(ProductEntry.QUERY_PARAMETER_AFTER_KEY);
+                        if (afterKey.size() != sortTerms.length - 1) {
+                            throw new IllegalArgumentException("Keyset paging requires the sort key: " + uri);
+                        }
+                        List<String> keyValues = new ArrayList<>(afterKey);
+                        keyValues.add(afterId);
+                        selection = DatabaseUtils.concatenateWhere(selection, buildKeysetSelection(sortTerms, 0));
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                buildKeysetSelectionArgs(keyValues));
+                    } else {
+                        if (sortOrder != null && !sortOrder.equals(ProductEntry._ID)) {
+                            throw new IllegalArgumentException("Keyset paging requires ordering by " + ProductEntry._ID);
+                        }
+                        selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + " > ?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{afterId});
+                    }
+                }
+                if (limit != null && sortOrder == null) {
+                    // Pages need a stable order, walk the primary key
+                    sortOrder = ProductEntry._ID;
+                }
+
+                // Perform database query on products table
+                cursor = database.query(
+                        ProductEntry.VIEW_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        limit
+                );
+                break;
+            case PRODUCT_ID:
+                // For the PRODUCT_ID code, extract out the ID from the URI.
+                // For an example URI such as "content://com.example.android.inventoryapp/products/x",
+                // the selection will be "_id=?" and the selection argument will be a
+                // String array containing the actual ID of x in this case.
+                //
+                // For every "?" in the selection, we need to have an element in the selection
+                // arguments that will fill in the "?". Since we have 1 question mark in the
+                // selection, we have 1 String in the selection arguments' String array.
+                selection = SELECTION_ID;
+                selectionArgs = sIdSelectionArgs.get();
+                selectionArgs[0] = uri.getLastPathSegment();
+
+                // This will perform a query on the products table where the _id equals x to return a
+                // Cursor containing that row of the table.
+                cursor = database.query(
+                        ProductEntry.VIEW_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+
+                break;
+            case PRODUCT_SEARCH:
+                // For the PRODUCT_SEARCH code, the last path segment holds the text the user
+                // is looking for. Turn it into a full-text query and join the matching rows
+                // of the index with the products table.
+                String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+                if (matchQuery == null) {
+                    // Nothing searchable in the text, an empty query matches no row
+                    matchQuery = "";
+                }
+                String searchLimit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+                if (searchLimit != null && !TextUtils.isDigitsOnly(searchLimit)) {
+                    throw new IllegalArgumentException("Invalid limit " + searchLimit + " for " + uri);
+                }
+
+                // The argument of the match comes first, the tables precede the selection
+                String[] searchArgs = new String[]{matchQuery};
+                if (selectionArgs != null) {
+                    searchArgs = DatabaseUtils.appendSelectionArgs(searchArgs, selectionArgs);
+                }
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(SEARCH_TABLES);
+                cursor = builder.query(
+                        database,
+                        projection,
+                        selection,
+                        searchArgs,
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SEARCH_ORDER,
+                        searchLimit
+                );
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                selection = SELECTION_ID;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_PRODUCTS:
+                // For the SUPPLIER_PRODUCTS code, the supplier ID is the second path segment.
+                // The products are found through the index on their supplier ID.
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PRODUCT_STATS:
+                // The totals are maintained by triggers, reading them is a single row lookup
+                cursor = database.query(StatsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_STATS:
+                SQLiteQueryBuilder statsBuilder = new SQLiteQueryBuilder();
+                statsBuilder.setTables(SUPPLIER_STATS_TABLES);
+                cursor = statsBuilder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PRODUCT_LOW_STOCK:
+                cursor = queryLowStock(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PRODUCT_MOVEMENTS:
+                // For the PRODUCT_MOVEMENTS code, the product ID is the second path segment.
+                // The range is read from the product index of the ledger.
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        StockMovementEntry.COLUMN_PRODUCT_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                cursor = queryMovements(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case MOVEMENTS:
+                cursor = queryMovements(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case MOVEMENT_ID:
+                selection = SELECTION_ID;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(StockMovementEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+        return cursor;
+    }
+
+    /**
+     * Query the movements of the ledger within the time range and limit given in the URI,
+     * oldest first unless another sort order is given.
+     */
+    private static Cursor queryMovements(SQLiteDatabase database, Uri uri, String[] projection,
+                                         String selection, String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(StockMovementEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && (limit.isEmpty() || !TextUtils.isDigitsOnly(limit))) {
+            throw new IllegalArgumentException("Invalid limit " + limit + " for " + uri);
+        }
+        // The bounds are checked numbers, written into the SQL so they compare as numbers
+        String from = uri.getQueryParameter(StockMovementEntry.QUERY_PARAMETER_FROM);
+        if (from != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    StockMovementEntry.COLUMN_TIMESTAMP + " >= " + parseTimestamp(from, uri));
+        }
+        String to = uri.getQueryParameter(StockMovementEntry.QUERY_PARAMETER_TO);
+        if (to != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    StockMovementEntry.COLUMN_TIMESTAMP + " < " + parseTimestamp(to, uri));
+        }
+        return database.query(StockMovementEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder != null ? sortOrder : MOVEMENTS_ORDER, limit);
+    }
+
+    /**
+     * Query the products below their reorder threshold. The selection holds the condition of
+     * the partial low stock index, so SQLite reads the products from it.
+     * <p>
+     * If the URI gives a range of the ledger, the products are joined with the sum of their
+     * movements in that range: a product went below its threshold in the range if its stock
+     * before the movements was not below it, or if it was created in the range, that is if the
+     * snapshot starting its ledger is in the range: compaction keeps its row ID. The movements
+     * are grouped by "+product_id", so SQLite seeks the range by row ID at the end of the ledger
+     * instead of walking the whole product index of the ledger in group order.
+     */
+    private static Cursor queryLowStock(SQLiteDatabase database, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs, String sortOrder) {
+        selection = DatabaseUtils.concatenateWhere(selection, ItemMigrations.LOW_STOCK_CONDITION);
+        String tables = ProductEntry.VIEW_NAME;
+
+        String changedAfter = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_AFTER);
+        if (changedAfter != null) {
+            // The bounds are checked numbers, written into the SQL
+            String movements = StockMovementEntry._ID + " > " + parseMovementId(changedAfter, uri);
+            String changedUntil = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_UNTIL);
+            if (changedUntil != null) {
+                movements += " AND " + StockMovementEntry._ID + " <= " + parseMovementId(changedUntil, uri);
+            }
+            tables += " JOIN (SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID + ", " +
+                    "MAX(" + StockMovementEntry.COLUMN_TYPE + " = " + StockMovementEntry.TYPE_SNAPSHOT +
+                    ") AS created, SUM(CASE " + StockMovementEntry.COLUMN_TYPE + " WHEN " +
+                    StockMovementEntry.TYPE_SNAPSHOT + " THEN 0 ELSE " +
+                    StockMovementEntry.COLUMN_QUANTITY_CHANGE + " END) AS change FROM " +
+                    StockMovementEntry.TABLE_NAME + " WHERE " + movements + " GROUP BY +" +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + ") AS changes ON changes." +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + " = " + ProductEntry.VIEW_NAME + "." +
+                    ProductEntry._ID;
+            selection = DatabaseUtils.concatenateWhere(selection, "changes.created OR " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + " - changes.change >= " +
+                    ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(tables);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : LOW_STOCK_ORDER);
+    }
+
+    /**
+     * List the stores that have a database, see {@link StoreEntry#CONTENT_URI}.
+     */
+    private Cursor queryStores(String[] projection) {
+        String[] columns = projection != null ? projection : new String[]{StoreEntry._ID};
+        for (String column : columns) {
+            if (!StoreEntry._ID.equals(column)) {
+                throw new IllegalArgumentException("Unknown column " + column + " for the stores");
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (long storeId : ItemDbHelper.findStoreIds(getContext())) {
+            Object[] row = new Object[columns.length];
+            Arrays.fill(row, storeId);
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Sum the stock of the products across the stores, see {@link StoreEntry#CONTENT_STOCK_URI}.
+     * Every store is grouped by product name on a fan-out thread, in parallel, and the sums are
+     * merged here. The rows are ordered by name.
+     */
+    private Cursor queryStoreStock(String[] projection, final String selection,
+                                   final String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("The stock of the stores is ordered by name.");
+        }
+        String[] columns = projection != null ? projection : new String[]{StoreEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                StoreEntry.COLUMN_STORE_COUNT};
+
+        List<Callable<Map<String, Long>>> tasks = new ArrayList<>();
+        for (long storeId : ItemDbHelper.findStoreIds(getContext())) {
+            final StoreDatabase store = getStore(storeId);
+            tasks.add(new Callable<Map<String, Long>>() {
+                @Override
+                public Map<String, Long> call() {
+                    return queryStock(store, selection, selectionArgs);
+                }
+            });
+        }
+
+        // Total stock and number of stores, by name
+        Map<String, long[]> totals = new TreeMap<>();
+        try {
+            for (Future<Map<String, Long>> future : mFanOutExecutor.invokeAll(tasks)) {
+                for (Map.Entry<String, Long> stock : future.get().entrySet()) {
+                    long[] total = totals.get(stock.getKey());
+                    if (total == null) {
+                        total = new long[2];
+                        totals.put(stock.getKey(), total);
+                    }
+                    total[0] += stock.getValue();
+                    total[1]++;
+                }
+            }
+        } catch (ExecutionException e) {
+            // Such as an invalid selection, failing in every store
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, totals.size());
+        long id = 0;
+        for (Map.Entry<String, long[]> total : totals.entrySet()) {
+            id++;
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : columns) {
+                if (StoreEntry._ID.equals(column)) {
+                    row.add(id);
+                } else if (ProductEntry.COLUMN_PRODUCT_NAME.equals(column)) {
+                    row.add(total.getKey());
+                } else if (ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(column)) {
+                    row.add(total.getValue()[0]);
+                } else if (StoreEntry.COLUMN_STORE_COUNT.equals(column)) {
+                    row.add(total.getValue()[1]);
+                } else {
+                    throw new IllegalArgumentException("Unknown column " + column + " for the stock");
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the stock of the selected products of a single store, summed by name. Runs on a
+     * fan-out thread.
+     */
+    private static Map<String, Long> queryStock(StoreDatabase store, String selection,
+                                                String[] selectionArgs) {
+        Map<String, Long> stock = new HashMap<>();
+        store.getLock().readLock().lock();
+        try {
+            Cursor cursor = store.getReadableDatabase().query(ProductEntry.TABLE_NAME, new String[]{
+                            ProductEntry.COLUMN_PRODUCT_NAME,
+                            "SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ")"},
+                    selection, selectionArgs, ProductEntry.COLUMN_PRODUCT_NAME, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    stock.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            store.getLock().readLock().unlock();
+        }
+        return stock;
+    }
+
+    private static long parseMovementId(String value, Uri uri) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid movement " + value + " for " + uri);
+        }
+    }
+
+    private static long parseTimestamp(String value, Uri uri) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time " + value + " for " + uri);
+        }
+    }
+
+    /**
+     * Turn the text typed by the user into a full-text query where every word must match the
+     * beginning of a word in the product or supplier name. Return null if there is no word to
+     * search for.
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        // Only keep letters and digits, so the text can't use the full-text query syntax
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() > 0 ? matchQuery.toString() : null;
+    }
+
+    /**
+     * Build the selection of the price range given in the URI, or return null if there is none.
+     * The bounds are checked numbers, written into the SQL so they compare as numbers. Unless
+     * the products are sorted by price, the column is written as "+price": SQLite then doesn't
+     * use the price index for the range, and keeps walking the index of the sort order, which
+     * returns the first page without sorting the whole range.
+     */
+    private static String buildPriceSelection(Uri uri, String sort) {
+        String column = ProductEntry.SORT_PRICE.equals(sort) ?
+                ProductEntry.COLUMN_PRODUCT_PRICE : "+" + ProductEntry.COLUMN_PRODUCT_PRICE;
+        String selection = null;
+        String minPrice = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_MIN_PRICE);
+        if (minPrice != null) {
+            selection = column + " >= " + parsePriceBound(minPrice, uri);
+        }
+        String maxPrice = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_MAX_PRICE);
+        if (maxPrice != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    column + " <= " + parsePriceBound(maxPrice, uri));
+        }
+        return selection;
+    }
+
+    private static long parsePriceBound(String value, Uri uri) {
+        try {
+            long cents = Long.parseLong(value);
+            if (cents >= 0) {
+                return cents;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid price " + value + " for " + uri);
+    }
+
+    /**
+     * Build the selection of the rows following a key in the order of the sort terms, starting
+     * at the given term. For the terms (a, b) it is "a >= ? AND (a > ? OR b > ?)": the first
+     * comparison alone bounds the index range SQLite seeks to.
+     */
+    private static String buildKeysetSelection(String[] sortTerms, int term) {
+        if (term == sortTerms.length - 1) {
+            return sortTerms[term] + " > ?";
+        }
+        return sortTerms[term] + " >= ? AND (" + sortTerms[term] + " > ? OR " +
+                buildKeysetSelection(sortTerms, term + 1) + ")";
+    }
+
+    /**
+     * Arguments of {@link #buildKeysetSelection}: each value of the key twice, but the last one.
+     */
+    private static String[] buildKeysetSelectionArgs(List<String> keyValues) {
+        String[] args = new String[keyValues.size() * 2 - 1];
+        for (int i = 0; i < keyValues.size(); i++) {
+            args[i * 2] = keyValues.get(i);
+            if (i * 2 + 1 < args.length) {
+                args[i * 2 + 1] = keyValues.get(i);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = ProviderMetrics.start();
+        final int match = match(uri);
+        StoreDatabase store = getStore(uri);
+        Uri newUri = null;
+        boolean failed = true;
+        store.getLock().readLock().lock();
+        try {
+            newUri = insert(store, match, unscope(uri), contentValues);
+            failed = false;
+            return newUri != null ? store.scope(newUri) : null;
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.INSERT, match, startNanos,
+                    failed ? -1 : newUri != null ? 1 : 0);
+        }
+    }
+
+    private Uri insert(StoreDatabase store, int match, Uri uri, ContentValues contentValues) {
+        switch (match) {
+            case PRODUCTS:
+                return insertItem(store, uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(store, uri, contentValues);
+            case MOVEMENTS:
+                return insertMovement(store, uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a product into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertItem(StoreDatabase store, Uri uri, ContentValues values) {
+
+        // Check that all required fields are given
+        validateItem(values);
+
+        // Get writeable database
+        SQLiteDatabase database = store.getWritableDatabase();
+
+        // Insert the new product with the given values, along with its supplier if it is new
+        values = new ContentValues(values);
+        long id;
+        boolean supplierCreated;
+        database.beginTransaction();
+        try {
+            supplierCreated = resolveSupplier(database, values, null);
+            if (values.size() == BULK_INSERT_COLUMNS.length) {
+                // The common case: exactly the product columns, use the compiled statement
+                id = insertProduct(store.getStatement(database, SQL_BULK_INSERT), values);
+            } else {
+                id = database.insert(ProductEntry.TABLE_NAME, null, values);
+            }
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        if (skipsNotification(store, uri)) {
+            return ContentUris.withAppendedId(uri, id);
+        }
+        if (supplierCreated) {
+            notifyChange(store, SupplierEntry.CONTENT_URI);
+        }
+        notifyChange(store, ProductEntry.buildChangeUri(id, ProductEntry.OPERATION_INSERT));
+        // The ledger of the product starts with its initial stock
+        notifyChange(store, StockMovementEntry.CONTENT_URI);
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a product with the compiled statement of {@link #SQL_BULK_INSERT}. The values must
+     * hold exactly the {@link #BULK_INSERT_COLUMNS}, already validated. Return the ID of the new
+     * row, or -1 if it could not be inserted.
+     */
+    private static long insertProduct(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        statement.bindLong(2, longValue(values, ProductEntry.COLUMN_PRODUCT_PRICE));
+        statement.bindLong(3, longValue(values, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        statement.bindLong(4, longValue(values, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID));
+        try {
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            // Same outcome as SQLiteDatabase.insert()
+            Log.e(LOG_TAG, "Failed to insert product", e);
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Check that a product about to be inserted has all of its required fields, and that they
+     * hold valid values. Throws an {@link IllegalArgumentException} otherwise.
+     */
+    private static void validateItem(ContentValues values) {
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Product requires a name.");
+        }
+
+        validatePrice(values);
+
+        long quantity = longValue(values, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        if (quantity == NO_VALUE) {
+            throw new IllegalArgumentException("Product requires a quantity.");
+        }
+        if (quantity < 0 || quantity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Product requires a valid quantity.");
+        }
+
+        validateReorderThreshold(values);
+
+        // The supplier is given either by its ID, or by its name and phone number
+        if (longValue(values, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID) == NO_VALUE) {
+            validateSupplier(values);
+        }
+    }
+
+    /**
+     * Return the value of the column as a long, or {@link #NO_VALUE} if it is missing or not a
+     * whole number. The validation of every row of an import reads its numbers here: a number
+     * is read as it is, where the getAs methods of ContentValues box a new one whenever its type
+     * differs, such as an Integer read as a Long.
+     */
+    private static long longValue(ContentValues values, String column) {
+        Object value = values.get(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        // Text, as parsed by the getAs methods
+        Long parsed = values.getAsLong(column);
+        return parsed != null ? parsed : NO_VALUE;
+    }
+
+    /**
+     * Check that the reorder threshold, if given, is a valid quantity. Throws an
+     * {@link IllegalArgumentException} otherwise.
+     */
+    private static void validateReorderThreshold(ContentValues values) {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+            return;
+        }
+        long threshold = longValue(values, ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+        if (threshold == NO_VALUE || threshold < 0 || threshold > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Product requires a valid reorder threshold.");
+        }
+    }
+
+    /**
+     * Check that the supplier name and phone number are both given. Throws an
+     * {@link IllegalArgumentException} otherwise.
+     */
+    private static void validateSupplier(ContentValues values) {
+        String supplierName = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Product requires a supplier name.");
+        }
+
+        String supplierPhoneNumber = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if (supplierPhoneNumber == null) {
+            throw new IllegalArgumentException("Product requires a supplier phone number.");
+        }
+    }
+
+    /**
+     * If the product values hold a supplier name and phone number, replace them with the ID of
+     * the matching supplier, creating the supplier if it doesn't exist yet. Must be called inside
+     * a transaction.
+     *
+     * @param supplierIds Cache of the supplier IDs already resolved by the current transaction,
+     *                    keyed by name and phone number. May be null.
+     * @return true if a new supplier was created
+     */
+    static boolean resolveSupplier(SQLiteDatabase database, ContentValues values,
+                                   Map<String, Long> supplierIds) {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME) &&
+                !values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
+            return false;
+        }
+        validateSupplier(values);
+        String supplierName = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        String supplierPhoneNumber = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+
+        String key = supplierName + '\n' + supplierPhoneNumber;
+        Long supplierId = supplierIds != null ? supplierIds.get(key) : null;
+        boolean created = false;
+        if (supplierId == null) {
+            Cursor cursor = database.query(SupplierEntry.TABLE_NAME,
+                    new String[]{SupplierEntry._ID},
+                    SupplierEntry.COLUMN_SUPPLIER_NAME + "=? AND " +
+                            SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + "=?",
+                    new String[]{supplierName, supplierPhoneNumber},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    supplierId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (supplierId == null) {
+            ContentValues supplier = new ContentValues();
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, supplierName);
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber);
+            supplierId = database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+            created = true;
+        }
+        if (supplierIds != null) {
+            supplierIds.put(key, supplierId);
+        }
+
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID, supplierId);
+        return created;
+    }
+
+    /**
+     * Insert a supplier into the database. Return the new content URI for that supplier.
+     */
+    private Uri insertSupplier(StoreDatabase store, Uri uri, ContentValues values) {
+        validateSupplier(values);
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyChange(store, uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Append a sale, restock or adjustment to the ledger, which applies it to the stock of the
+     * product. Return the URI of the new movement, or null if the product doesn't exist or the
+     * movement would take its stock below zero.
+     */
+    private Uri insertMovement(StoreDatabase store, Uri uri, ContentValues values) {
+        Long productId = values.getAsLong(StockMovementEntry.COLUMN_PRODUCT_ID);
+        if (productId == null) {
+            throw new IllegalArgumentException("Movement requires a product ID.");
+        }
+        Integer type = values.getAsInteger(StockMovementEntry.COLUMN_TYPE);
+        if (type == null || (type != StockMovementEntry.TYPE_SALE &&
+                type != StockMovementEntry.TYPE_RESTOCK && type != StockMovementEntry.TYPE_ADJUSTMENT)) {
+            throw new IllegalArgumentException("Movement requires a valid type.");
+        }
+        Long change = values.getAsLong(StockMovementEntry.COLUMN_QUANTITY_CHANGE);
+        if (change == null || change == 0 ||
+                (type == StockMovementEntry.TYPE_SALE && change > 0) ||
+                (type == StockMovementEntry.TYPE_RESTOCK && change < 0)) {
+            throw new IllegalArgumentException("Movement requires a valid quantity change.");
+        }
+        if (values.containsKey(StockMovementEntry.COLUMN_TIMESTAMP)) {
+            throw new IllegalArgumentException("The time of a movement is set by the provider.");
+        }
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        long id;
+        database.beginTransaction();
+        try {
+            id = appendMovement(store, database, productId, type, change);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyChange(store, ProductEntry.buildChangeUri(productId, ProductEntry.OPERATION_UPDATE));
+        notifyChange(store, StockMovementEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Append a movement to the ledger with the compiled statement of {@link #SQL_APPEND_MOVEMENT}.
+     * Must be called inside a transaction. Return the ID of the movement, or -1 if the product
+     * doesn't exist or its stock would go below zero.
+     */
+    private long appendMovement(StoreDatabase store, SQLiteDatabase database, long productId, int type,
+                                long change) {
+        SQLiteStatement append = store.getStatement(database, SQL_APPEND_MOVEMENT);
+        append.bindLong(1, type);
+        append.bindLong(2, change);
+        append.bindLong(3, System.currentTimeMillis());
+        append.bindLong(4, productId);
+        append.bindLong(5, change);
+        try {
+            return append.executeInsert();
+        } finally {
+            append.clearBindings();
+        }
     }
 
-    private ItemDbHelper dbHelper;
+    /**
+     * Read the stock of a single product with the compiled statement of
+     * {@link #SQL_SELECT_QUANTITY}. Return -1 if the product doesn't exist.
+     */
+    private long selectQuantity(StoreDatabase store, SQLiteDatabase database, long productId) {
+        SQLiteStatement selectQuantity = store.getStatement(database, SQL_SELECT_QUANTITY);
+        selectQuantity.bindLong(1, productId);
+        try {
+            return selectQuantity.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            selectQuantity.clearBindings();
+        }
+    }
 
     /**
-     * Initialize the provider and the database helper object.
+     * Check that the price is a valid amount of cents. Fractional numbers are refused rather than
+     * rounded, they come from a client still working with decimal prices.
      */
-    @Override
-    public boolean onCreate() {
-        // Make sure the variable is a global variable, so it can be referenced from other
-        // ContentProvider methods.
-        dbHelper = new ItemDbHelper(getContext());
-        return true;
+    private static void validatePrice(ContentValues values) {
+        Object value = values.get(ProductEntry.COLUMN_PRODUCT_PRICE);
+        if (value instanceof Float || value instanceof Double) {
+            throw new IllegalArgumentException("Product price must be given in cents.");
+        }
+        long price = longValue(values, ProductEntry.COLUMN_PRODUCT_PRICE);
+        if (price == NO_VALUE) {
+            throw new IllegalArgumentException("Product requires a price.");
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Product requires a valid price.");
+        }
     }
 
     /**
-     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     * Insert several products at once. All rows are written in a single transaction through one
+     * compiled INSERT statement, and listeners are notified once when the whole batch is stored.
+     * If any row is invalid, nothing is inserted.
      */
     @Override
-    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
-                        String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = dbHelper.getReadableDatabase();
-
-        // This cursor will hold the result of the query
-        Cursor cursor;
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        long startNanos = ProviderMetrics.start();
+        final int match = match(uri);
+        StoreDatabase store = getStore(uri);
+        int rowsInserted = -1;
+        store.getLock().readLock().lock();
+        try {
+            rowsInserted = bulkInsert(store, match, unscope(uri), valuesArray);
+            return rowsInserted;
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.BULK_INSERT, match, startNanos, rowsInserted);
+        }
+    }
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                // For the PRODUCTS code, query the products table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the products table.
+    private int bulkInsert(StoreDatabase store, int match, Uri uri, ContentValues[] valuesArray) {
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
 
-                // Perform database query on products table
-                cursor = database.query(
-                        ProductEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            case PRODUCT_ID:
-                // For the PRODUCT_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.android.inventoryapp/products/x",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of x in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+        SQLiteDatabase database = store.getWritableDatabase();
+        Map<String, Long> supplierIds = new HashMap<>();
+        boolean suppliersCreated = false;
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues values : valuesArray) {
+                validateItem(values);
+                values = new ContentValues(values);
+                suppliersCreated |= resolveSupplier(database, values, supplierIds);
 
-                // This will perform a query on the products table where the _id equals x to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(
-                        ProductEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+                long id;
+                if (values.size() == BULK_INSERT_COLUMNS.length) {
+                    // The common case: exactly the product columns, bind them to the compiled statement
+                    id = insertProduct(store.getStatement(database, SQL_BULK_INSERT), values);
+                } else {
+                    // Extra columns, fall back to the generic insert
+                    id = database.insert(ProductEntry.TABLE_NAME, null, values);
+                }
 
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+                if (id == -1) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                } else {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
 
-        // Set notification URI on the Cursor,
-        // so we know what content URI the Cursor was created for.
-        // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
-    }
-
-    /**
-     * Insert new data into the provider with the given ContentValues.
-     */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return insertItem(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        if (rowsInserted != 0 && skipsNotification(store, uri)) {
+            return rowsInserted;
+        }
+        if (suppliersCreated) {
+            notifyChange(store, SupplierEntry.CONTENT_URI);
         }
+        if (rowsInserted != 0) {
+            notifyChange(store, uri);
+            notifyChange(store, StockMovementEntry.CONTENT_URI);
+        }
+        return rowsInserted;
     }
 
     /**
-     * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Apply a batch of operations inside a single transaction. Change notifications raised by the
+     * individual operations are collected and sent once, after the transaction has been committed.
+     * All the operations must write to the same store.
      */
-    private Uri insertItem(Uri uri, ContentValues values) {
-
-        // Check that all required fields are given
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Product requires a name.");
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startNanos = ProviderMetrics.start();
+        StoreDatabase store = getStore(StoreEntry.DEFAULT_STORE_ID);
+        for (int i = 0; i < operations.size(); i++) {
+            StoreDatabase operationStore = getStore(operations.get(i).getUri());
+            if (i == 0) {
+                store = operationStore;
+            } else if (operationStore != store) {
+                throw new IllegalArgumentException("A batch can only write to a single store.");
+            }
         }
-
-        Float price = values.getAsFloat(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price == null) {
-            throw new IllegalArgumentException("Product requires a price.");
+        store.getLock().readLock().lock();
+        SQLiteDatabase database;
+        try {
+            database = store.getWritableDatabase();
+        } catch (RuntimeException e) {
+            store.getLock().readLock().unlock();
+            throw e;
         }
-        if (price < 0) {
-            throw new IllegalArgumentException("Product requires a valid price.");
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        mPendingNotifications.set(pendingNotifications);
+        ContentProviderResult[] results = null;
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            store.getLock().readLock().unlock();
+            mPendingNotifications.remove();
+            mMetrics.record(ProviderMetrics.APPLY_BATCH, UriMatcher.NO_MATCH, startNanos,
+                    results != null ? results.length : -1);
         }
 
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        if (quantity == null) {
-            throw new IllegalArgumentException("Product requires a quantity.");
+        if (!pendingNotifications.isEmpty()) {
+            mQueryCache.invalidate(store.getStoreId());
         }
-        if (quantity < 0) {
-            throw new IllegalArgumentException("Product requires a valid quantity.");
+        for (Uri uri : pendingNotifications) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            mMetrics.recordNotification();
         }
+        return results;
+    }
 
-        String supplierName = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Product requires a supplier name.");
+    /**
+     * Return the ORDER BY terms of the sort of the product list, the columns of
+     * {@link ProductEntry#getSortColumns(String)}. They match an index of the schema term for
+     * term, collation included, so SQLite walks the index instead of sorting: the names use the
+     * LOCALIZED collation of their indexes. Ordering by the supplier ID of the suppliers table
+     * and then by product ID is the order of products_supplier_id_idx within a supplier.
+     *
+     * @throws IllegalArgumentException if the sort is not one of the SORT_ values
+     */
+    private static String[] getSortTerms(String sort) {
+        String[] terms = ProductEntry.getSortColumns(sort);
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i].equals(ProductEntry.COLUMN_PRODUCT_NAME) ||
+                    terms[i].equals(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
+                terms[i] += COLLATE_LOCALIZED;
+            }
         }
+        return terms;
+    }
 
-        String supplierPhoneNumber = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
-        if (supplierPhoneNumber == null) {
-            throw new IllegalArgumentException("Product requires a supplier phone number.");
+    /**
+     * Notify all listeners that the data at the given URI of the store has changed, and drop the
+     * cached query results. Must be called once the change is committed. While a batch is
+     * running on this thread, both are deferred until the batch has been committed.
+     */
+    private void notifyChange(StoreDatabase store, Uri uri) {
+        uri = store.scope(uri);
+        Set<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
+            mQueryCache.invalidate(store.getStoreId());
+            getContext().getContentResolver().notifyChange(uri, null);
+            mMetrics.recordNotification();
         }
+    }
 
-
-        // Get writeable database
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Whether a write to the products of {@link ProductEntry#CONTENT_URI} asked to skip its change
+     * notifications with {@link ProductEntry#QUERY_PARAMETER_NOTIFY}. If so, the cached query
+     * results are dropped here, they are stale already. A batch notifies once at its end anyway,
+     * so the parameter is ignored inside one.
+     */
+    private boolean skipsNotification(StoreDatabase store, Uri uri) {
+        if (mPendingNotifications.get() != null ||
+                !"false".equals(uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_NOTIFY))) {
+            return false;
         }
+        mQueryCache.invalidate(store.getStoreId());
+        return true;
+    }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Called by {@link SyncEngine} after each batch of changes of the backend it merged into the
+     * store and committed: drops the cached queries and notifies the listeners of the products,
+     * suppliers and ledger of the store, so they don't wait for the end of the sync.
+     */
+    void onSyncBatchApplied(StoreDatabase store) {
+        notifyChange(store, ProductEntry.CONTENT_URI);
+        notifyChange(store, SupplierEntry.CONTENT_URI);
+        notifyChange(store, StockMovementEntry.CONTENT_URI);
     }
 
     /**
@@ -200,17 +1532,45 @@ public class ItemProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        final int match = match(uri);
+        StoreDatabase store = getStore(uri);
+        int rowsUpdated = -1;
+        store.getLock().readLock().lock();
+        try {
+            rowsUpdated = update(store, match, unscope(uri), contentValues, selection, selectionArgs);
+            return rowsUpdated;
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.UPDATE, match, startNanos, rowsUpdated);
+        }
+    }
+
+    private int update(StoreDatabase store, int match, Uri uri, ContentValues contentValues,
+                       String selection, String[] selectionArgs) {
         switch (match) {
             case PRODUCTS:
-                return updateItem(uri, contentValues, selection, selectionArgs);
+                return updateItem(store, uri, contentValues, selection, selectionArgs);
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = ProductEntry._ID + "=?";
+                long id = ContentUris.parseId(uri);
+                if (contentValues.size() == 1 &&
+                        contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+                    // Only the stock changes, use the compiled statement
+                    return updateQuantity(store, id, contentValues.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+                }
+                selection = SELECTION_ID;
+                selectionArgs = new String[]{String.valueOf(id)};
+                return updateItem(store, ProductEntry.buildChangeUri(id, ProductEntry.OPERATION_UPDATE),
+                        contentValues, selection, selectionArgs);
+            case SUPPLIERS:
+                return updateSupplier(store, uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SELECTION_ID;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateItem(uri, contentValues, selection, selectionArgs);
+                return updateSupplier(store, uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -220,8 +1580,11 @@ public class ItemProvider extends ContentProvider {
      * Update products in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more products).
      * Return the number of rows that were successfully updated.
+     *
+     * @param uri URI notified if products were updated
      */
-    private int updateItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateItem(StoreDatabase store, Uri uri, ContentValues values, String selection,
+                           String[] selectionArgs) {
 
         // check that values included in ContentValues are all valid fields
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
@@ -232,13 +1595,7 @@ public class ItemProvider extends ContentProvider {
         }
 
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Float price = values.getAsFloat(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price == null) {
-                throw new IllegalArgumentException("Product requires a price.");
-            }
-            if (price < 0) {
-                throw new IllegalArgumentException("Product requires a valid price.");
-            }
+            validatePrice(values);
         }
 
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
@@ -251,18 +1608,12 @@ public class ItemProvider extends ContentProvider {
             }
         }
 
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Product requires a supplier name.");
-            }
-        }
+        validateReorderThreshold(values);
 
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
-            String supplierPhoneNumber = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
-            if (supplierPhoneNumber == null) {
-                throw new IllegalArgumentException("Product requires a supplier phone number.");
-            }
+        // A new supplier name or phone number moves the product to the matching supplier
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME) ||
+                values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
+            validateSupplier(values);
         }
 
 
@@ -272,15 +1623,139 @@ public class ItemProvider extends ContentProvider {
         }
 
         // Get writeable database
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteDatabase database = store.getWritableDatabase();
 
         // Returns the number of database rows affected by the update statement
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        values = new ContentValues(values);
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        int rowsUpdated;
+        boolean supplierCreated;
+        boolean ledgerChanged = false;
+        database.beginTransaction();
+        try {
+            supplierCreated = resolveSupplier(database, values, null);
+            if (quantity == null) {
+                rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+            } else {
+                // The stock only changes through the ledger, with an adjustment per product.
+                // Read the selected products first, so the selection sees them as they were
+                // before the update, as it would for a single UPDATE statement.
+                long[] ids;
+                long[] quantities;
+                Cursor cursor = database.query(ProductEntry.TABLE_NAME, new String[]{
+                                ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_QUANTITY},
+                        selection, selectionArgs, null, null, null);
+                try {
+                    ids = new long[cursor.getCount()];
+                    quantities = new long[ids.length];
+                    for (int i = 0; cursor.moveToNext(); i++) {
+                        ids[i] = cursor.getLong(0);
+                        quantities[i] = cursor.getLong(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                for (int i = 0; i < ids.length; i++) {
+                    if (values.size() != 0) {
+                        database.update(ProductEntry.TABLE_NAME, values, SELECTION_ID,
+                                new String[]{String.valueOf(ids[i])});
+                    }
+                    if (quantity != quantities[i]) {
+                        appendMovement(store, database, ids[i], StockMovementEntry.TYPE_ADJUSTMENT,
+                                quantity - quantities[i]);
+                        ledgerChanged = true;
+                    }
+                }
+                rowsUpdated = ids.length;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
+        if (rowsUpdated != 0 && skipsNotification(store, uri)) {
+            return rowsUpdated;
+        }
+        if (supplierCreated) {
+            notifyChange(store, SupplierEntry.CONTENT_URI);
+        }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(store, uri);
+        }
+        if (ledgerChanged) {
+            notifyChange(store, StockMovementEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Set the stock of a single product, by appending an adjustment of the difference to the
+     * ledger. Return the number of rows updated, 0 if the product doesn't exist.
+     */
+    private int updateQuantity(StoreDatabase store, long id, Integer quantity) {
+        if (quantity == null) {
+            throw new IllegalArgumentException("Product requires a quantity.");
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Product requires a valid quantity.");
+        }
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        int rowsUpdated = 0;
+        boolean ledgerChanged = false;
+        database.beginTransaction();
+        try {
+            long currentQuantity = selectQuantity(store, database, id);
+            if (currentQuantity != -1) {
+                rowsUpdated = 1;
+                if (currentQuantity != quantity) {
+                    appendMovement(store, database, id, StockMovementEntry.TYPE_ADJUSTMENT,
+                            quantity - currentQuantity);
+                    ledgerChanged = true;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyChange(store, ProductEntry.buildChangeUri(id, ProductEntry.OPERATION_UPDATE));
+        }
+        if (ledgerChanged) {
+            notifyChange(store, StockMovementEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update suppliers in the database with the given content values. The products of the
+     * updated suppliers change as well, so their listeners are notified too.
+     * Return the number of suppliers that were successfully updated.
+     */
+    private int updateSupplier(StoreDatabase store, Uri uri, ContentValues values, String selection,
+                               String[] selectionArgs) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME) &&
+                values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name.");
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) &&
+                values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number.");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(store, uri);
+            notifyChange(store, ProductEntry.CONTENT_URI);
         }
         return rowsUpdated;
     }
@@ -290,46 +1765,444 @@ public class ItemProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = ProviderMetrics.start();
+        final int match = match(uri);
+        StoreDatabase store = getStore(uri);
+        int rowsDeleted = -1;
+        store.getLock().readLock().lock();
+        try {
+            rowsDeleted = delete(store, match, unscope(uri), selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.DELETE, match, startNanos, rowsDeleted);
+        }
+    }
+
+    private int delete(StoreDatabase store, int match, Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteDatabase database = store.getWritableDatabase();
 
-        final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         switch (match) {
             case PRODUCTS:
+                // The URI may ask for a single chunk: at most "limit" of the matching rows
+                String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    if (limit.isEmpty() || !TextUtils.isDigitsOnly(limit)) {
+                        throw new IllegalArgumentException("Invalid limit " + limit + " for " + uri);
+                    }
+                    selection = ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " +
+                            ProductEntry.TABLE_NAME +
+                            (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) +
+                            " ORDER BY " + ProductEntry._ID + " LIMIT " + limit + ")";
+                }
                 // Delete all rows that match the selection and selection args
                 rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0 && skipsNotification(store, uri)) {
+                    return rowsDeleted;
+                }
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
+                long id = ContentUris.parseId(uri);
+                SQLiteStatement delete = store.getStatement(database, SQL_DELETE_PRODUCT);
+                delete.bindLong(1, id);
+                try {
+                    rowsDeleted = delete.executeUpdateDelete();
+                } finally {
+                    delete.clearBindings();
+                }
+                uri = ProductEntry.buildChangeUri(id, ProductEntry.OPERATION_DELETE);
+                break;
+            case SUPPLIERS:
+                // Suppliers that still have products can't be deleted, the foreign key
+                // constraint of the products table makes the deletion fail.
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                selection = SELECTION_ID;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
                 break;
 
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
         // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // given URI has changed. The ledgers of deleted products are gone too.
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-
+            notifyChange(store, uri);
+            if (match == PRODUCTS || match == PRODUCT_ID) {
+                notifyChange(store, StockMovementEntry.CONTENT_URI);
+            }
         }
         return rowsDeleted;
     }
 
+    /**
+     * Call a provider-defined method, on the store given in the extras.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        StoreDatabase store = getStore(extras);
+        switch (method) {
+            case ProductEntry.METHOD_SELL:
+                if (arg == null) {
+                    throw new IllegalArgumentException("Selling requires a product ID.");
+                }
+                int quantity = extras != null ? extras.getInt(ProductEntry.EXTRA_QUANTITY, 1) : 1;
+                long startNanos = ProviderMetrics.start();
+                Bundle result = null;
+                boolean failed = true;
+                store.getLock().readLock().lock();
+                try {
+                    result = sellItem(store, Long.parseLong(arg), quantity);
+                    failed = false;
+                    return result;
+                } finally {
+                    store.getLock().readLock().unlock();
+                    mMetrics.record(ProviderMetrics.CALL, METHOD_SELL, startNanos,
+                            failed ? -1 : result != null ? 1 : 0);
+                }
+            case Snapshots.METHOD_SNAPSHOT:
+                return snapshot(store, snapshotFile(arg));
+            case Snapshots.METHOD_RESTORE:
+                return restore(store, snapshotFile(arg));
+            case StockMovementEntry.METHOD_COMPACT:
+                if (extras == null || !extras.containsKey(StockMovementEntry.EXTRA_BEFORE_MILLIS)) {
+                    throw new IllegalArgumentException("Compacting requires a time.");
+                }
+                return compactLedger(store, extras.getLong(StockMovementEntry.EXTRA_BEFORE_MILLIS));
+            case Metrics.METHOD:
+                boolean reset = extras != null && extras.getBoolean(Metrics.EXTRA_RESET);
+                Bundle metrics = mMetrics.toBundle(reset);
+                metrics.putLong(Metrics.EXTRA_CACHE_HITS, mQueryCache.hitCount());
+                metrics.putLong(Metrics.EXTRA_CACHE_MISSES, mQueryCache.missCount());
+                metrics.putInt(Metrics.EXTRA_CACHE_ENTRIES, mQueryCache.entryCount());
+                if (reset) {
+                    mQueryCache.resetStats();
+                }
+                return metrics;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    private static File snapshotFile(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Snapshots require a file path.");
+        }
+        return new File(path);
+    }
+
+    /**
+     * Write a snapshot of the store database to the file. Other operations go on meanwhile, except
+     * for the writes on older Android versions, see {@link ItemDbHelper#snapshot(File)}.
+     * Return a bundle with the timings, or null if the snapshot could not be written.
+     */
+    private Bundle snapshot(StoreDatabase store, File file) {
+        long startNanos = ProviderMetrics.start();
+        long startMillis = SystemClock.elapsedRealtime();
+        Bundle result = null;
+        store.getLock().readLock().lock();
+        try {
+            long blockedMillis = store.getDbHelper().snapshot(file);
+            result = new Bundle();
+            result.putLong(Snapshots.EXTRA_DURATION_MILLIS, SystemClock.elapsedRealtime() - startMillis);
+            result.putLong(Snapshots.EXTRA_BLOCKED_MILLIS, blockedMillis);
+            Log.i(LOG_TAG, "Snapshot written in " + result.getLong(Snapshots.EXTRA_DURATION_MILLIS) +
+                    " ms, writes blocked for " + blockedMillis + " ms");
+            return result;
+        } catch (IOException | SQLException e) {
+            Log.e(LOG_TAG, "Failed to write the snapshot " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.CALL, METHOD_SNAPSHOT, startNanos, result != null ? 1 : -1);
+        }
+    }
+
+    /**
+     * Replace the store database with the snapshot in the file. Every other operation on the
+     * store waits until the database is replaced, and the cached statements and results of the
+     * old one are dropped. The other stores go on.
+     * <p>
+     * The cursors of the store queried before are invalid once the old database is closed: they
+     * fail as soon as they need to read it again, such as to move past their window. The URIs of
+     * the store are notified before it is closed, so their owners drop them and query again,
+     * and once more after it is replaced.
+     * Return a bundle with the timing, or null if the snapshot is not valid.
+     */
+    private Bundle restore(StoreDatabase store, File file) {
+        long startNanos = ProviderMetrics.start();
+        long startMillis = SystemClock.elapsedRealtime();
+        Bundle result = null;
+        store.getLock().writeLock().lock();
+        try {
+            // The new queries of the listeners wait for the lock, and read the restored database
+            notifyChange(store, ProductEntry.CONTENT_URI);
+            notifyChange(store, SupplierEntry.CONTENT_URI);
+            notifyChange(store, StockMovementEntry.CONTENT_URI);
+            // The statements were compiled against the database being closed
+            store.clearStatements();
+            store.getDbHelper().restore(file);
+            result = new Bundle();
+        } catch (IOException | SQLException e) {
+            Log.e(LOG_TAG, "Failed to restore the snapshot " + file, e);
+        } finally {
+            mQueryCache.invalidate(store.getStoreId());
+            store.getLock().writeLock().unlock();
+            mMetrics.record(ProviderMetrics.CALL, METHOD_RESTORE, startNanos, result != null ? 1 : -1);
+        }
+        if (result == null) {
+            return null;
+        }
+
+        // Every row may have changed, the queries made meanwhile by other threads included
+        notifyChange(store, ProductEntry.CONTENT_URI);
+        notifyChange(store, SupplierEntry.CONTENT_URI);
+        notifyChange(store, StockMovementEntry.CONTENT_URI);
+        result.putLong(Snapshots.EXTRA_DURATION_MILLIS, SystemClock.elapsedRealtime() - startMillis);
+        return result;
+    }
+
+    /**
+     * Sell the given number of units of a product in a single conditional append to the ledger,
+     * so concurrent sales of the same product can never push its stock below zero or lose a
+     * decrement. Return a bundle with the new stock, or null if there were not enough units to sell.
+     */
+    private Bundle sellItem(StoreDatabase store, long id, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Product requires a valid quantity.");
+        }
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        long newQuantity;
+        database.beginTransaction();
+        try {
+            if (appendMovement(store, database, id, StockMovementEntry.TYPE_SALE, -quantity) == -1) {
+                // Either the product doesn't exist or there is not enough stock
+                return null;
+            }
+            newQuantity = selectQuantity(store, database, id);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(store, ProductEntry.buildChangeUri(id, ProductEntry.OPERATION_UPDATE));
+        notifyChange(store, StockMovementEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.EXTRA_NEW_QUANTITY, (int) newQuantity);
+        return result;
+    }
+
+    /**
+     * Fold the movements of the ledger older than {@code beforeMillis} into a snapshot per
+     * product: the first row of a product, the snapshot written when it was created, takes the
+     * stock and the time of its last old movement, and the old movements after it are deleted.
+     * The stock at that time is the current stock minus the movements since, which holds
+     * whatever snapshots the ledger already has. The products are compacted
+     * {@link #COMPACT_CHUNK_SIZE} at a time, each chunk in its own transaction.
+     * <p>
+     * The snapshot keeps the row ID of the creation of the product, so a range of the ledger
+     * holds a snapshot only if the product was created in it: the low stock query of a range
+     * doesn't take the compacted products for new ones. Return a bundle with the number of
+     * deleted rows.
+     */
+    private Bundle compactLedger(StoreDatabase store, long beforeMillis) {
+        long startNanos = ProviderMetrics.start();
+        int rowsDeleted = -1;
+        store.getLock().readLock().lock();
+        try {
+            SQLiteDatabase database = store.getWritableDatabase();
+
+            // The first and last old rows of every product with more than one old row, read
+            // from the product index of the ledger
+            long[] productIds;
+            long[] firstIds;
+            long[] lastIds;
+            Cursor cursor = database.rawQuery("SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID +
+                    ", MIN(" + StockMovementEntry._ID + "), MAX(" + StockMovementEntry._ID +
+                    ") FROM " + StockMovementEntry.TABLE_NAME +
+                    " WHERE " + StockMovementEntry.COLUMN_TIMESTAMP + " < ? GROUP BY " +
+                    StockMovementEntry.COLUMN_PRODUCT_ID + " HAVING COUNT(*) > 1",
+                    new String[]{String.valueOf(beforeMillis)});
+            try {
+                productIds = new long[cursor.getCount()];
+                firstIds = new long[productIds.length];
+                lastIds = new long[productIds.length];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    productIds[i] = cursor.getLong(0);
+                    firstIds[i] = cursor.getLong(1);
+                    lastIds[i] = cursor.getLong(2);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsDeleted = 0;
+            for (int start = 0; start < productIds.length; start += COMPACT_CHUNK_SIZE) {
+                int end = Math.min(start + COMPACT_CHUNK_SIZE, productIds.length);
+                database.beginTransaction();
+                try {
+                    for (int i = start; i < end; i++) {
+                        rowsDeleted += compactProductLedger(store, database, productIds[i],
+                                firstIds[i], lastIds[i]);
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            Log.i(LOG_TAG, "Compacted the ledger of " + productIds.length + " products, " +
+                    rowsDeleted + " rows deleted");
+        } finally {
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.CALL, METHOD_COMPACT_LEDGER, startNanos, rowsDeleted);
+        }
+
+        if (rowsDeleted != 0) {
+            notifyChange(store, StockMovementEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(StockMovementEntry.EXTRA_ROWS_DELETED, rowsDeleted);
+        return result;
+    }
+
+    /**
+     * Turn the row {@code firstId} of the product into a snapshot of the stock at the time of
+     * the movement {@code lastId}, and delete the rows after the first one up to the last one.
+     * Must be called inside a transaction. Return the number of deleted rows.
+     */
+    private int compactProductLedger(StoreDatabase store, SQLiteDatabase database, long productId,
+                                     long firstId, long lastId) {
+        long quantity = selectQuantity(store, database, productId);
+        if (quantity == -1) {
+            // Deleted meanwhile, along with its ledger
+            return 0;
+        }
+        String[] args = {String.valueOf(productId), String.valueOf(lastId)};
+        long changesSince = DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM(" +
+                StockMovementEntry.COLUMN_QUANTITY_CHANGE + "), 0) FROM " + StockMovementEntry.TABLE_NAME +
+                " WHERE " + StockMovementEntry.COLUMN_PRODUCT_ID + " = ? AND " +
+                StockMovementEntry._ID + " > ? AND " + StockMovementEntry.COLUMN_TYPE + " <> " +
+                StockMovementEntry.TYPE_SNAPSHOT, args);
+        long lastMillis = DatabaseUtils.longForQuery(database, "SELECT " +
+                StockMovementEntry.COLUMN_TIMESTAMP + " FROM " + StockMovementEntry.TABLE_NAME +
+                " WHERE " + SELECTION_ID, new String[]{String.valueOf(lastId)});
+
+        // Updating a row doesn't run the trigger that applies the movements to the stock
+        ContentValues snapshot = new ContentValues();
+        snapshot.put(StockMovementEntry.COLUMN_TYPE, StockMovementEntry.TYPE_SNAPSHOT);
+        snapshot.put(StockMovementEntry.COLUMN_QUANTITY_CHANGE, quantity - changesSince);
+        snapshot.put(StockMovementEntry.COLUMN_TIMESTAMP, lastMillis);
+        database.update(StockMovementEntry.TABLE_NAME, snapshot, SELECTION_ID,
+                new String[]{String.valueOf(firstId)});
+        return database.delete(StockMovementEntry.TABLE_NAME,
+                StockMovementEntry.COLUMN_PRODUCT_ID + " = ? AND " + StockMovementEntry._ID +
+                        " > ? AND " + StockMovementEntry._ID + " <= ?",
+                new String[]{String.valueOf(productId), String.valueOf(firstId),
+                        String.valueOf(lastId)});
+    }
+
+    /**
+     * Open the CSV export of the products. The rows are written to a pipe by a background
+     * thread while the caller reads the other end, walking the cursor window by window, so the
+     * memory used doesn't depend on the size of the catalog.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (match(uri) != PRODUCT_EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export can only be read: " + uri);
+        }
+        final StoreDatabase store = getStore(uri);
+        return openPipeHelper(uri, ProductCsv.MIME_TYPE, null, null, new PipeDataWriter<Void>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                        Bundle opts, Void args) {
+                exportProducts(store, output);
+            }
+        });
+    }
+
+    /**
+     * Write every product of the store as CSV to the file descriptor. The descriptor belongs to
+     * {@link #openPipeHelper}, which closes it once this returns.
+     */
+    private void exportProducts(StoreDatabase store, ParcelFileDescriptor output) {
+        long startNanos = ProviderMetrics.start();
+        long rows = -1;
+        // Flushed but never closed, closing it would close the descriptor a second time
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), StandardCharsets.UTF_8));
+        // The cursor reads the database window by window until the end of the export
+        store.getLock().readLock().lock();
+        Cursor cursor = null;
+        try {
+            cursor = store.getReadableDatabase().query(ProductEntry.VIEW_NAME,
+                    ProductCsv.COLUMNS, null, null, null, null, ProductEntry._ID);
+            ProductCsv.writeHeader(writer);
+            StringBuilder builder = new StringBuilder();
+            while (cursor.moveToNext()) {
+                ProductCsv.writeRecord(writer, cursor, builder);
+            }
+            writer.flush();
+            rows = cursor.getCount();
+        } catch (IOException e) {
+            // The reader closed the pipe before the end
+            Log.w(LOG_TAG, "Export interrupted", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            store.getLock().readLock().unlock();
+            mMetrics.record(ProviderMetrics.QUERY, PRODUCT_EXPORT, startNanos, rows);
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
     @Override
     public String getType(Uri uri) {
-        final int match = sUriMatcher.match(uri);
+        final int match = match(uri);
         switch (match) {
             case PRODUCTS:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SEARCH:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_PRODUCTS:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_LOW_STOCK:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_EXPORT:
+                return ProductCsv.MIME_TYPE;
+            case SUPPLIER_STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case MOVEMENTS:
+            case PRODUCT_MOVEMENTS:
+                return StockMovementEntry.CONTENT_LIST_TYPE;
+            case MOVEMENT_ID:
+                return StockMovementEntry.CONTENT_ITEM_TYPE;
+            case STORES:
+                return StoreEntry.CONTENT_LIST_TYPE;
+            case STORE_STOCK:
+                return StoreEntry.CONTENT_STOCK_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,195 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ItemContract.Money;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * CSV format of the product catalog, used to import and export products. The first record is a
+ * header naming the {@link #COLUMNS}, in any order. Prices are decimal amounts such as "12.50".
+ * The reorder threshold is optional on import, for the files written before it was exported:
+ * without it the products get the default threshold.
+ */
+public final class ProductCsv {
+
+    /**
+     * MIME type of the CSV files.
+     */
+    public static final String MIME_TYPE = "text/csv";
+
+    /**
+     * Columns of the CSV file, named after the product columns. Exported files have them in
+     * this order.
+     */
+    public static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
+
+    // Indices of the columns in COLUMNS
+    private static final int NAME = 0;
+    private static final int PRICE = 1;
+    private static final int QUANTITY = 2;
+    private static final int SUPPLIER_NAME = 3;
+    private static final int SUPPLIER_PHONE_NUMBER = 4;
+    private static final int REORDER_THRESHOLD = 5;
+
+    private ProductCsv() {
+    }
+
+    /**
+     * Find the {@link #COLUMNS} in the header record.
+     *
+     * @return the index of each column in the records, in the order of {@link #COLUMNS}, -1 for
+     * the reorder threshold if missing
+     * @throws IllegalArgumentException if a required column is missing
+     */
+    public static int[] parseHeader(List<String> header) {
+        int[] indices = new int[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            indices[column] = -1;
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).trim().equalsIgnoreCase(COLUMNS[column])) {
+                    indices[column] = i;
+                    break;
+                }
+            }
+            if (indices[column] == -1 && column != REORDER_THRESHOLD) {
+                throw new IllegalArgumentException("Missing column " + COLUMNS[column]);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Turn a record into the values of a new product, checked as {@link ItemProvider} would.
+     *
+     * @param indices Column indices returned by {@link #parseHeader(List)}
+     * @throws IllegalArgumentException if the record is not a valid product
+     */
+    public static ContentValues parseRecord(List<String> record, int[] indices) {
+        String name = field(record, indices[NAME]);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Product requires a name.");
+        }
+
+        long price;
+        try {
+            price = Money.parseCents(field(record, indices[PRICE]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid price " + field(record, indices[PRICE]));
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Product requires a valid price.");
+        }
+
+        int quantity;
+        try {
+            quantity = Integer.parseInt(field(record, indices[QUANTITY]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid quantity " + field(record, indices[QUANTITY]));
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Product requires a valid quantity.");
+        }
+
+        String supplierName = field(record, indices[SUPPLIER_NAME]);
+        if (supplierName.isEmpty()) {
+            throw new IllegalArgumentException("Product requires a supplier name.");
+        }
+        String supplierPhoneNumber = field(record, indices[SUPPLIER_PHONE_NUMBER]);
+        if (supplierPhoneNumber.isEmpty()) {
+            throw new IllegalArgumentException("Product requires a supplier phone number.");
+        }
+
+        ContentValues values = new ContentValues();
+        // An empty threshold is left to the default too
+        String reorderThreshold = indices[REORDER_THRESHOLD] != -1 ?
+                field(record, indices[REORDER_THRESHOLD]) : "";
+        if (!reorderThreshold.isEmpty()) {
+            int threshold;
+            try {
+                threshold = Integer.parseInt(reorderThreshold);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid reorder threshold " + reorderThreshold);
+            }
+            if (threshold < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder threshold.");
+            }
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, threshold);
+        }
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierName);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber);
+        return values;
+    }
+
+    private static String field(List<String> record, int index) {
+        return index < record.size() ? record.get(index).trim() : "";
+    }
+
+    /**
+     * Write the header record.
+     */
+    static void writeHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write the current row of the cursor as a record. The cursor must hold the
+     * {@link #COLUMNS}, in that order.
+     *
+     * @param builder Reused between the rows to format the price
+     */
+    static void writeRecord(Writer writer, Cursor cursor, StringBuilder builder) throws IOException {
+        writeField(writer, cursor.getString(NAME));
+        writer.write(',');
+        builder.setLength(0);
+        Money.appendCents(builder, cursor.getLong(PRICE));
+        writer.append(builder);
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(QUANTITY)));
+        writer.write(',');
+        writeField(writer, cursor.getString(SUPPLIER_NAME));
+        writer.write(',');
+        writeField(writer, cursor.getString(SUPPLIER_PHONE_NUMBER));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(REORDER_THRESHOLD)));
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write a text field, quoted if it holds a comma, a quote or a line break.
+     */
+    private static void writeField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 ||
+                value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the {@link ItemProvider} operations, kept per operation and
+ * URI match. Recording a call only updates a few atomic counters of a preallocated entry, without
+ * a lock, so the binder threads never wait for each other to record and it can stay enabled in
+ * release builds. Only copying the metrics takes a lock, against a concurrent reset.
+ */
+final class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int APPLY_BATCH = 5;
+    static final int CALL = 6;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch", "call"};
+
+    /**
+     * Number of latency buckets: the last one counts the calls of 2 seconds and more.
+     */
+    private static final int BUCKET_COUNT = 23;
+
+    /**
+     * Name of the calls on a target without a name.
+     */
+    private static final String OTHER_TARGET_NAME = "other";
+
+    /**
+     * Names of the targets of the operations, keyed by URI match code. Never changed, so it is
+     * read by the recording threads without a lock.
+     */
+    private final SparseArray<String> mTargetNames;
+
+    /**
+     * Statistics by operation, then by index of the target in {@link #mTargetNames}. The last
+     * entry of each operation counts the calls on the targets without a name.
+     */
+    private final Stat[][] mStats;
+
+    private final AtomicLong mNotifications = new AtomicLong();
+
+    /**
+     * @param targetNames Names of the targets of the operations, keyed by the URI match code
+     *                    passed to {@link #record}
+     */
+    ProviderMetrics(SparseArray<String> targetNames) {
+        mTargetNames = targetNames;
+        mStats = new Stat[OPERATION_NAMES.length][targetNames.size() + 1];
+        for (Stat[] operationStats : mStats) {
+            for (int target = 0; target < operationStats.length; target++) {
+                operationStats[target] = new Stat();
+            }
+        }
+    }
+
+    /**
+     * Return the start time of an operation, to pass to {@link #record}.
+     */
+    static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Record a call of an operation.
+     *
+     * @param operation  One of the operation constants of this class
+     * @param match      URI match code of the target
+     * @param startNanos Value returned by {@link #start()} when the call started
+     * @param rows       Rows returned or changed by the call, or -1 if it threw an exception
+     */
+    void record(int operation, int match, long startNanos, long rows) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        int target = mTargetNames.indexOfKey(match);
+        Stat stat = mStats[operation][target >= 0 ? target : mTargetNames.size()];
+
+        stat.mCalls.incrementAndGet();
+        if (rows < 0) {
+            stat.mErrors.incrementAndGet();
+        } else {
+            stat.mRows.addAndGet(rows);
+        }
+        stat.mTotalMicros.addAndGet(micros);
+        long maxMicros = stat.mMaxMicros.get();
+        while (micros > maxMicros && !stat.mMaxMicros.compareAndSet(maxMicros, micros)) {
+            maxMicros = stat.mMaxMicros.get();
+        }
+        // Bucket i holds the latencies below 2^i microseconds
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        stat.mHistogram.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Record a change notification sent to the content resolver.
+     */
+    void recordNotification() {
+        mNotifications.incrementAndGet();
+    }
+
+    /**
+     * Copy the metrics of the operations called at least once into a bundle, in the format
+     * described by {@link Metrics}. The counters are read one by one while the calls go on, so
+     * a call recorded meanwhile may be counted in some of them only.
+     *
+     * @param reset true to start the counters again from zero
+     */
+    synchronized Bundle toBundle(boolean reset) {
+        Bundle bundle = new Bundle();
+        bundle.putLong(Metrics.EXTRA_NOTIFICATIONS, read(mNotifications, reset));
+
+        ArrayList<String> names = new ArrayList<>();
+        for (int operation = 0; operation < mStats.length; operation++) {
+            for (int target = 0; target < mStats[operation].length; target++) {
+                Stat stat = mStats[operation][target];
+                if (stat.mCalls.get() == 0) {
+                    continue;
+                }
+                String name = OPERATION_NAMES[operation] + " " + (target < mTargetNames.size() ?
+                        mTargetNames.valueAt(target) : OTHER_TARGET_NAME);
+
+                Bundle statBundle = new Bundle();
+                statBundle.putLong(Metrics.EXTRA_CALLS, read(stat.mCalls, reset));
+                statBundle.putLong(Metrics.EXTRA_ERRORS, read(stat.mErrors, reset));
+                statBundle.putLong(Metrics.EXTRA_ROWS, read(stat.mRows, reset));
+                statBundle.putLong(Metrics.EXTRA_TOTAL_MICROS, read(stat.mTotalMicros, reset));
+                statBundle.putLong(Metrics.EXTRA_MAX_MICROS, read(stat.mMaxMicros, reset));
+                long[] histogram = new long[BUCKET_COUNT];
+                for (int bucket = 0; bucket < histogram.length; bucket++) {
+                    histogram[bucket] = reset ? stat.mHistogram.getAndSet(bucket, 0) :
+                            stat.mHistogram.get(bucket);
+                }
+                statBundle.putLongArray(Metrics.EXTRA_HISTOGRAM, histogram);
+                bundle.putBundle(name, statBundle);
+                names.add(name);
+            }
+        }
+        bundle.putStringArrayList(Metrics.EXTRA_OPERATIONS, names);
+        return bundle;
+    }
+
+    /**
+     * Return the value of the counter, and set it to zero if asked to.
+     */
+    private static long read(AtomicLong counter, boolean reset) {
+        return reset ? counter.getAndSet(0) : counter.get();
+    }
+
+    /**
+     * Statistics of one operation on one target.
+     */
+    private static class Stat {
+        final AtomicLong mCalls = new AtomicLong();
+        final AtomicLong mErrors = new AtomicLong();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLong mTotalMicros = new AtomicLong();
+        final AtomicLong mMaxMicros = new AtomicLong();
+        final AtomicLongArray mHistogram = new AtomicLongArray(BUCKET_COUNT);
+    }
+}
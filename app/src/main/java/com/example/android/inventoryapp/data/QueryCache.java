@@ -0,0 +1,198 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the small query results of {@link ItemProvider}, such as a single product
+ * opened in the editor or the inventory totals. The rows are copied out of the cursor, and every
+ * hit returns a new cursor over the copy. The provider only caches the reads repeated as is,
+ * not the pages of the lists, which are read once each and would evict everything else.
+ * <p>
+ * The entries are invalidated by a write generation per store: every write to a store increments
+ * its generation, and an entry is only returned if no write to its store happened since its
+ * query started. Reads never see data older than the last committed write, and the writes to a
+ * store leave the entries of the other stores valid.
+ */
+final class QueryCache {
+
+    /**
+     * Results with more rows are not cached, such as the statistics of a catalog with many
+     * suppliers: they cost too much memory.
+     */
+    private static final int MAX_CACHED_ROWS = 100;
+
+    /**
+     * Maximum number of rows held by the whole cache.
+     */
+    private static final int MAX_SIZE_ROWS = 2000;
+
+    /**
+     * Write generation of each store, by store ID, created on first use.
+     */
+    private final ConcurrentMap<Long, AtomicLong> mGenerations = new ConcurrentHashMap<>();
+
+    private final LruCache<String, Snapshot> mSnapshots = new LruCache<String, Snapshot>(MAX_SIZE_ROWS) {
+        @Override
+        protected int sizeOf(String key, Snapshot snapshot) {
+            // Count the entry itself, so empty results have a cost too
+            return snapshot.mRows.length + 1;
+        }
+    };
+
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Build the key of a query. The URI holds the match, the row ID and the query parameters.
+     */
+    static String key(int match, Uri uri, String[] projection, String selection,
+                      String[] selectionArgs, String sortOrder) {
+        return match + "|" + uri + "|" + Arrays.toString(projection) + "|" + selection + "|" +
+                Arrays.toString(selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * Return the current write generation of the store. Read it before running a query whose
+     * result is passed to {@link #put}.
+     */
+    long generation(long storeId) {
+        return storeGeneration(storeId).get();
+    }
+
+    /**
+     * Invalidate every entry of the store. Call it once a write to the store is committed.
+     */
+    void invalidate(long storeId) {
+        storeGeneration(storeId).incrementAndGet();
+    }
+
+    private AtomicLong storeGeneration(long storeId) {
+        AtomicLong generation = mGenerations.get(storeId);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong();
+            generation = mGenerations.putIfAbsent(storeId, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Return a new cursor over the cached result of the query on the store, or null if it is
+     * not cached or a write to the store happened since it was queried.
+     *
+     * @param key Key built by {@link #key}, which holds the store scoped URI
+     */
+    Cursor get(long storeId, String key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot != null && snapshot.mGeneration != generation(storeId)) {
+            mSnapshots.remove(key);
+            snapshot = null;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(snapshot.mColumnNames, snapshot.mRows.length);
+        for (Object[] row : snapshot.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Cache the result of a query if it is small enough. The cursor is moved back before its
+     * first row.
+     *
+     * @param generation Value of {@link #generation(long)} read before the query started
+     */
+    void put(long storeId, String key, long generation, Cursor cursor) {
+        int count = cursor.getCount();
+        if (count > MAX_CACHED_ROWS || generation != generation(storeId)) {
+            return;
+        }
+
+        int columnCount = cursor.getColumnCount();
+        Object[][] rows = new Object[count][];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+            }
+            rows[cursor.getPosition()] = row;
+        }
+        cursor.moveToPosition(-1);
+
+        mSnapshots.put(key, new Snapshot(cursor.getColumnNames(), rows, generation));
+    }
+
+    /**
+     * Return the number of lookups that found a valid entry, and of the ones that didn't.
+     */
+    synchronized long hitCount() {
+        return mHits;
+    }
+
+    synchronized long missCount() {
+        return mMisses;
+    }
+
+    /**
+     * Return the number of entries currently cached.
+     */
+    int entryCount() {
+        return mSnapshots.snapshot().size();
+    }
+
+    /**
+     * Start counting the hits and misses again from zero.
+     */
+    synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    /**
+     * Rows of a query result, with the write generation they were read at.
+     */
+    private static class Snapshot {
+        final String[] mColumnNames;
+        final Object[][] mRows;
+        final long mGeneration;
+
+        Snapshot(String[] columnNames, Object[][] rows, long generation) {
+            mColumnNames = columnNames;
+            mRows = rows;
+            mGeneration = generation;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled statements of the fixed-shape writes of {@link ItemProvider}, such as selling or
+ * deleting a product by ID. Each statement is compiled once and then only bound to new values,
+ * instead of building the SQL text and its arguments again on every call.
+ * <p>
+ * A statement keeps its bound values until it runs, so every thread gets statements of its own
+ * and no thread ever waits for another to use them, inside a transaction or not. The copies
+ * cost little: SQLite prepares the SQL once per connection, in the statement cache of the
+ * connection, whichever copy runs it. The statements of a thread that ended stay open until
+ * the next {@link #clear()}; the provider runs on a bounded set of threads, the binder threads
+ * and the writer of the app.
+ */
+final class StatementCache {
+
+    /**
+     * Statements of the calling thread, by SQL.
+     */
+    private final ThreadLocal<ThreadStatements> mThreadStatements = new ThreadLocal<ThreadStatements>() {
+        @Override
+        protected ThreadStatements initialValue() {
+            return new ThreadStatements();
+        }
+    };
+
+    /**
+     * Every statement compiled since the last clear, of all threads, to close them.
+     */
+    private final List<SQLiteStatement> mCompiled = new ArrayList<>();
+
+    /**
+     * Number of clears so far. A thread drops its statements when it sees a new value.
+     */
+    private volatile int mGeneration;
+
+    /**
+     * Return the compiled statement of the calling thread for the SQL, compiling it on first use.
+     */
+    SQLiteStatement get(SQLiteDatabase database, String sql) {
+        ThreadStatements statements = mThreadStatements.get();
+        int generation = mGeneration;
+        if (statements.mGeneration != generation) {
+            // Closed by the clear
+            statements.mStatements.clear();
+            statements.mGeneration = generation;
+        }
+        SQLiteStatement statement = statements.mStatements.get(sql);
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+            statements.mStatements.put(sql, statement);
+            synchronized (this) {
+                mCompiled.add(statement);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Close the statements of every thread. They are compiled again on their next use, such as
+     * when the database file was replaced. No thread may use a statement meanwhile.
+     */
+    synchronized void clear() {
+        for (SQLiteStatement statement : mCompiled) {
+            statement.close();
+        }
+        mCompiled.clear();
+        mGeneration++;
+    }
+
+    /**
+     * Statements of a single thread, with the generation they were compiled in.
+     */
+    private static class ThreadStatements {
+        final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+        int mGeneration;
+    }
+}
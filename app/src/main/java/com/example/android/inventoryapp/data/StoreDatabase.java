@@ -0,0 +1,82 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The database of a single store as used by {@link ItemProvider}: its helper, the compiled
+ * statements of its writes and the lock guarding a restore. Each store has its own connections,
+ * SQLite write lock and statements, so the stores never wait for each other.
+ */
+final class StoreDatabase {
+
+    private final ItemDbHelper mDbHelper;
+
+    /**
+     * Compiled statements of the single product writes, compiled against this database.
+     */
+    private final StatementCache mStatements = new StatementCache();
+
+    /**
+     * Every operation holds the read lock while it uses the database, and a restore holds the
+     * write lock while it replaces the database file, so no operation sees it half replaced.
+     */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    StoreDatabase(Context context, long storeId) {
+        mDbHelper = new ItemDbHelper(context, storeId);
+    }
+
+    long getStoreId() {
+        return mDbHelper.getStoreId();
+    }
+
+    ItemDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    ReadWriteLock getLock() {
+        return mLock;
+    }
+
+    SQLiteDatabase getReadableDatabase() {
+        return mDbHelper.getReadableDatabase();
+    }
+
+    SQLiteDatabase getWritableDatabase() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Return the compiled statement for the SQL, see {@link StatementCache#get}.
+     */
+    SQLiteStatement getStatement(SQLiteDatabase database, String sql) {
+        return mStatements.get(database, sql);
+    }
+
+    /**
+     * Close the compiled statements, before the database file is replaced.
+     */
+    void clearStatements() {
+        mStatements.clear();
+    }
+
+    /**
+     * Scope a URI of the contract to this store, unless it is scoped already.
+     */
+    Uri scope(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (!segments.isEmpty() && ItemContract.PATH_STORES.equals(segments.get(0))) {
+            return uri;
+        }
+        return StoreEntry.buildStoreUri(getStoreId(), uri);
+    }
+}
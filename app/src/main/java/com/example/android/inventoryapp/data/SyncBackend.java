@@ -0,0 +1,32 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+
+/**
+ * Server side of the sync of the products between devices, used by {@link SyncEngine}.
+ * <p>
+ * The changes travel as the compressed payloads of {@link SyncPayload}, so an implementation
+ * only moves bytes, such as over HTTP to the server decoding them. {@link InMemorySyncBackend}
+ * is a server kept in memory, in the same process.
+ * <p>
+ * The server numbers every change it accepts with a version of its own. A device pushes a
+ * change along with the server version it is based on, and the server rejects it if the product
+ * changed since: the device then pulls the newer change, merges it, and pushes again.
+ */
+public interface SyncBackend {
+
+    /**
+     * Return the changes accepted after the cursor, at most {@code limit} of them, oldest first,
+     * along with the cursor following them.
+     *
+     * @param cursor cursor returned by the previous pull, or null to pull every change
+     */
+    byte[] pull(String cursor, int limit) throws IOException;
+
+    /**
+     * Apply the changes pushed by a device, each one only if it is based on the latest server
+     * version of its product. Return the server version of every accepted change, and the
+     * products whose change was rejected.
+     */
+    byte[] push(byte[] changes) throws IOException;
+}
@@ -0,0 +1,617 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ItemContract.SyncEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Syncs the products of a store with a {@link SyncBackend}, exchanging only the changes since
+ * the previous sync.
+ * <p>
+ * A sync first pulls the changes the backend accepted since the last pull, and merges them into
+ * the local products field by field against the last values agreed with the backend: a field
+ * changed on one side only takes that change, a field changed on both sides takes the backend
+ * value, and the stock adds up the units moved on both sides. Deletions win over changes. It
+ * then pushes the local products and tombstones whose version is above the last pushed one,
+ * read from the version indexes. Pushes rejected because the backend changed meanwhile are
+ * pulled, merged and pushed again in the next round.
+ * <p>
+ * The changes travel in batches of {@link #BATCH_SIZE}, each batch stored in a transaction of
+ * its own: an interrupted sync resumes from the last stored batch.
+ * <p>
+ * The database is only used between the exchanges with the backend, never while waiting on it.
+ * Call {@link #sync()} on a background thread.
+ */
+public final class SyncEngine {
+
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /**
+     * Number of changes per payload.
+     */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Maximum number of pull and push rounds of a sync. A round only follows a rejected push.
+     */
+    private static final int MAX_ROUNDS = 3;
+
+    /**
+     * Local state of a product, with its row version and its supplier joined, by global ID.
+     */
+    private static final String SQL_SELECT_PRODUCT = "SELECT " +
+            SyncEntry.COLUMN_ROW_VERSION + ", " +
+            ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+            ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + ", " +
+            SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+            SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+            " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " ON " +
+            SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " WHERE " + SyncEntry.COLUMN_GLOBAL_ID + " = ?";
+
+    /**
+     * Values of a product last agreed with the backend, with their server version, by global ID.
+     */
+    private static final String SQL_SELECT_BASE = "SELECT " +
+            SyncEntry.COLUMN_SERVER_VERSION + ", " +
+            ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+            ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + ", " +
+            SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+            SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+            " FROM " + SyncEntry.BASE_TABLE_NAME + " WHERE " + SyncEntry.COLUMN_GLOBAL_ID + " = ?";
+
+    /**
+     * Selection of the rows of a table after a (version, global ID) key, in the form of the
+     * keyset paging of the product list, so SQLite seeks the version index to the first version.
+     */
+    private static final String SELECTION_AFTER_KEY = "%1$s." + SyncEntry.COLUMN_ROW_VERSION +
+            " >= ? AND (%1$s." + SyncEntry.COLUMN_ROW_VERSION + " > ? OR %1$s." +
+            SyncEntry.COLUMN_GLOBAL_ID + " > ?)";
+
+    /**
+     * Selection of the rows of a table after every row of a version, for the first page of a
+     * push: the rows at the pushed version were pushed already.
+     */
+    private static final String SELECTION_AFTER_VERSION = "%1$s." + SyncEntry.COLUMN_ROW_VERSION +
+            " > ?";
+
+    /**
+     * Local changes after a (version, global ID) key, and after a version: the products and the
+     * tombstones, merged in version order from their version indexes, with the server version
+     * they are based on. Bind the key, or the version, for each table, then the limit.
+     */
+    private static final String SQL_SELECT_CHANGES = selectChanges(SELECTION_AFTER_KEY);
+    private static final String SQL_SELECT_CHANGES_AFTER_VERSION =
+            selectChanges(SELECTION_AFTER_VERSION);
+
+    // Indices of the columns of SQL_SELECT_CHANGES. The product columns follow the server
+    // version in the order of SQL_SELECT_PRODUCT.
+    private static final int CHANGE_GLOBAL_ID = 0;
+    private static final int CHANGE_ROW_VERSION = 1;
+    private static final int CHANGE_DELETED = 2;
+    private static final int CHANGE_SERVER_VERSION = 3;
+
+    /**
+     * Give the next row version to a product: the merged products differing from the backend
+     * must be pushed, even when the merge wrote nothing.
+     */
+    private static final String SQL_NEXT_VERSION = "UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET " +
+            SyncEntry.COLUMN_VERSION + " = " + SyncEntry.COLUMN_VERSION + " + 1";
+    private static final String SQL_TOUCH_PRODUCT = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            SyncEntry.COLUMN_ROW_VERSION + " = (SELECT " + SyncEntry.COLUMN_VERSION + " FROM " +
+            SyncEntry.STATE_TABLE_NAME + ") WHERE " + SyncEntry.COLUMN_GLOBAL_ID + " = ?";
+
+    /**
+     * Give a product the pushed version, without a new version: only the columns of the
+     * product bump its row version.
+     */
+    private static final String SQL_MARK_PUSHED = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            SyncEntry.COLUMN_ROW_VERSION + " = (SELECT " + SyncEntry.COLUMN_PUSHED_VERSION + " FROM " +
+            SyncEntry.STATE_TABLE_NAME + ") WHERE " + SyncEntry.COLUMN_GLOBAL_ID + " = ?";
+
+    private static final String SELECTION_GLOBAL_ID = SyncEntry.COLUMN_GLOBAL_ID + " = ?";
+
+    /**
+     * A page of local changes to push.
+     */
+    private static final class Page {
+        /**
+         * The changes, each with the server version it is based on.
+         */
+        final List<SyncPayload.Change> changes = new ArrayList<>();
+
+        /**
+         * Tombstones of products the backend never had, dropped without pushing them.
+         */
+        final List<String> unsyncedDeletions = new ArrayList<>();
+
+        int rows;
+        long lastRowVersion;
+        String lastGlobalId;
+    }
+
+    /**
+     * Number of changes exchanged by a sync.
+     */
+    public static final class Result {
+        /**
+         * Changes pulled from the backend and merged into the local products.
+         */
+        public int pulled;
+
+        /**
+         * Local changes accepted by the backend.
+         */
+        public int pushed;
+
+        /**
+         * Local changes still rejected by the backend at the end of the sync. They are pushed
+         * again by the next sync.
+         */
+        public int rejected;
+    }
+
+    private final ItemProvider mProvider;
+    private final StoreDatabase mStore;
+    private final SyncBackend mBackend;
+
+    /**
+     * @param storeId store whose products are synced, see {@link ItemContract.StoreEntry}
+     */
+    public SyncEngine(Context context, long storeId, SyncBackend backend) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(ItemContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalStateException("No provider for " + ItemContract.CONTENT_AUTHORITY);
+        }
+        try {
+            // The provider runs in this process, the sync works on its store databases
+            mProvider = (ItemProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+        mStore = mProvider.getStore(storeId);
+        mBackend = backend;
+    }
+
+    /**
+     * Pull the changes of the backend, then push the local ones. Blocks on the backend. Syncs of
+     * the same store run one after the other.
+     *
+     * @throws IOException if the backend fails; the batches exchanged before are kept
+     */
+    public Result sync() throws IOException {
+        Result result = new Result();
+        synchronized (mStore) {
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                result.pulled += pull();
+                result.rejected = 0;
+                push(result);
+                if (result.rejected == 0) {
+                    break;
+                }
+            }
+        }
+        Log.i(LOG_TAG, "Synced store " + mStore.getStoreId() + ": " + result.pulled + " pulled, " +
+                result.pushed + " pushed, " + result.rejected + " rejected");
+        return result;
+    }
+
+    /**
+     * Pull and merge the changes after the stored cursor, batch by batch. Return the number of
+     * pulled changes.
+     */
+    private int pull() throws IOException {
+        String cursor = readState(SyncEntry.COLUMN_PULL_CURSOR);
+        int pulled = 0;
+        while (true) {
+            SyncPayload.Batch batch = SyncPayload.readBatch(mBackend.pull(cursor, BATCH_SIZE));
+            if (!batch.changes.isEmpty()) {
+                apply(batch);
+                pulled += batch.changes.size();
+            }
+            cursor = batch.cursor;
+            if (batch.changes.size() < BATCH_SIZE) {
+                return pulled;
+            }
+        }
+    }
+
+    /**
+     * Merge a batch of changes of the backend into the local products, and store the cursor
+     * following it, in a single transaction. The provider drops its cached queries and notifies
+     * its listeners once the transaction is committed.
+     * <p>
+     * The merged products get new row versions, as any local write. If no local change was
+     * waiting to be pushed, they are marked as pushed instead of echoing the batch back to the
+     * backend, and only the ones differing from the backend get a version above it. Otherwise
+     * the merged products equal to the backend get the pushed version back, so only the local
+     * changes waiting are pushed, and the ones differing keep a version above it.
+     */
+    private void apply(SyncPayload.Batch batch) {
+        mStore.getLock().readLock().lock();
+        try {
+            SQLiteDatabase database = mStore.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                boolean pushedAll = !hasUnpushedChanges(database);
+                List<String> differing = new ArrayList<>();
+                List<String> agreed = new ArrayList<>();
+                for (SyncPayload.Change change : batch.changes) {
+                    if (merge(database, change)) {
+                        differing.add(change.globalId);
+                    } else {
+                        agreed.add(change.globalId);
+                    }
+                }
+
+                ContentValues state = new ContentValues();
+                state.put(SyncEntry.COLUMN_PULL_CURSOR, batch.cursor);
+                database.update(SyncEntry.STATE_TABLE_NAME, state, null, null);
+                if (pushedAll) {
+                    database.execSQL("UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET " +
+                            SyncEntry.COLUMN_PUSHED_VERSION + " = " + SyncEntry.COLUMN_VERSION);
+                } else {
+                    for (String globalId : agreed) {
+                        database.execSQL(SQL_MARK_PUSHED, new Object[]{globalId});
+                    }
+                }
+                for (String globalId : differing) {
+                    database.execSQL(SQL_NEXT_VERSION);
+                    database.execSQL(SQL_TOUCH_PRODUCT, new Object[]{globalId});
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mStore.getLock().readLock().unlock();
+        }
+        mProvider.onSyncBatchApplied(mStore);
+    }
+
+    /**
+     * Merge a change of the backend into the local product, and make it the base of the
+     * product. Must be called inside a transaction. Return true if the local product differs
+     * from the backend afterwards, and must be pushed.
+     */
+    private static boolean merge(SQLiteDatabase database, SyncPayload.Change remote) {
+        String[] globalIdArgs = {remote.globalId};
+        SyncPayload.Change local = readProduct(database, SQL_SELECT_PRODUCT, remote.globalId);
+
+        if (remote.deleted) {
+            if (local != null) {
+                database.delete(ProductEntry.TABLE_NAME, SELECTION_GLOBAL_ID, globalIdArgs);
+            }
+            // The backend has the deletion already
+            database.delete(SyncEntry.TOMBSTONES_TABLE_NAME, SELECTION_GLOBAL_ID, globalIdArgs);
+            database.delete(SyncEntry.BASE_TABLE_NAME, SELECTION_GLOBAL_ID, globalIdArgs);
+            return false;
+        }
+
+        if (local == null) {
+            if (DatabaseUtils.queryNumEntries(database, SyncEntry.TOMBSTONES_TABLE_NAME,
+                    SELECTION_GLOBAL_ID, globalIdArgs) == 0) {
+                ContentValues values = toValues(remote, null);
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, remote.quantity);
+                values.put(SyncEntry.COLUMN_GLOBAL_ID, remote.globalId);
+                ItemProvider.resolveSupplier(database, values, null);
+                database.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+            }
+            // Otherwise deleted here and not pushed yet: the deletion wins, and is pushed
+            // based on this change
+            writeBase(database, remote);
+            return false;
+        }
+
+        SyncPayload.Change base = readProduct(database, SQL_SELECT_BASE, remote.globalId);
+        if (base == null) {
+            // Never agreed on, such as after a push whose results were lost: the local
+            // values win, and are pushed based on this change
+            base = remote;
+        }
+        // The supplier name and phone number only change together
+        SyncPayload.Change supplier = sameSupplier(local, base) ? remote : local;
+        SyncPayload.Change merged = new SyncPayload.Change(remote.globalId, remote.version,
+                mergeField(base.name, local.name, remote.name),
+                mergeField(base.price, local.price, remote.price),
+                Math.max(0, local.quantity + remote.quantity - base.quantity),
+                mergeField(base.reorderThreshold, local.reorderThreshold, remote.reorderThreshold),
+                supplier.supplierName, supplier.supplierPhoneNumber);
+
+        ContentValues values = toValues(merged, local);
+        if (values.size() != 0) {
+            ItemProvider.resolveSupplier(database, values, null);
+            database.update(ProductEntry.TABLE_NAME, values, SELECTION_GLOBAL_ID, globalIdArgs);
+        }
+        if (merged.quantity != local.quantity) {
+            // The stock only moves through the ledger
+            ContentValues movement = new ContentValues();
+            movement.put(StockMovementEntry.COLUMN_PRODUCT_ID, DatabaseUtils.longForQuery(database,
+                    "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " WHERE " +
+                            SELECTION_GLOBAL_ID, globalIdArgs));
+            movement.put(StockMovementEntry.COLUMN_TYPE, StockMovementEntry.TYPE_ADJUSTMENT);
+            movement.put(StockMovementEntry.COLUMN_QUANTITY_CHANGE, merged.quantity - local.quantity);
+            movement.put(StockMovementEntry.COLUMN_TIMESTAMP, System.currentTimeMillis());
+            database.insertOrThrow(StockMovementEntry.TABLE_NAME, null, movement);
+        }
+        writeBase(database, remote);
+        return toValues(merged, remote).size() != 0 || merged.quantity != remote.quantity;
+    }
+
+    /**
+     * Return the local value if only the local side changed the field, the remote one otherwise.
+     */
+    private static String mergeField(String base, String local, String remote) {
+        return !TextUtils.equals(local, base) && TextUtils.equals(remote, base) ? local : remote;
+    }
+
+    private static long mergeField(long base, long local, long remote) {
+        return local != base && remote == base ? local : remote;
+    }
+
+    private static boolean sameSupplier(SyncPayload.Change a, SyncPayload.Change b) {
+        return TextUtils.equals(a.supplierName, b.supplierName) &&
+                TextUtils.equals(a.supplierPhoneNumber, b.supplierPhoneNumber);
+    }
+
+    /**
+     * Return the product columns whose value differs from the current product, or all of them
+     * if there is none. The stock is left out, it only moves through the ledger.
+     */
+    private static ContentValues toValues(SyncPayload.Change product, SyncPayload.Change current) {
+        ContentValues values = new ContentValues();
+        if (current == null || !TextUtils.equals(product.name, current.name)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, product.name);
+        }
+        if (current == null || product.price != current.price) {
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, product.price);
+        }
+        if (current == null || product.reorderThreshold != current.reorderThreshold) {
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, product.reorderThreshold);
+        }
+        if (current == null || !sameSupplier(product, current)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, product.supplierName);
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, product.supplierPhoneNumber);
+        }
+        return values;
+    }
+
+    /**
+     * Read a product with {@link #SQL_SELECT_PRODUCT} or {@link #SQL_SELECT_BASE}. Return null
+     * if there is none.
+     */
+    private static SyncPayload.Change readProduct(SQLiteDatabase database, String sql,
+                                                  String globalId) {
+        Cursor cursor = database.rawQuery(sql, new String[]{globalId});
+        try {
+            return cursor.moveToFirst() ? readProduct(cursor, globalId, 0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read a product from the cursor: its version, then the name, price, stock, reorder
+     * threshold, supplier name and phone number, from the given column on.
+     */
+    private static SyncPayload.Change readProduct(Cursor cursor, String globalId, int column) {
+        return new SyncPayload.Change(globalId,
+                cursor.getLong(column),
+                cursor.getString(column + 1),
+                cursor.getLong(column + 2),
+                cursor.getLong(column + 3),
+                cursor.getLong(column + 4),
+                cursor.getString(column + 5),
+                cursor.getString(column + 6));
+    }
+
+    /**
+     * Store the product as last agreed with the backend, at the version of the change.
+     */
+    private static void writeBase(SQLiteDatabase database, SyncPayload.Change change) {
+        ContentValues values = toValues(change, null);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, change.quantity);
+        values.put(SyncEntry.COLUMN_GLOBAL_ID, change.globalId);
+        values.put(SyncEntry.COLUMN_SERVER_VERSION, change.version);
+        database.insertWithOnConflict(SyncEntry.BASE_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Push the local changes above the pushed version, page by page, and count them in the
+     * result.
+     */
+    private void push(Result result) throws IOException {
+        long afterVersion = Long.parseLong(readState(SyncEntry.COLUMN_PUSHED_VERSION));
+        // The first page starts after every row of the pushed version
+        String afterGlobalId = null;
+        while (true) {
+            Page page = readPage(afterVersion, afterGlobalId);
+            if (page.rows == 0) {
+                if (afterGlobalId != null) {
+                    // The full page before was the last one, its last version is pushed whole
+                    storePushed(page, null, afterVersion);
+                }
+                return;
+            }
+            SyncPayload.Results results = null;
+            if (!page.changes.isEmpty()) {
+                results = SyncPayload.readResults(mBackend.push(
+                        SyncPayload.writeBatch(new SyncPayload.Batch(page.changes, null))));
+                result.pushed += results.accepted.size();
+                result.rejected += results.rejected.size();
+            }
+            // A full page may have left rows of its last version to the next one
+            storePushed(page, results,
+                    page.rows == BATCH_SIZE ? page.lastRowVersion - 1 : page.lastRowVersion);
+            if (page.rows < BATCH_SIZE) {
+                return;
+            }
+            afterVersion = page.lastRowVersion;
+            afterGlobalId = page.lastGlobalId;
+        }
+    }
+
+    /**
+     * Read the page of local changes following the (version, global ID) key, or following
+     * every row of the version if the global ID is null.
+     */
+    private Page readPage(long afterVersion, String afterGlobalId) {
+        Page page = new Page();
+        String version = String.valueOf(afterVersion);
+        String limit = String.valueOf(BATCH_SIZE);
+        mStore.getLock().readLock().lock();
+        try {
+            Cursor cursor = afterGlobalId == null ?
+                    mStore.getReadableDatabase().rawQuery(SQL_SELECT_CHANGES_AFTER_VERSION,
+                            new String[]{version, version, limit}) :
+                    mStore.getReadableDatabase().rawQuery(SQL_SELECT_CHANGES, new String[]{
+                            version, version, afterGlobalId, version, version, afterGlobalId, limit});
+            try {
+                while (cursor.moveToNext()) {
+                    String globalId = cursor.getString(CHANGE_GLOBAL_ID);
+                    // Based on no server version if the backend never had the product
+                    long serverVersion = cursor.isNull(CHANGE_SERVER_VERSION) ? 0 :
+                            cursor.getLong(CHANGE_SERVER_VERSION);
+                    if (cursor.getInt(CHANGE_DELETED) == 0) {
+                        page.changes.add(readProduct(cursor, globalId, CHANGE_SERVER_VERSION));
+                    } else if (serverVersion != 0) {
+                        page.changes.add(new SyncPayload.Change(globalId, serverVersion));
+                    } else {
+                        page.unsyncedDeletions.add(globalId);
+                    }
+                    page.lastRowVersion = cursor.getLong(CHANGE_ROW_VERSION);
+                    page.lastGlobalId = globalId;
+                }
+                page.rows = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mStore.getLock().readLock().unlock();
+        }
+        return page;
+    }
+
+    /**
+     * Store the outcome of a pushed page: the accepted products become the new base, the
+     * accepted and unsynced deletions are dropped, and the pushed version moves forward. The
+     * rejected changes are pulled and merged by the next round.
+     *
+     * @param results null if nothing was pushed
+     */
+    private void storePushed(Page page, SyncPayload.Results results, long pushedVersion) {
+        mStore.getLock().readLock().lock();
+        try {
+            SQLiteDatabase database = mStore.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (SyncPayload.Change change : page.changes) {
+                    Long serverVersion = results.accepted.get(change.globalId);
+                    if (serverVersion == null) {
+                        continue;
+                    }
+                    String[] globalIdArgs = {change.globalId};
+                    if (change.deleted) {
+                        database.delete(SyncEntry.BASE_TABLE_NAME, SELECTION_GLOBAL_ID, globalIdArgs);
+                        database.delete(SyncEntry.TOMBSTONES_TABLE_NAME, SELECTION_GLOBAL_ID, globalIdArgs);
+                    } else {
+                        writeBase(database, change.withVersion(serverVersion));
+                    }
+                }
+                for (String globalId : page.unsyncedDeletions) {
+                    database.delete(SyncEntry.TOMBSTONES_TABLE_NAME, SELECTION_GLOBAL_ID,
+                            new String[]{globalId});
+                }
+                database.execSQL("UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET " +
+                        SyncEntry.COLUMN_PUSHED_VERSION + " = MAX(" + SyncEntry.COLUMN_PUSHED_VERSION +
+                        ", ?)", new Object[]{pushedVersion});
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mStore.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Return a column of the sync state, as a string.
+     */
+    private String readState(String column) {
+        mStore.getLock().readLock().lock();
+        try {
+            return DatabaseUtils.stringForQuery(mStore.getReadableDatabase(),
+                    "SELECT " + column + " FROM " + SyncEntry.STATE_TABLE_NAME, null);
+        } finally {
+            mStore.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Return true if a product or a tombstone has a version above the pushed one, read from the
+     * version indexes. The version counter alone doesn't tell: a new database starts it above
+     * the pushed version without any change to push.
+     */
+    private static boolean hasUnpushedChanges(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT EXISTS (SELECT 1 FROM " +
+                ProductEntry.TABLE_NAME + ", " + SyncEntry.STATE_TABLE_NAME + " WHERE " +
+                SyncEntry.COLUMN_ROW_VERSION + " > " + SyncEntry.COLUMN_PUSHED_VERSION +
+                ") OR EXISTS (SELECT 1 FROM " + SyncEntry.TOMBSTONES_TABLE_NAME + ", " +
+                SyncEntry.STATE_TABLE_NAME + " WHERE " + SyncEntry.COLUMN_ROW_VERSION + " > " +
+                SyncEntry.COLUMN_PUSHED_VERSION + ")", null) != 0;
+    }
+
+    /**
+     * Build the query of the local changes whose rows match the selection, formatted with the
+     * name of each table.
+     */
+    private static String selectChanges(String selection) {
+        return "SELECT " +
+                ProductEntry.TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID + ", " +
+                ProductEntry.TABLE_NAME + "." + SyncEntry.COLUMN_ROW_VERSION + ", 0, " +
+                SyncEntry.BASE_TABLE_NAME + "." + SyncEntry.COLUMN_SERVER_VERSION + ", " +
+                ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + ", " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " ON " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+                ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID +
+                " LEFT JOIN " + SyncEntry.BASE_TABLE_NAME + " ON " +
+                SyncEntry.BASE_TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID + " = " +
+                ProductEntry.TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID +
+                " WHERE " + String.format(selection, ProductEntry.TABLE_NAME) +
+                " UNION ALL SELECT " +
+                SyncEntry.TOMBSTONES_TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID + ", " +
+                SyncEntry.TOMBSTONES_TABLE_NAME + "." + SyncEntry.COLUMN_ROW_VERSION + ", 1, " +
+                SyncEntry.BASE_TABLE_NAME + "." + SyncEntry.COLUMN_SERVER_VERSION + ", " +
+                "NULL, NULL, NULL, NULL, NULL, NULL FROM " + SyncEntry.TOMBSTONES_TABLE_NAME +
+                " LEFT JOIN " + SyncEntry.BASE_TABLE_NAME + " ON " +
+                SyncEntry.BASE_TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID + " = " +
+                SyncEntry.TOMBSTONES_TABLE_NAME + "." + SyncEntry.COLUMN_GLOBAL_ID +
+                " WHERE " + String.format(selection, SyncEntry.TOMBSTONES_TABLE_NAME) +
+                " ORDER BY 2, 1 LIMIT ?";
+    }
+}
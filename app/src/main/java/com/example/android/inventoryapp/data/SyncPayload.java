@@ -0,0 +1,238 @@
+package com.example.android.inventoryapp.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wire format of the sync: batches of changes and the results of a push, as gzipped JSON. The
+ * names and supplier details of a catalog repeat a lot, so a batch compresses well.
+ */
+final class SyncPayload {
+
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_ACCEPTED = "accepted";
+    private static final String KEY_REJECTED = "rejected";
+    private static final String KEY_ID = "id";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_DELETED = "deleted";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_PRICE = "price";
+    private static final String KEY_QUANTITY = "quantity";
+    private static final String KEY_REORDER_THRESHOLD = "reorder_threshold";
+    private static final String KEY_SUPPLIER_NAME = "supplier_name";
+    private static final String KEY_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+
+    /**
+     * The state of a product after a change, or its deletion. The version is the server version
+     * of the change when pulled, and the server version it is based on when pushed.
+     */
+    static final class Change {
+        final String globalId;
+        final long version;
+        final boolean deleted;
+        final String name;
+        final long price;
+        final long quantity;
+        final long reorderThreshold;
+        final String supplierName;
+        final String supplierPhoneNumber;
+
+        Change(String globalId, long version, String name, long price, long quantity,
+               long reorderThreshold, String supplierName, String supplierPhoneNumber) {
+            this.globalId = globalId;
+            this.version = version;
+            this.deleted = false;
+            this.name = name;
+            this.price = price;
+            this.quantity = quantity;
+            this.reorderThreshold = reorderThreshold;
+            this.supplierName = supplierName;
+            this.supplierPhoneNumber = supplierPhoneNumber;
+        }
+
+        /**
+         * The deletion of a product.
+         */
+        Change(String globalId, long version) {
+            this.globalId = globalId;
+            this.version = version;
+            this.deleted = true;
+            this.name = null;
+            this.price = 0;
+            this.quantity = 0;
+            this.reorderThreshold = 0;
+            this.supplierName = null;
+            this.supplierPhoneNumber = null;
+        }
+
+        /**
+         * Return the same change with another version.
+         */
+        Change withVersion(long version) {
+            return deleted ? new Change(globalId, version) : new Change(globalId, version, name,
+                    price, quantity, reorderThreshold, supplierName, supplierPhoneNumber);
+        }
+    }
+
+    /**
+     * A batch of changes, and the cursor following them when pulled.
+     */
+    static final class Batch {
+        final List<Change> changes;
+        final String cursor;
+
+        Batch(List<Change> changes, String cursor) {
+            this.changes = changes;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * The outcome of a push: the server version of each accepted change by global ID, and the
+     * global IDs of the rejected ones.
+     */
+    static final class Results {
+        final Map<String, Long> accepted;
+        final List<String> rejected;
+
+        Results(Map<String, Long> accepted, List<String> rejected) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+        }
+    }
+
+    private SyncPayload() {
+    }
+
+    static byte[] writeBatch(Batch batch) throws IOException {
+        try {
+            JSONArray changes = new JSONArray();
+            for (Change change : batch.changes) {
+                JSONObject object = new JSONObject()
+                        .put(KEY_ID, change.globalId)
+                        .put(KEY_VERSION, change.version);
+                if (change.deleted) {
+                    object.put(KEY_DELETED, true);
+                } else {
+                    object.put(KEY_NAME, change.name)
+                            .put(KEY_PRICE, change.price)
+                            .put(KEY_QUANTITY, change.quantity)
+                            .put(KEY_REORDER_THRESHOLD, change.reorderThreshold)
+                            .put(KEY_SUPPLIER_NAME, change.supplierName)
+                            .put(KEY_SUPPLIER_PHONE_NUMBER, change.supplierPhoneNumber);
+                }
+                changes.put(object);
+            }
+            JSONObject payload = new JSONObject().put(KEY_CHANGES, changes);
+            if (batch.cursor != null) {
+                payload.put(KEY_CURSOR, batch.cursor);
+            }
+            return compress(payload);
+        } catch (JSONException e) {
+            throw new IOException("Invalid change", e);
+        }
+    }
+
+    static Batch readBatch(byte[] bytes) throws IOException {
+        try {
+            JSONObject payload = decompress(bytes);
+            JSONArray array = payload.getJSONArray(KEY_CHANGES);
+            List<Change> changes = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                String globalId = object.getString(KEY_ID);
+                long version = object.getLong(KEY_VERSION);
+                if (object.optBoolean(KEY_DELETED)) {
+                    changes.add(new Change(globalId, version));
+                } else {
+                    changes.add(new Change(globalId, version,
+                            object.getString(KEY_NAME),
+                            object.getLong(KEY_PRICE),
+                            object.getLong(KEY_QUANTITY),
+                            object.getLong(KEY_REORDER_THRESHOLD),
+                            object.getString(KEY_SUPPLIER_NAME),
+                            object.getString(KEY_SUPPLIER_PHONE_NUMBER)));
+                }
+            }
+            return new Batch(changes, payload.has(KEY_CURSOR) ? payload.getString(KEY_CURSOR) : null);
+        } catch (JSONException e) {
+            throw new IOException("Invalid changes payload", e);
+        }
+    }
+
+    static byte[] writeResults(Results results) throws IOException {
+        try {
+            JSONObject accepted = new JSONObject();
+            for (Map.Entry<String, Long> entry : results.accepted.entrySet()) {
+                accepted.put(entry.getKey(), entry.getValue().longValue());
+            }
+            return compress(new JSONObject()
+                    .put(KEY_ACCEPTED, accepted)
+                    .put(KEY_REJECTED, new JSONArray(results.rejected)));
+        } catch (JSONException e) {
+            throw new IOException("Invalid results", e);
+        }
+    }
+
+    static Results readResults(byte[] bytes) throws IOException {
+        try {
+            JSONObject payload = decompress(bytes);
+            JSONObject acceptedObject = payload.getJSONObject(KEY_ACCEPTED);
+            Map<String, Long> accepted = new LinkedHashMap<>();
+            for (Iterator<String> keys = acceptedObject.keys(); keys.hasNext(); ) {
+                String globalId = keys.next();
+                accepted.put(globalId, acceptedObject.getLong(globalId));
+            }
+            JSONArray rejectedArray = payload.getJSONArray(KEY_REJECTED);
+            List<String> rejected = new ArrayList<>(rejectedArray.length());
+            for (int i = 0; i < rejectedArray.length(); i++) {
+                rejected.add(rejectedArray.getString(i));
+            }
+            return new Results(accepted, rejected);
+        } catch (JSONException e) {
+            throw new IOException("Invalid results payload", e);
+        }
+    }
+
+    private static byte[] compress(JSONObject payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream output = new GZIPOutputStream(bytes);
+        try {
+            output.write(payload.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            output.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JSONObject decompress(byte[] payload) throws IOException, JSONException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream input = new GZIPInputStream(new ByteArrayInputStream(payload));
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return new JSONObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.view.View;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binding of the product rows by {@link ItemCursorAdapter}.
+ * <p>
+ * The list items are built in code with the IDs of list_item.xml, since the JVM tests run
+ * without the compiled resources of the app.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemCursorAdapterTest {
+
+    private static final int ROWS = 500;
+
+    /**
+     * List items recycled by the fling, about a screenful.
+     */
+    private static final int VIEWS = 12;
+
+    /**
+     * Times the fling runs over the whole list, untimed then measured.
+     */
+    private static final int WARM_UP_FLINGS = 20;
+    private static final int MEASURED_FLINGS = 20;
+
+    private Context mContext;
+    private ItemCursorAdapter mAdapter;
+    private Cursor mCursor;
+    private View[] mViews;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        MatrixCursor cursor = new MatrixCursor(new String[]{ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY});
+        for (int i = 0; i < ROWS; i++) {
+            // Only the first product is sold out
+            cursor.addRow(new Object[]{(long) i + 1, "Product " + i, 100L * i,
+                    i == 0 ? 0 : i % 7 + 1});
+        }
+        mCursor = cursor;
+        SaleCoalescer saleCoalescer = new SaleCoalescer(WriteExecutor.getInstance(mContext),
+                new SaleCoalescer.OnSaleWrittenListener() {
+                    @Override
+                    public void onSaleWritten(long productId, int unitsSold, int newQuantity) {
+                    }
+
+                    @Override
+                    public void onSaleFailed(long productId, int units) {
+                    }
+                });
+        mAdapter = new ItemCursorAdapter(mContext, mCursor, saleCoalescer);
+        mViews = new View[VIEWS];
+        for (int i = 0; i < mViews.length; i++) {
+            mViews[i] = mAdapter.attachViewHolder(newListItem());
+        }
+    }
+
+    @Test
+    public void bindingShowsTheRow() {
+        mCursor.moveToPosition(12);
+        mAdapter.bindView(mViews[0], mContext, mCursor);
+
+        assertEquals("Product 12", text(R.id.product_name));
+        assertEquals("12.00", text(R.id.product_price));
+        assertEquals("6", text(R.id.product_quantity));
+        assertEquals(true, mViews[0].findViewById(R.id.sale_button).isEnabled());
+
+        mCursor.moveToPosition(0);
+        mAdapter.bindView(mViews[0], mContext, mCursor);
+        assertEquals("0", text(R.id.product_quantity));
+        assertEquals(false, mViews[0].findViewById(R.id.sale_button).isEnabled());
+    }
+
+    @Test
+    public void flingAllocatesNothing() {
+        for (int i = 0; i < WARM_UP_FLINGS; i++) {
+            fling();
+        }
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_FLINGS; i++) {
+            fling();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        int binds = MEASURED_FLINGS * (ROWS - 1);
+
+        System.out.println("Bound " + binds + " rows, allocated " + allocated + " bytes");
+        // The JVM may allocate a few bytes once, less than a byte per row is no garbage per bind
+        assertTrue("Allocated " + allocated + " bytes", allocated < binds);
+    }
+
+    /**
+     * Bind every row of the list in order, recycling the list items as a fling does. The sold
+     * out first row is left out: enabling and disabling the sale button allocates in the view
+     * framework of the JVM tests, not in the adapter.
+     */
+    private void fling() {
+        for (int position = 1; position < ROWS; position++) {
+            mCursor.moveToPosition(position);
+            mAdapter.bindView(mViews[position % VIEWS], mContext, mCursor);
+        }
+    }
+
+    private String text(int id) {
+        return ((TextView) mViews[0].findViewById(id)).getText().toString();
+    }
+
+    private View newListItem() {
+        LinearLayout item = new LinearLayout(mContext);
+        int[] textIds = {R.id.product_name, R.id.product_price, R.id.product_quantity};
+        for (int id : textIds) {
+            TextView textView = new TextView(mContext);
+            textView.setId(id);
+            item.addView(textView);
+        }
+        Button saleButton = new Button(mContext);
+        saleButton.setId(R.id.sale_button);
+        item.addView(saleButton);
+        return item;
+    }
+}
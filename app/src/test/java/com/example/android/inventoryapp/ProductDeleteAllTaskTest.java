@@ -0,0 +1,186 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The chunks of {@link ProductDeleteAllTask}, its cancellation between two of them, and the
+ * single notification of the whole deletion.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ProductDeleteAllTaskTest {
+
+    /**
+     * Products of the tests: two full chunks of the task and a partial one.
+     */
+    private static final int PRODUCTS = 1200;
+
+    /**
+     * Runs the deletion on the calling thread, so the test decides when the callbacks run.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The provider of the app, counting the chunks deleted and running a change of the test
+     * between the first chunk and the next one.
+     */
+    public static class ChunkCountingProvider extends ItemProvider {
+        int mDeletes;
+        Runnable mAfterFirstDelete;
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            int rowsDeleted = super.delete(uri, selection, selectionArgs);
+            if (++mDeletes == 1 && mAfterFirstDelete != null) {
+                mAfterFirstDelete.run();
+            }
+            return rowsDeleted;
+        }
+    }
+
+    private ChunkCountingProvider mProvider;
+    private ContentResolver mContentResolver;
+    private final List<String> mCallbacks = new ArrayList<>();
+    private int mNotifications;
+
+    // Without a handler, the observer is called on the thread of the deletion
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mNotifications++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ChunkCountingProvider.class,
+                ItemContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        ContentValues[] values = new ContentValues[PRODUCTS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = product("Product " + i);
+        }
+        assertEquals(PRODUCTS, mContentResolver.bulkInsert(ProductEntry.CONTENT_URI, values));
+        mContentResolver.registerContentObserver(ProductEntry.CONTENT_URI, false, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+    }
+
+    @Test
+    public void deletesEveryProductInChunksAndNotifiesOnce() {
+        execute(newTask());
+
+        // Two full chunks, the partial one, and the empty one that ends the deletion
+        assertEquals(4, mProvider.mDeletes);
+        assertEquals(0, countProducts());
+        assertEquals(1, mNotifications);
+        assertEquals("progress 1200 of 1200", mCallbacks.get(mCallbacks.size() - 2));
+        assertEquals("finished 1200", mCallbacks.get(mCallbacks.size() - 1));
+    }
+
+    @Test
+    public void cancelledTaskStopsAfterTheCurrentChunk() {
+        final ProductDeleteAllTask task = newTask();
+        mProvider.mAfterFirstDelete = new Runnable() {
+            @Override
+            public void run() {
+                task.cancel(false);
+            }
+        };
+        execute(task);
+
+        assertEquals(1, mProvider.mDeletes);
+        assertEquals(PRODUCTS - 500, countProducts());
+        // The chunk already deleted is notified all the same
+        assertEquals(1, mNotifications);
+        assertEquals("cancelled 500", mCallbacks.get(mCallbacks.size() - 1));
+    }
+
+    @Test
+    public void productsAddedMeanwhileStay() {
+        mProvider.mAfterFirstDelete = new Runnable() {
+            @Override
+            public void run() {
+                mContentResolver.insert(ProductEntry.CONTENT_URI, product("Saber"));
+            }
+        };
+        execute(newTask());
+
+        assertEquals(1, countProducts());
+        assertEquals("finished 1200", mCallbacks.get(mCallbacks.size() - 1));
+    }
+
+    private ProductDeleteAllTask newTask() {
+        ProductDeleteAllTask task = new ProductDeleteAllTask(mContentResolver,
+                new ProductDeleteAllTask.Callbacks() {
+                    @Override
+                    public void onDeleteProgress(int rowsDeleted, int rowCount) {
+                        mCallbacks.add("progress " + rowsDeleted + " of " + rowCount);
+                    }
+
+                    @Override
+                    public void onDeleteFinished(int rowsDeleted, boolean cancelled) {
+                        mCallbacks.add((cancelled ? "cancelled " : "finished ") + rowsDeleted);
+                    }
+                });
+        return task;
+    }
+
+    private static ContentValues product(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 250);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Jedi");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555-4");
+        return values;
+    }
+
+    /**
+     * Run the task to its end, then its callbacks waiting on the main thread.
+     */
+    private static void execute(ProductDeleteAllTask task) {
+        task.executeOnExecutor(DIRECT_EXECUTOR);
+        ShadowLooper.idleMainLooper();
+    }
+
+    private int countProducts() {
+        Cursor cursor = mContentResolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The bursts of sales combined by {@link SaleCoalescer}: one write per product once the burst
+ * is over, or as soon as it is flushed, and the units pending until their write is done.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SaleCoalescerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Longer than the time the sales of a burst are collected.
+     */
+    private static final long BURST_MILLIS = 1000;
+
+    private WriteExecutor mWriteExecutor;
+    private ContentResolver mContentResolver;
+    private SaleCoalescer mSaleCoalescer;
+    private final List<String> mResults = new ArrayList<>();
+    private int mNotifications;
+
+    // Without a handler, the observer is called on the writer thread
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            synchronized (SaleCoalescerTest.this) {
+                mNotifications++;
+            }
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ItemProvider.class, ItemContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        mWriteExecutor = WriteExecutor.getInstance(RuntimeEnvironment.getApplication());
+        mSaleCoalescer = new SaleCoalescer(mWriteExecutor, new SaleCoalescer.OnSaleWrittenListener() {
+            @Override
+            public void onSaleWritten(long productId, int unitsSold, int newQuantity) {
+                mResults.add("sold " + unitsSold + " of " + productId + ", " + newQuantity + " left");
+            }
+
+            @Override
+            public void onSaleFailed(long productId, int units) {
+                mResults.add("failed " + units + " of " + productId);
+            }
+        });
+        mContentResolver.registerContentObserver(ProductEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+    }
+
+    @Test
+    public void burstOfSalesIsWrittenOncePerProduct() throws InterruptedException {
+        long saberId = insert("Saber", 10);
+        long robeId = insert("Robe", 10);
+        int notifications = notifications();
+        for (int i = 0; i < 5; i++) {
+            mSaleCoalescer.sell(saberId);
+        }
+        mSaleCoalescer.sell(robeId);
+        awaitWrites();
+
+        // Nothing is written before the end of the burst
+        assertEquals(10, queryQuantity(saberId));
+        assertEquals(5, mSaleCoalescer.getPendingUnits(saberId));
+
+        ShadowLooper.idleMainLooper(BURST_MILLIS, TimeUnit.MILLISECONDS);
+        awaitWrites();
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(5, queryQuantity(saberId));
+        assertEquals(9, queryQuantity(robeId));
+        assertEquals(0, mSaleCoalescer.getPendingUnits(saberId));
+        assertEquals(Arrays.asList("sold 5 of " + saberId + ", 5 left",
+                "sold 1 of " + robeId + ", 9 left"), mResults);
+        // One change of each product
+        assertEquals(notifications + 2, notifications());
+    }
+
+    @Test
+    public void flushWritesThePendingSalesAtOnce() throws InterruptedException {
+        long id = insert("Saber", 10);
+        for (int i = 0; i < 3; i++) {
+            mSaleCoalescer.sell(id);
+        }
+
+        // As when the activity stops, without waiting for the end of the burst
+        mSaleCoalescer.flush();
+        awaitWrites();
+
+        assertEquals(7, queryQuantity(id));
+        // Still pending until the result reaches the main thread
+        assertEquals(3, mSaleCoalescer.getPendingUnits(id));
+        ShadowLooper.idleMainLooper();
+        assertEquals(0, mSaleCoalescer.getPendingUnits(id));
+
+        // The delayed flush of the burst was dropped, nothing is written twice
+        ShadowLooper.idleMainLooper(BURST_MILLIS, TimeUnit.MILLISECONDS);
+        awaitWrites();
+        ShadowLooper.idleMainLooper();
+        assertEquals(7, queryQuantity(id));
+        assertEquals(Collections.singletonList("sold 3 of " + id + ", 7 left"), mResults);
+    }
+
+    @Test
+    public void burstBeyondTheStockSellsNothing() throws InterruptedException {
+        long id = insert("Saber", 2);
+        for (int i = 0; i < 3; i++) {
+            mSaleCoalescer.sell(id);
+        }
+        mSaleCoalescer.flush();
+        awaitWrites();
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(2, queryQuantity(id));
+        assertEquals(0, mSaleCoalescer.getPendingUnits(id));
+        assertEquals(Collections.singletonList("failed 3 of " + id), mResults);
+    }
+
+    private long insert(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1250);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Jedi");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555-4");
+        return ContentUris.parseId(mContentResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private int queryQuantity(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = mContentResolver.query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private synchronized int notifications() {
+        return mNotifications;
+    }
+
+    /**
+     * Wait until the writer thread has run every write submitted before.
+     */
+    private void awaitWrites() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The order and the threads of the writes and callbacks of {@link WriteExecutor}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WriteExecutorTest {
+
+    private static final int WRITES = 100;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private WriteExecutor mWriteExecutor;
+
+    @Before
+    public void setUp() {
+        mWriteExecutor = WriteExecutor.getInstance(RuntimeEnvironment.getApplication());
+    }
+
+    @Test
+    public void writesRunInOrderOffTheMainThread() throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Boolean> onMainThread = Collections.synchronizedList(new ArrayList<Boolean>());
+        for (int i = 0; i < WRITES; i++) {
+            final int index = i;
+            mWriteExecutor.submit(new WriteExecutor.Write<Void>() {
+                @Override
+                public Void run(ContentResolver contentResolver) {
+                    onMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+                    order.add(index);
+                    return null;
+                }
+            }, null);
+        }
+        awaitWrites();
+
+        assertEquals(range(WRITES), order);
+        assertTrue(!onMainThread.contains(true));
+    }
+
+    @Test
+    public void callbacksRunInOrderOnTheMainThread() throws InterruptedException {
+        final List<Integer> results = new ArrayList<>();
+        final List<Boolean> onMainThread = new ArrayList<>();
+        for (int i = 0; i < WRITES; i++) {
+            final int index = i;
+            mWriteExecutor.submit(new WriteExecutor.Write<Integer>() {
+                @Override
+                public Integer run(ContentResolver contentResolver) {
+                    return index;
+                }
+            }, new WriteExecutor.Callback<Integer>() {
+                @Override
+                public void onWriteFinished(Integer result) {
+                    onMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+                    results.add(result);
+                }
+            });
+        }
+        awaitWrites();
+        // The callbacks wait in the queue of the main thread until it runs them
+        assertTrue(results.isEmpty());
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(range(WRITES), results);
+        assertTrue(!onMainThread.contains(false));
+    }
+
+    @Test
+    public void failedWriteReportsNullAndTheNextWritesGoOn() throws InterruptedException {
+        final List<String> results = new ArrayList<>();
+        WriteExecutor.Callback<String> callback = new WriteExecutor.Callback<String>() {
+            @Override
+            public void onWriteFinished(String result) {
+                results.add(result);
+            }
+        };
+        mWriteExecutor.submit(new WriteExecutor.Write<String>() {
+            @Override
+            public String run(ContentResolver contentResolver) {
+                throw new IllegalArgumentException("Product requires a name");
+            }
+        }, callback);
+        mWriteExecutor.submit(new WriteExecutor.Write<String>() {
+            @Override
+            public String run(ContentResolver contentResolver) {
+                return "saved";
+            }
+        }, callback);
+        awaitWrites();
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(2, results.size());
+        assertNull(results.get(0));
+        assertEquals("saved", results.get(1));
+    }
+
+    /**
+     * Wait until the writer thread has run every write submitted before.
+     */
+    private void awaitWrites() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        // Runs after the writes already submitted
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+}
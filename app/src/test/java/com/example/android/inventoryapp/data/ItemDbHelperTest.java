@@ -0,0 +1,190 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.Snapshots;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The store database as {@link ItemDbHelper} configures it, used through the provider.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemDbHelperTest {
+
+    /**
+     * Time a read may take while a write transaction is open, far more than it needs.
+     */
+    private static final long READ_TIMEOUT_SECONDS = 5;
+
+    private ItemProvider mProvider;
+    private SQLiteDatabase mDatabase;
+    private Uri mProductUri;
+    private ExecutorService mExecutor;
+
+    // Open the write transaction of holdWriteTransaction, then end it
+    private final CountDownLatch mWritten = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mProvider = TestProducts.setUpProvider();
+        mDatabase = mProvider.getStore(StoreEntry.DEFAULT_STORE_ID).getWritableDatabase();
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        mProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void readsDoNotWaitForAnOpenWriteTransaction() throws Exception {
+        Future<Void> writer = holdWriteTransaction();
+
+        // With WAL the reader gets its own connection and sees the last commit
+        Future<Long> quantity = mExecutor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            }
+        });
+        assertEquals(3, (long) quantity.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        mRelease.countDown();
+        writer.get();
+
+        // The write went around the provider and its cache, read it back the same way
+        assertEquals(100, DatabaseUtils.longForQuery(mDatabase, "SELECT " +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void snapshotDoesNotWaitForAnOpenWriteTransaction() throws Exception {
+        final File file = new File(RuntimeEnvironment.getApplication().getFilesDir(), "snapshot.db");
+        Future<Void> writer = holdWriteTransaction();
+
+        Future<Bundle> snapshot = mExecutor.submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return TestProducts.contentResolver().call(ProductEntry.CONTENT_URI,
+                        Snapshots.METHOD_SNAPSHOT, file.getPath(), null);
+            }
+        });
+        Bundle result = snapshot.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        mRelease.countDown();
+        writer.get();
+
+        // Written while the write transaction was still open
+        assertNotNull(result);
+        // The snapshot holds the last commit, without the write still in progress
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(3, DatabaseUtils.longForQuery(copy, "SELECT " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME, null));
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    public void restoreReplacesTheDatabase() {
+        File file = new File(RuntimeEnvironment.getApplication().getFilesDir(), "snapshot.db");
+        assertNotNull(callSnapshot(Snapshots.METHOD_SNAPSHOT, file));
+        TestProducts.insert(TestProducts.product("Robe", 99, 7, "Jedi"));
+        assertEquals(2, TestProducts.count(ProductEntry.CONTENT_URI));
+
+        assertNotNull(callSnapshot(Snapshots.METHOD_RESTORE, file));
+
+        assertEquals(1, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals("wal", DatabaseUtils.stringForQuery(mProvider.getStore(
+                StoreEntry.DEFAULT_STORE_ID).getReadableDatabase(), "PRAGMA journal_mode", null));
+        // The statements compiled against the old database are compiled again
+        Bundle sale = TestProducts.contentResolver().call(ProductEntry.CONTENT_URI,
+                ProductEntry.METHOD_SELL, mProductUri.getLastPathSegment(), null);
+        assertEquals(2, sale.getInt(ProductEntry.EXTRA_NEW_QUANTITY));
+    }
+
+    @Test
+    public void restoreNotifiesTheStoreBeforeClosingTheDatabase() {
+        File file = new File(RuntimeEnvironment.getApplication().getFilesDir(), "snapshot.db");
+        assertNotNull(callSnapshot(Snapshots.METHOD_SNAPSHOT, file));
+        final List<Boolean> openAtNotification = new ArrayList<>();
+        // Without a handler, the observer is called on the thread of the restore
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                openAtNotification.add(mDatabase.isOpen());
+            }
+        };
+        TestProducts.contentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true,
+                observer);
+
+        assertNotNull(callSnapshot(Snapshots.METHOD_RESTORE, file));
+
+        TestProducts.contentResolver().unregisterContentObserver(observer);
+        // Told to drop the cursors before they became invalid, then to query again
+        assertEquals(Arrays.asList(true, false), openAtNotification);
+    }
+
+    private static Bundle callSnapshot(String method, File file) {
+        return TestProducts.contentResolver().call(ProductEntry.CONTENT_URI, method,
+                file.getPath(), null);
+    }
+
+    /**
+     * Set the stock of every product to 100 in a transaction of the primary connection, on
+     * another thread, and keep the transaction open until {@link #mRelease} is counted down.
+     * Return once the update is written.
+     */
+    private Future<Void> holdWriteTransaction() throws InterruptedException {
+        Future<Void> writer = mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                mDatabase.beginTransaction();
+                try {
+                    mDatabase.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                            ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 100");
+                    mWritten.countDown();
+                    mRelease.await();
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+                return null;
+            }
+        });
+        mWritten.await();
+        return writer;
+    }
+}
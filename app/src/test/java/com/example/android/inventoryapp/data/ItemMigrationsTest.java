@@ -0,0 +1,159 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The migration chain, run by {@link ItemDbHelper} on a database left by the first version of
+ * the app.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemMigrationsTest {
+
+    /**
+     * Products of the timed upgrade, and the time it may take on the JVM.
+     */
+    private static final int TIMED_ROWS = 10000;
+    private static final long TIMED_LIMIT_MILLIS = 5000;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsTheProducts() {
+        SQLiteDatabase db = createVersion1Database();
+        insertVersion1Product(db, "Saber", 12.5, 3, "Jedi", "555-1");
+        insertVersion1Product(db, "Robe", 0.99, 7, "Jedi", "555-1");
+        insertVersion1Product(db, "Helmet", 40, 0, "Empire", "555-2");
+        db.close();
+
+        TestProducts.setUpProvider();
+
+        assertEquals(3, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(2, TestProducts.count(SupplierEntry.CONTENT_URI));
+        Uri saberUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+        assertEquals("Saber", TestProducts.queryString(saberUri, ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals(1250, TestProducts.queryLong(saberUri, ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals(3, TestProducts.queryLong(saberUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals("Jedi", TestProducts.queryString(saberUri,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+        assertEquals(99, TestProducts.queryLong(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 2),
+                ProductEntry.COLUMN_PRODUCT_PRICE));
+        // Every product starts its ledger with its stock at the upgrade
+        assertEquals(3, TestProducts.count(StockMovementEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void upgradeFromVersion1CreatesTheIndexes() {
+        createVersion1Database().close();
+
+        ItemDbHelper dbHelper = new ItemDbHelper(mContext, StoreEntry.DEFAULT_STORE_ID);
+        Set<String> indexes = new HashSet<>();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index'", null);
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+            dbHelper.close();
+        }
+
+        String[] expected = {"products_supplier_id_idx", "products_name_idx", "suppliers_name_idx",
+                "stock_movements_product_idx", "stock_movements_timestamp_idx",
+                "products_low_stock_idx", "products_row_version_idx",
+                "sync_tombstones_row_version_idx"};
+        for (String index : expected) {
+            assertTrue("Missing index " + index + " in " + indexes, indexes.contains(index));
+        }
+    }
+
+    @Test
+    public void upgradeOfALargeCatalogIsTimely() {
+        SQLiteDatabase db = createVersion1Database();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < TIMED_ROWS; i++) {
+                insertVersion1Product(db, "Product " + i, 1 + i % 500 / 100.0, i % 20,
+                        "Supplier " + i % 50, "555-" + i % 50);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        ItemDbHelper dbHelper = new ItemDbHelper(mContext, StoreEntry.DEFAULT_STORE_ID);
+        long start = System.nanoTime();
+        dbHelper.getWritableDatabase();
+        long millis = (System.nanoTime() - start) / 1000000;
+        dbHelper.close();
+
+        System.out.println("Upgrade of " + TIMED_ROWS + " products: " + millis + " ms");
+        assertTrue("Upgrade took " + millis + " ms", millis < TIMED_LIMIT_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void migrateRejectsAnUnknownVersion() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            ItemMigrations.migrate(db, 1, ItemMigrations.LATEST_VERSION + 1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Create the database file of the default store with the version 1 schema.
+     */
+    private SQLiteDatabase createVersion1Database() {
+        File file = mContext.getDatabasePath(
+                new ItemDbHelper(mContext, StoreEntry.DEFAULT_STORE_ID).getDatabaseName());
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        ItemMigrations.createInitialSchema(db);
+        db.setVersion(1);
+        return db;
+    }
+
+    /**
+     * Insert a product as version 1 stored it, with a decimal price and the supplier inline.
+     */
+    private static void insertVersion1Product(SQLiteDatabase db, String name, double price,
+                                              int quantity, String supplierName, String supplierPhone) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierName);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, supplierPhone);
+        db.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+    }
+}
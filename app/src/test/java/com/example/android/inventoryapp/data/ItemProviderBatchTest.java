@@ -0,0 +1,130 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The batch writes of {@link ItemProvider}: a bulk insert or a batch of operations is stored in
+ * a single transaction, entirely or not at all, and notifies each changed URI once. A write
+ * asked not to notify leaves it to its caller.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderBatchTest {
+
+    private ItemProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = TestProducts.setUpProvider();
+    }
+
+    @Test
+    public void bulkInsertStoresEveryRowAndNotifiesOnce() {
+        ContentValues[] values = new ContentValues[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Product " + i, 250, i, i % 2 == 0 ? "Jedi" : "Sith");
+        }
+        TestProducts.resetMetrics();
+
+        assertEquals(100, TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, values));
+
+        assertEquals(100, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(2, TestProducts.count(SupplierEntry.CONTENT_URI));
+        // The products, the new suppliers and the ledger, each once
+        assertEquals(3, TestProducts.resetMetrics().getLong(Metrics.EXTRA_NOTIFICATIONS));
+    }
+
+    @Test
+    public void writesAskedNotToNotifyNotifyNothing() {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+        TestProducts.resetMetrics();
+
+        TestProducts.insert(uri, TestProducts.product("Saber", 1250, 3, "Jedi"));
+        assertEquals(2, TestProducts.contentResolver().bulkInsert(uri, new ContentValues[]{
+                TestProducts.product("Robe", 99, 7, "Jedi"),
+                TestProducts.product("Helmet", 500, 2, "Sith")}));
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100);
+        assertEquals(3, TestProducts.contentResolver().update(uri, values, null, null));
+        assertEquals(3, TestProducts.contentResolver().delete(uri, null, null));
+
+        assertEquals(0, TestProducts.resetMetrics().getLong(Metrics.EXTRA_NOTIFICATIONS));
+    }
+
+    @Test
+    public void bulkInsertWithAnInvalidRowInsertsNothing() {
+        ContentValues[] values = new ContentValues[10];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Product " + i, 250, 1, "Jedi");
+        }
+        values[7].remove(ProductEntry.COLUMN_PRODUCT_NAME);
+
+        try {
+            TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, values);
+            fail("The invalid row was accepted");
+        } catch (IllegalArgumentException expected) {
+            // The whole batch is rolled back
+        }
+        assertEquals(0, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(0, TestProducts.count(SupplierEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void applyBatchWithAFailingOperationAppliesNothing() throws OperationApplicationException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        ContentValues invalid = TestProducts.product("Blaster", 700, 1, "Han");
+        invalid.put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(productUri)
+                .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, 10).build());
+        operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(invalid).build());
+        try {
+            mProvider.applyBatch(operations);
+            fail("The invalid product was accepted");
+        } catch (IllegalArgumentException expected) {
+            // The update before it is rolled back
+        }
+        assertEquals(3, TestProducts.queryLong(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(1, TestProducts.count(ProductEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void applyBatchNotifiesEachChangedUriOnce() throws OperationApplicationException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int quantity = 4; quantity < 14; quantity++) {
+            operations.add(ContentProviderOperation.newUpdate(productUri)
+                    .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity).build());
+        }
+        TestProducts.resetMetrics();
+
+        assertEquals(10, mProvider.applyBatch(operations).length);
+
+        assertEquals(13, TestProducts.queryLong(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        // The product and the ledger, once each after the commit
+        assertEquals(2, TestProducts.resetMetrics().getLong(Metrics.EXTRA_NOTIFICATIONS));
+    }
+}
@@ -0,0 +1,633 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.Snapshots;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput and latency of the provider workloads on the JVM, timed around each call through
+ * the content resolver. The numbers come from the SQLite of the machine running the tests, not
+ * from a device: they catch regressions of the data layer, such as a lost index or a transaction
+ * per row, not the speed of the app. The workloads first run untimed on a small catalog of
+ * another store, so the timed calls don't include the JIT or the creation of the schema. The
+ * queries by ID run a second time while another thread inserts products in bursts: with
+ * write-ahead logging their 90th and 99th percentile latencies must stay within a few times
+ * those of the first run. The sales also run a second
+ * time while another thread writes snapshots of the whole store back to back, which copy the
+ * database on a connection of their own and must not hold the sales off.
+ * <p>
+ * The reads, updates and deletes by ID also run straight on a store database, once with the
+ * compiled statements the provider keeps and once with the generic calls, and the speedup of
+ * the compiled ones is reported. The sales run once more with and without the triggers keeping
+ * the sync versions, to report the cost of the sync on every sale.
+ * <p>
+ * The benchmark takes minutes and its timings depend on the machine, so it is skipped unless
+ * run with {@code -Dbenchmark=true}. The catalog holds 1000 products by default. Add
+ * {@code -Dbenchmark.rows=100000}, about 5 minutes, or {@code 1000000}, about 10 minutes,
+ * for the larger catalogs. A workload fails if its 90th percentile latency is above
+ * {@code benchmark.tolerance} times the limit in benchmark_baseline.properties for that size,
+ * 2 by default. Sizes without limits are only reported.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderBenchmarkTest {
+
+    private static final boolean ENABLED = Boolean.getBoolean("benchmark");
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1000);
+    private static final double TOLERANCE =
+            Double.parseDouble(System.getProperty("benchmark.tolerance", "2"));
+
+    /**
+     * Rows per bulk insert, the size of a chunk of the CSV import.
+     */
+    private static final int INSERT_CHUNK_SIZE = 500;
+
+    /**
+     * Chunks inserted one row at a time, to compare with the bulk inserts, and the least speedup
+     * of the bulk inserts over them. A transaction and the notifications per row cost far more
+     * than the bulk insert of a full chunk.
+     */
+    private static final int PER_ROW_INSERT_CHUNKS = 2;
+    private static final double MIN_BULK_INSERT_SPEEDUP = 2;
+
+    /**
+     * Most the 90th and 99th percentile latencies of the reads by ID may grow while another
+     * thread writes, over the same reads alone in the same run. Measured up to 2.5x, at either
+     * percentile and catalog size.
+     */
+    private static final double MAX_DURING_WRITES_SLOWDOWN = 4;
+
+    /**
+     * Calls of each single row workload, on distinct products.
+     */
+    private static final int SAMPLE_SIZE = 1000;
+
+    /**
+     * Store and catalog size of the untimed run.
+     */
+    private static final long WARM_UP_STORE_ID = 1;
+    private static final int WARM_UP_ROWS = 2000;
+
+    /**
+     * Calls of the full list workload.
+     */
+    private static final int LIST_QUERIES = 5;
+
+    /**
+     * Stores of the comparison of the compiled statements with the generic calls, untimed then
+     * timed.
+     */
+    private static final long STATEMENTS_WARM_UP_STORE_ID = 2;
+    private static final long STATEMENTS_STORE_ID = 3;
+
+    /**
+     * Stores of the cost of the sync triggers on the sales, untimed then timed, the trigger
+     * the sales run, and the most it may slow them down, beyond the tolerance.
+     */
+    private static final long SYNC_TRIGGERS_WARM_UP_STORE_ID = 4;
+    private static final long SYNC_TRIGGERS_STORE_ID = 5;
+    private static final String SYNC_UPDATE_TRIGGER = "products_sync_au";
+    private static final double MAX_SYNC_TRIGGER_SLOWDOWN = 1.5;
+
+    /**
+     * Statements of the same shape as the single product writes of the provider.
+     */
+    private static final String SQL_SELECT_QUANTITY = "SELECT " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME +
+            " WHERE " + ProductEntry._ID + " = ?";
+    private static final String SQL_UPDATE_PRICE = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            ProductEntry.COLUMN_PRODUCT_PRICE + " = ? WHERE " + ProductEntry._ID + " = ?";
+    private static final String SQL_DELETE = "DELETE FROM " + ProductEntry.TABLE_NAME +
+            " WHERE " + ProductEntry._ID + " = ?";
+    private static final String SELECTION_ID = ProductEntry._ID + " = ?";
+
+    private final Random mRandom = new Random(42);
+    private final List<String> mFailures = new ArrayList<>();
+    private Properties mBaseline;
+    private ItemProvider mProvider;
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("Run with -Dbenchmark=true", ENABLED);
+        mProvider = TestProducts.setUpProvider();
+        mContentResolver = TestProducts.contentResolver();
+        mBaseline = new Properties();
+        InputStream input = getClass().getClassLoader()
+                .getResourceAsStream("benchmark_baseline.properties");
+        if (input != null) {
+            try {
+                mBaseline.load(input);
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    @Test
+    public void providerWorkloads() {
+        runWorkloads(StoreEntry.buildStoreUri(WARM_UP_STORE_ID, ProductEntry.CONTENT_URI),
+                WARM_UP_STORE_ID, WARM_UP_ROWS, false);
+        runWorkloads(ProductEntry.CONTENT_URI, StoreEntry.DEFAULT_STORE_ID, ROWS, true);
+        if (!mFailures.isEmpty()) {
+            fail("Regressed beyond " + TOLERANCE + "x the baseline: " + mFailures);
+        }
+    }
+
+    @Test
+    public void compiledStatementWorkloads() {
+        runStatementWorkloads(STATEMENTS_WARM_UP_STORE_ID, false);
+        runStatementWorkloads(STATEMENTS_STORE_ID, true);
+        if (!mFailures.isEmpty()) {
+            fail("Regressed beyond " + TOLERANCE + "x the baseline: " + mFailures);
+        }
+    }
+
+    @Test
+    public void syncTriggerWorkloads() {
+        runSyncTriggerWorkloads(SYNC_TRIGGERS_WARM_UP_STORE_ID, false);
+        runSyncTriggerWorkloads(SYNC_TRIGGERS_STORE_ID, true);
+        if (!mFailures.isEmpty()) {
+            fail("Regressed beyond " + TOLERANCE + "x the baseline: " + mFailures);
+        }
+    }
+
+    /**
+     * Sell every product of a new store once with the triggers giving the sold products a new
+     * sync version, then again without them, and report the cost they add to each sale.
+     *
+     * @param report true to report the timings, false to only warm up
+     */
+    private void runSyncTriggerWorkloads(long storeId, boolean report) {
+        Uri productsUri = StoreEntry.buildStoreUri(storeId, ProductEntry.CONTENT_URI);
+        ContentValues[] values = new ContentValues[SAMPLE_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Product " + i, 100 + i, 1000, "Supplier " + i % 50);
+        }
+        assertEquals(values.length, mContentResolver.bulkInsert(productsUri, values));
+        long[] ids = sampleIds(values.length, values.length);
+        Bundle extras = new Bundle();
+        extras.putLong(StoreEntry.EXTRA_STORE_ID, storeId);
+
+        long[] synced = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long start = System.nanoTime();
+            mContentResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                    String.valueOf(ids[i]), extras);
+            synced[i] = System.nanoTime() - start;
+        }
+        // A sale only changes the quantity, the trigger on the updates of the products is the
+        // one it runs
+        mProvider.getStore(storeId).getWritableDatabase().execSQL(
+                "DROP TRIGGER " + SYNC_UPDATE_TRIGGER);
+        long[] unsynced = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long start = System.nanoTime();
+            mContentResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                    String.valueOf(ids[i]), extras);
+            unsynced[i] = System.nanoTime() - start;
+        }
+
+        report(report, "update_quantity_with_sync", synced, 1);
+        report(report, "update_quantity_without_sync", unsynced, 1);
+        if (!report) {
+            return;
+        }
+        long costNanos = median(synced) - median(unsynced);
+        double slowdown = (double) median(synced) / Math.max(1, median(unsynced));
+        System.out.println(String.format(Locale.ROOT,
+                "update_quantity: the sync triggers add %d us per sale, %.2fx the sale without them",
+                costNanos / 1000, slowdown));
+        if (slowdown > MAX_SYNC_TRIGGER_SLOWDOWN * TOLERANCE) {
+            mFailures.add("update_quantity with sync " + String.format(Locale.ROOT, "%.2f", slowdown) +
+                    "x the sale without it");
+        }
+    }
+
+    /**
+     * Read, update and delete products by ID, once with compiled statements bound to the ID and
+     * once with the generic query, update and delete calls building the SQL and its arguments
+     * on every call, straight on the database of a new store.
+     *
+     * @param report true to report the timings, false to only warm up
+     */
+    private void runStatementWorkloads(long storeId, boolean report) {
+        // Half of the products are deleted with each kind of call
+        Uri productsUri = StoreEntry.buildStoreUri(storeId, ProductEntry.CONTENT_URI);
+        ContentValues[] values = new ContentValues[SAMPLE_SIZE * 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Product " + i, 100 + i, 1000, "Supplier " + i % 50);
+        }
+        assertEquals(values.length, mContentResolver.bulkInsert(productsUri, values));
+        long[] ids = sampleIds(values.length, values.length);
+        long[] compiledIds = Arrays.copyOfRange(ids, 0, SAMPLE_SIZE);
+        long[] genericIds = Arrays.copyOfRange(ids, SAMPLE_SIZE, ids.length);
+        StoreDatabase store = mProvider.getStore(storeId);
+        SQLiteDatabase database = store.getWritableDatabase();
+
+        long[] compiled = new long[SAMPLE_SIZE];
+        long[] generic = new long[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            long start = System.nanoTime();
+            SQLiteStatement select = store.getStatement(database, SQL_SELECT_QUANTITY);
+            select.bindLong(1, compiledIds[i]);
+            assertEquals(1000, select.simpleQueryForLong());
+            select.clearBindings();
+            compiled[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Cursor cursor = database.query(ProductEntry.TABLE_NAME,
+                    new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, SELECTION_ID,
+                    new String[]{String.valueOf(genericIds[i])}, null, null, null);
+            cursor.moveToFirst();
+            assertEquals(1000, cursor.getLong(0));
+            cursor.close();
+            generic[i] = System.nanoTime() - start;
+        }
+        compare(report, "select_by_id", compiled, generic);
+
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            long start = System.nanoTime();
+            SQLiteStatement update = store.getStatement(database, SQL_UPDATE_PRICE);
+            update.bindLong(1, 200 + i);
+            update.bindLong(2, compiledIds[i]);
+            assertEquals(1, update.executeUpdateDelete());
+            update.clearBindings();
+            compiled[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ContentValues price = new ContentValues();
+            price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 200 + i);
+            assertEquals(1, database.update(ProductEntry.TABLE_NAME, price, SELECTION_ID,
+                    new String[]{String.valueOf(genericIds[i])}));
+            generic[i] = System.nanoTime() - start;
+        }
+        compare(report, "update_by_id", compiled, generic);
+
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            long start = System.nanoTime();
+            SQLiteStatement delete = store.getStatement(database, SQL_DELETE);
+            delete.bindLong(1, compiledIds[i]);
+            assertEquals(1, delete.executeUpdateDelete());
+            delete.clearBindings();
+            compiled[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, database.delete(ProductEntry.TABLE_NAME, SELECTION_ID,
+                    new String[]{String.valueOf(genericIds[i])}));
+            generic[i] = System.nanoTime() - start;
+        }
+        compare(report, "delete_by_id", compiled, generic);
+    }
+
+    /**
+     * Report the compiled and generic runs of a workload, and the speedup of the compiled one
+     * at the median: the checkpoints of the log land on either run and make the totals noisy.
+     * The compiled calls must not be slower than the generic ones beyond the tolerance.
+     */
+    private void compare(boolean report, String workload, long[] compiledNanos, long[] genericNanos) {
+        report(report, workload + "_compiled", compiledNanos, 1);
+        report(report, workload + "_generic", genericNanos, 1);
+        if (!report) {
+            return;
+        }
+        double speedup = (double) median(genericNanos) / Math.max(1, median(compiledNanos));
+        System.out.println(String.format(Locale.ROOT, "%s: compiled %.2fx the generic calls",
+                workload, speedup));
+        if (speedup * TOLERANCE < 1) {
+            mFailures.add(workload + " compiled " + String.format(Locale.ROOT, "%.2f", speedup) +
+                    "x the generic calls");
+        }
+    }
+
+    /**
+     * Print how much slower a workload ran than the same calls run alone, at the 90th and 99th
+     * percentiles. With write-ahead logging the reads don't wait for the writes: beyond
+     * {@link #MAX_DURING_WRITES_SLOWDOWN} times slower at either percentile, they do.
+     */
+    private void compareSlowdown(boolean report, String workload, long[] aloneNanos, long[] nanos) {
+        if (!report) {
+            return;
+        }
+        long[] sortedAlone = aloneNanos.clone();
+        Arrays.sort(sortedAlone);
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double[] fractions = {0.9, 0.99};
+        for (double fraction : fractions) {
+            double slowdown = (double) percentileMicros(sorted, fraction) /
+                    Math.max(1, percentileMicros(sortedAlone, fraction));
+            String percentile = "p" + Math.round(fraction * 100);
+            System.out.println(String.format(Locale.ROOT, "%s: %s %.2fx the calls alone",
+                    workload, percentile, slowdown));
+            if (slowdown > MAX_DURING_WRITES_SLOWDOWN) {
+                mFailures.add(workload + " " + percentile + " " +
+                        String.format(Locale.ROOT, "%.2f", slowdown) + "x the calls alone");
+            }
+        }
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Insert a catalog of the given size into an empty store, then query, sell and delete a
+     * sample of its products one by one.
+     *
+     * @param report true to report the timings, false to only warm up
+     */
+    private void runWorkloads(Uri productsUri, long storeId, int rows, boolean report) {
+        int chunks = (rows + INSERT_CHUNK_SIZE - 1) / INSERT_CHUNK_SIZE;
+        long[] nanos = new long[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int first = chunk * INSERT_CHUNK_SIZE;
+            ContentValues[] values = new ContentValues[Math.min(INSERT_CHUNK_SIZE, rows - first)];
+            for (int i = 0; i < values.length; i++) {
+                int row = first + i;
+                values[i] = TestProducts.product("Product " + row, 100 + row % 5000,
+                        1000, "Supplier " + row % 50);
+            }
+            long start = System.nanoTime();
+            assertEquals(values.length, mContentResolver.bulkInsert(productsUri, values));
+            nanos[chunk] = System.nanoTime() - start;
+        }
+        report(report, "bulk_insert", nanos, (double) rows / chunks);
+        long bulkChunkNanos = median(nanos);
+
+        long[] ids = sampleIds(rows, SAMPLE_SIZE);
+        nanos = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(
+                    ContentUris.withAppendedId(productsUri, ids[i]), null, null, null, null);
+            cursor.moveToFirst();
+            cursor.close();
+            nanos[i] = System.nanoTime() - start;
+        }
+        report(report, "query_by_id", nanos, 1);
+        long[] queryByIdNanos = nanos;
+
+        nanos = new long[LIST_QUERIES];
+        for (int i = 0; i < nanos.length; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(productsUri, null, null, null, null);
+            // Read every window of the list, as scrolling to its end would
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+            cursor.close();
+            nanos[i] = System.nanoTime() - start;
+        }
+        report(report, "query_list", nanos, rows);
+
+        Bundle extras = new Bundle();
+        extras.putLong(StoreEntry.EXTRA_STORE_ID, storeId);
+        nanos = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long start = System.nanoTime();
+            mContentResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                    String.valueOf(ids[i]), extras);
+            nanos[i] = System.nanoTime() - start;
+        }
+        report(report, "update_quantity", nanos, 1);
+
+        nanos = readDuringWrites(productsUri, ids);
+        report(report, "query_by_id_during_writes", nanos, 1);
+        compareSlowdown(report, "query_by_id_during_writes", queryByIdNanos, nanos);
+        report(report, "update_quantity_during_snapshot", sellDuringSnapshots(storeId, ids), 1);
+
+        nanos = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long start = System.nanoTime();
+            assertEquals(1, mContentResolver.delete(
+                    ContentUris.withAppendedId(productsUri, ids[i]), null, null));
+            nanos[i] = System.nanoTime() - start;
+        }
+        report(report, "delete", nanos, 1);
+
+        // The same chunk again, one insert call per row, as the import did before bulk inserts
+        ContentValues[] values = new ContentValues[INSERT_CHUNK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Single " + i, 100 + i, 1000, "Supplier " + i % 50);
+        }
+        nanos = new long[PER_ROW_INSERT_CHUNKS];
+        for (int chunk = 0; chunk < nanos.length; chunk++) {
+            long start = System.nanoTime();
+            for (ContentValues row : values) {
+                mContentResolver.insert(productsUri, row);
+            }
+            nanos[chunk] = System.nanoTime() - start;
+        }
+        report(report, "per_row_insert", nanos, values.length);
+        if (report && rows >= INSERT_CHUNK_SIZE) {
+            double speedup = (double) median(nanos) / Math.max(1, bulkChunkNanos);
+            System.out.println(String.format(Locale.ROOT,
+                    "bulk_insert: %.1fx the rows/s of per_row_insert", speedup));
+            if (speedup < MIN_BULK_INSERT_SPEEDUP) {
+                mFailures.add("bulk_insert " + String.format(Locale.ROOT, "%.1f", speedup) +
+                        "x the rows/s of per_row_insert, less than " + MIN_BULK_INSERT_SPEEDUP + "x");
+            }
+        }
+    }
+
+    /**
+     * Query the products by ID one by one while another thread inserts chunks of products
+     * back to back, and return the time taken by each query.
+     */
+    private long[] readDuringWrites(final Uri productsUri, long[] ids) {
+        final ContentValues[] values = new ContentValues[INSERT_CHUNK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestProducts.product("Burst " + i, 100, 1, "Supplier " + i % 50);
+        }
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<RuntimeException> writeFailure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.countDown();
+                    while (writing.get()) {
+                        mContentResolver.bulkInsert(productsUri, values);
+                    }
+                } catch (RuntimeException e) {
+                    writeFailure.set(e);
+                }
+            }
+        });
+        writer.start();
+
+        long[] nanos = new long[ids.length];
+        try {
+            started.await();
+            for (int i = 0; i < ids.length; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = mContentResolver.query(
+                        ContentUris.withAppendedId(productsUri, ids[i]), null, null, null, null);
+                cursor.moveToFirst();
+                cursor.close();
+                nanos[i] = System.nanoTime() - start;
+            }
+            writing.set(false);
+            writer.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            writing.set(false);
+        }
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+        return nanos;
+    }
+
+    /**
+     * Sell the products by ID one by one while another thread writes snapshots of the whole
+     * store back to back, and return the time taken by each sale.
+     */
+    private long[] sellDuringSnapshots(final long storeId, long[] ids) {
+        final File file = new File(RuntimeEnvironment.getApplication().getFilesDir(),
+                "benchmark_snapshot.db");
+        final Bundle extras = new Bundle();
+        extras.putLong(StoreEntry.EXTRA_STORE_ID, storeId);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger snapshots = new AtomicInteger();
+        final AtomicReference<RuntimeException> snapshotFailure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread snapshotter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.countDown();
+                    while (writing.get()) {
+                        if (mContentResolver.call(ProductEntry.CONTENT_URI, Snapshots.METHOD_SNAPSHOT,
+                                file.getPath(), extras) == null) {
+                            throw new IllegalStateException("Snapshot failed");
+                        }
+                        snapshots.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    snapshotFailure.set(e);
+                }
+            }
+        });
+        snapshotter.start();
+
+        long[] nanos = new long[ids.length];
+        try {
+            started.await();
+            for (int i = 0; i < ids.length; i++) {
+                long start = System.nanoTime();
+                mContentResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                        String.valueOf(ids[i]), extras);
+                nanos[i] = System.nanoTime() - start;
+            }
+            writing.set(false);
+            snapshotter.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            writing.set(false);
+            file.delete();
+        }
+        if (snapshotFailure.get() != null) {
+            throw snapshotFailure.get();
+        }
+        // Not a workload of the snapshots if none overlapped the sales
+        assertTrue("No snapshot during the sales", snapshots.get() > 0);
+        return nanos;
+    }
+
+    /**
+     * Return distinct IDs of the catalog in random order, at most {@code count} of them. The
+     * products of a new store are numbered from 1.
+     */
+    private long[] sampleIds(int rows, int count) {
+        long[] ids = new long[rows];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        long[] sample = new long[Math.min(rows, count)];
+        for (int i = 0; i < sample.length; i++) {
+            int j = i + mRandom.nextInt(ids.length - i);
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        System.arraycopy(ids, 0, sample, 0, sample.length);
+        return sample;
+    }
+
+    /**
+     * Print the throughput and latency percentiles of the calls of a workload, and compare its
+     * 90th percentile with the baseline.
+     *
+     * @param report      false to ignore the timings
+     * @param nanos       time taken by each call
+     * @param rowsPerCall rows each call handles on average, to report rows per second
+     */
+    private void report(boolean report, String workload, long[] nanos, double rowsPerCall) {
+        if (!report) {
+            return;
+        }
+        long totalNanos = 0;
+        for (long callNanos : nanos) {
+            totalNanos += callNanos;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long p50 = percentileMicros(sorted, 0.5);
+        long p90 = percentileMicros(sorted, 0.9);
+        long p99 = percentileMicros(sorted, 0.99);
+        System.out.println(String.format(Locale.ROOT,
+                "%s at %d rows: %d calls, %.0f rows/s, p50 %d us, p90 %d us, p99 %d us",
+                workload, ROWS, nanos.length, nanos.length * rowsPerCall * 1e9 / Math.max(1, totalNanos),
+                p50, p90, p99));
+
+        String limit = mBaseline.getProperty(ROWS + "." + workload + ".p90_micros");
+        if (limit != null && p90 > Long.parseLong(limit) * TOLERANCE) {
+            mFailures.add(workload + " p90 " + p90 + " us, baseline " + limit + " us");
+        }
+    }
+
+    private static long percentileMicros(long[] sortedNanos, double fraction) {
+        int index = (int) Math.ceil(sortedNanos.length * fraction) - 1;
+        return sortedNanos[Math.max(0, index)] / 1000;
+    }
+}
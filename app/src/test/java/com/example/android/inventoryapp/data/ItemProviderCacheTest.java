@@ -0,0 +1,168 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StatsEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The cached reads and the compiled statement writes of {@link ItemProvider}: a read by ID
+ * served from the cache always sees the writes committed before it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderCacheTest {
+
+    private static final int THREADS = 4;
+    private static final int DELETES_PER_THREAD = 100;
+    private static final int PAGE_SIZE = 50;
+
+    private static final long OTHER_STORE_ID = 2;
+
+    private Uri mProductUri;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        mProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+    }
+
+    @Test
+    public void repeatedReadIsServedFromTheCache() {
+        TestProducts.resetMetrics();
+
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        Bundle metrics = TestProducts.resetMetrics();
+        assertEquals(1, metrics.getLong(Metrics.EXTRA_CACHE_MISSES));
+        assertEquals(1, metrics.getLong(Metrics.EXTRA_CACHE_HITS));
+    }
+
+    @Test
+    public void pagesOfTheListLeaveTheCachedReadsAlone() {
+        ContentValues[] products = new ContentValues[PAGE_SIZE * 4];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = TestProducts.product("Product " + i, 100, 1, "Jedi");
+        }
+        TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, products);
+        TestProducts.resetMetrics();
+
+        // Scroll the list to its end, opening the first product and the totals on every page,
+        // while a sale in another store goes on
+        long afterId = 0;
+        int rows;
+        do {
+            Uri page = ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .build();
+            rows = TestProducts.count(page);
+            afterId += rows;
+            assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+            TestProducts.count(StatsEntry.CONTENT_URI);
+            TestProducts.insert(StoreEntry.buildStoreUri(OTHER_STORE_ID, ProductEntry.CONTENT_URI),
+                    TestProducts.product("Robe", 99, 7, "Jedi"));
+        } while (rows == PAGE_SIZE);
+
+        Bundle metrics = TestProducts.resetMetrics();
+        // Only the first read of the product and of the totals missed
+        assertEquals(2, metrics.getLong(Metrics.EXTRA_CACHE_MISSES));
+        assertTrue(metrics.getLong(Metrics.EXTRA_CACHE_HITS) > 0);
+        assertEquals(2, metrics.getInt(Metrics.EXTRA_CACHE_ENTRIES));
+    }
+
+    @Test
+    public void cachedReadSeesTheUpdate() {
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 8);
+        assertEquals(1, TestProducts.contentResolver().update(mProductUri, values, null, null));
+
+        assertEquals(8, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void cachedReadSeesTheSales() {
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        // Each sale reuses the compiled statements of the first one
+        for (int quantity = 2; quantity >= 0; quantity--) {
+            Bundle result = TestProducts.contentResolver().call(ProductEntry.CONTENT_URI,
+                    ProductEntry.METHOD_SELL, mProductUri.getLastPathSegment(), null);
+            assertEquals(quantity, result.getInt(ProductEntry.EXTRA_NEW_QUANTITY));
+            assertEquals(quantity, TestProducts.queryLong(mProductUri,
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        }
+    }
+
+    @Test
+    public void cachedReadSeesTheDelete() {
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        assertEquals(1, TestProducts.contentResolver().delete(mProductUri, null, null));
+
+        assertEquals(-1, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(0, TestProducts.count(ProductEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void concurrentDeletesByIdEachDeleteTheirProduct() throws Exception {
+        ContentValues[] products = new ContentValues[THREADS * DELETES_PER_THREAD];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = TestProducts.product("Product " + i, 100, 1, "Jedi");
+        }
+        TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, products);
+        // The products after the first one, numbered from 2
+        final long firstId = ContentUris.parseId(mProductUri) + 1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> deleted = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                final int first = thread * DELETES_PER_THREAD;
+                // Each thread binds the compiled delete outside of any transaction
+                deleted.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int rows = 0;
+                        for (int i = first; i < first + DELETES_PER_THREAD; i++) {
+                            rows += TestProducts.contentResolver().delete(ContentUris.withAppendedId(
+                                    ProductEntry.CONTENT_URI, firstId + i), null, null);
+                        }
+                        return rows;
+                    }
+                }));
+            }
+            for (Future<Integer> rows : deleted) {
+                assertEquals(DELETES_PER_THREAD, (int) rows.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(3, TestProducts.queryLong(mProductUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The CSV export of the products, read from the pipe opened by {@link ItemProvider#openFile}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderExportTest {
+
+    private static final long WRITE_TIMEOUT_MILLIS = 10000;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+    }
+
+    @Test
+    public void exportHoldsEveryProduct() throws IOException, InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            TestProducts.insert(TestProducts.product("Product " + i, 100 + i, i, "Jedi"));
+        }
+
+        List<String> lines = readExport();
+
+        assertEquals(301, lines.size());
+        assertTrue(lines.get(1), lines.get(1).startsWith("Product 0,"));
+        assertTrue(lines.get(300), lines.get(300).startsWith("Product 299,"));
+    }
+
+    @Test
+    public void exportCanBeOpenedAgain() throws IOException, InterruptedException {
+        TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+
+        // Each export owns its pipe, the writer of the first one closed only its own end
+        assertEquals(2, readExport().size());
+        assertEquals(2, readExport().size());
+    }
+
+    @Test
+    public void exportedReorderThresholdIsImportedBack() throws IOException, InterruptedException {
+        ContentValues values = TestProducts.product("Saber", 1250, 3, "Jedi");
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, 4);
+        TestProducts.insert(values);
+
+        List<String> lines = readExport();
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+        ContentValues imported = ProductCsv.parseRecord(Arrays.asList(lines.get(1).split(",")),
+                ProductCsv.parseHeader(header));
+        assertEquals(4, (int) imported.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD));
+
+        // Files exported before the threshold leave it to the default
+        List<String> oldHeader = header.subList(0, header.size() - 1);
+        imported = ProductCsv.parseRecord(Arrays.asList(lines.get(1).split(",")),
+                ProductCsv.parseHeader(oldHeader));
+        assertFalse(imported.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD));
+        assertEquals(3, (int) imported.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    /**
+     * Open the export, wait for its writer to finish, and return its lines. The pipes of the
+     * JVM tests are files: the reader sees an end of file as soon as it catches up with the
+     * writer, instead of waiting for it.
+     */
+    private static List<String> readExport() throws IOException, InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) AsyncTask.THREAD_POOL_EXECUTOR;
+        long tasks = executor.getTaskCount();
+        ParcelFileDescriptor input = TestProducts.contentResolver()
+                .openFileDescriptor(ProductEntry.CONTENT_EXPORT_URI, "r");
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+        while (executor.getCompletedTaskCount() <= tasks) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("The export was not written");
+            }
+            Thread.sleep(10);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ParcelFileDescriptor.AutoCloseInputStream(input), StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
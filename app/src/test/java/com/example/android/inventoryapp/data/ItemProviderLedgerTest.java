@@ -0,0 +1,156 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The stock ledger: movements applied to the stock, compaction, and the low stock query of a
+ * range of the ledger.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderLedgerTest {
+
+    /**
+     * Compaction time that takes in every movement written by the test.
+     */
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+    }
+
+    @Test
+    public void compactionKeepsTheStockInTheFirstSnapshot() {
+        long id = insertProduct("Saber", 10, 5);
+        long createdId = latestMovementId();
+        sell(id, 2);
+        sell(id, 3);
+        restock(id, 4);
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Uri movementsUri = StockMovementEntry.buildProductMovementsUri(id);
+        assertEquals(9, TestProducts.queryLong(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(4, TestProducts.count(movementsUri));
+
+        assertEquals(3, compact().getInt(StockMovementEntry.EXTRA_ROWS_DELETED));
+
+        assertEquals(9, TestProducts.queryLong(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(1, TestProducts.count(movementsUri));
+        assertEquals(createdId, TestProducts.queryLong(movementsUri, StockMovementEntry._ID));
+        assertEquals(StockMovementEntry.TYPE_SNAPSHOT,
+                TestProducts.queryLong(movementsUri, StockMovementEntry.COLUMN_TYPE));
+        assertEquals(9, TestProducts.queryLong(movementsUri, StockMovementEntry.COLUMN_QUANTITY_CHANGE));
+        // Nothing left to fold
+        assertEquals(0, compact().getInt(StockMovementEntry.EXTRA_ROWS_DELETED));
+
+        sell(id, 1);
+        assertEquals(8, TestProducts.queryLong(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void compactedRangeListsOnlyTheProductsNewlyLow() {
+        // Low before the range, and lower within it
+        long saber = insertProduct("Saber", 10, 5);
+        sell(saber, 6);
+        long checkedId = latestMovementId();
+        sell(saber, 1);
+        // Created low, and created then sold below the threshold
+        insertProduct("Helmet", 2, 5);
+        long robe = insertProduct("Robe", 10, 5);
+        sell(robe, 6);
+        long latestId = latestMovementId();
+
+        List<String> before = queryLowStock(checkedId, latestId);
+        compact();
+
+        assertEquals(Arrays.asList("Helmet", "Robe"), before);
+        // The compacted sales of Saber are not taken for a new product
+        assertEquals(before, queryLowStock(checkedId, latestId));
+    }
+
+    /**
+     * Insert a product into the default store and return its ID.
+     */
+    private static long insertProduct(String name, int quantity, int reorderThreshold) {
+        ContentValues values = TestProducts.product(name, 1250, quantity, "Jedi");
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, reorderThreshold);
+        return TestProducts.insert(values);
+    }
+
+    private static void sell(long id, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_QUANTITY, quantity);
+        TestProducts.contentResolver().call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(id), extras);
+    }
+
+    private static void restock(long id, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(StockMovementEntry.COLUMN_PRODUCT_ID, id);
+        values.put(StockMovementEntry.COLUMN_TYPE, StockMovementEntry.TYPE_RESTOCK);
+        values.put(StockMovementEntry.COLUMN_QUANTITY_CHANGE, quantity);
+        TestProducts.contentResolver().insert(StockMovementEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Compact every movement of the default store.
+     */
+    private static Bundle compact() {
+        Bundle extras = new Bundle();
+        extras.putLong(StockMovementEntry.EXTRA_BEFORE_MILLIS, System.currentTimeMillis() + HOUR_MILLIS);
+        return TestProducts.contentResolver().call(StockMovementEntry.CONTENT_URI,
+                StockMovementEntry.METHOD_COMPACT, null, extras);
+    }
+
+    private static long latestMovementId() {
+        Cursor cursor = TestProducts.contentResolver().query(StockMovementEntry.CONTENT_URI,
+                new String[]{StockMovementEntry._ID}, null, null, StockMovementEntry._ID + " DESC");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the names of the products that went below their threshold in the range of the
+     * ledger, as {@link com.example.android.inventoryapp.LowStockMonitor} queries them.
+     */
+    private static List<String> queryLowStock(long changedAfter, long changedUntil) {
+        Uri uri = ProductEntry.CONTENT_LOW_STOCK_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_AFTER,
+                        String.valueOf(changedAfter))
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_UNTIL,
+                        String.valueOf(changedUntil))
+                .build();
+        List<String> names = new ArrayList<>();
+        Cursor cursor = TestProducts.contentResolver().query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null,
+                ProductEntry.COLUMN_PRODUCT_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The full-text search of the products: every word of the text matches a prefix of the product
+ * or supplier name, the best matches come first, and the triggers keep the index in step with
+ * the products and their suppliers.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderSearchTest {
+
+    private long mSaberId;
+    private long mStaffId;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+        mSaberId = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        mStaffId = TestProducts.insert(TestProducts.product("Saber staff", 1500, 1, "Sith"));
+        TestProducts.insert(TestProducts.product("Robe", 99, 7, "Jedi"));
+    }
+
+    @Test
+    public void wordsMatchPrefixesOfProductAndSupplierNames() {
+        assertEquals(Arrays.asList("Saber", "Saber staff"), sorted(search("sab")));
+        assertEquals(Arrays.asList("Robe", "Saber"), sorted(search("JED")));
+        // Every word has to match
+        assertEquals(Collections.singletonList("Saber"), search("sab jed"));
+    }
+
+    @Test
+    public void productsMatchingMoreOfTheTextComeFirst() {
+        // "s" matches three words of the staff, only the name of the saber, and not the robe
+        assertEquals(Arrays.asList("Saber staff", "Saber"), search("s"));
+    }
+
+    @Test
+    public void textWithoutWordsMatchesNothing() {
+        // The full-text query syntax is not passed through
+        assertEquals(0, search("\"* OR -").size());
+        assertEquals(Collections.singletonList("Robe"), search("rob*\""));
+    }
+
+    @Test
+    public void indexFollowsTheProductsAndTheirSuppliers() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Lightsaber");
+        TestProducts.contentResolver().update(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mSaberId), values, null, null);
+        assertEquals(Collections.singletonList("Saber staff"), search("sab"));
+        assertEquals(Collections.singletonList("Lightsaber"), search("light"));
+
+        long supplierId = TestProducts.queryLong(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mStaffId),
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+        values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Empire");
+        TestProducts.contentResolver().update(
+                ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId), values, null, null);
+        assertEquals(Collections.singletonList("Saber staff"), search("emp"));
+        assertEquals(0, search("sith").size());
+
+        TestProducts.contentResolver().delete(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mStaffId), null, null);
+        assertEquals(0, search("emp").size());
+    }
+
+    @Test
+    public void limitKeepsTheBestMatches() {
+        Uri uri = ProductEntry.buildSearchUri("s").buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, "1")
+                .build();
+        assertEquals(Collections.singletonList("Saber staff"), queryNames(uri));
+    }
+
+    /**
+     * Return the names of the products found for the text, in the order of the results.
+     */
+    private static List<String> search(String text) {
+        return queryNames(ProductEntry.buildSearchUri(text));
+    }
+
+    private static List<String> queryNames(Uri uri) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = TestProducts.contentResolver().query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static List<String> sorted(List<String> names) {
+        Collections.sort(names);
+        return names;
+    }
+}
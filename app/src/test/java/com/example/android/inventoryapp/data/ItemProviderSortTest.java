@@ -0,0 +1,108 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The indexed sorts of the product list, and their keyset pages keyed by the columns of
+ * {@link ProductEntry#getSortColumns(String)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderSortTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+        TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        TestProducts.insert(TestProducts.product("robe", 99, 7, "Jedi"));
+        TestProducts.insert(TestProducts.product("Helmet", 500, 2, "Sith"));
+        TestProducts.insert(TestProducts.product("Cape", 500, 7, "Sith"));
+        TestProducts.insert(TestProducts.product("boots", 250, 1, "Jedi"));
+    }
+
+    @Test
+    public void pagesFollowEverySort() {
+        assertEquals(Arrays.asList("Saber", "robe", "Helmet", "Cape", "boots"),
+                queryPages(ProductEntry.SORT_ID));
+        // The names ignore their case
+        assertEquals(Arrays.asList("boots", "Cape", "Helmet", "robe", "Saber"),
+                queryPages(ProductEntry.SORT_NAME));
+        assertEquals(Arrays.asList("boots", "Helmet", "Saber", "robe", "Cape"),
+                queryPages(ProductEntry.SORT_QUANTITY));
+        assertEquals(Arrays.asList("robe", "boots", "Helmet", "Cape", "Saber"),
+                queryPages(ProductEntry.SORT_PRICE));
+        assertEquals(Arrays.asList("Saber", "robe", "boots", "Helmet", "Cape"),
+                queryPages(ProductEntry.SORT_SUPPLIER));
+    }
+
+    @Test
+    public void unknownSortIsRejected() {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_SORT, "name DESC")
+                .build();
+        try {
+            TestProducts.contentResolver().query(uri, null, null, null, null);
+            fail("The sort was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Only the SORT_ values are accepted
+        }
+    }
+
+    /**
+     * Return the names of the products of every page of the sort, each page following the key
+     * of the last product of the previous one.
+     */
+    private static List<String> queryPages(String sort) {
+        String[] sortColumns = ProductEntry.getSortColumns(sort);
+        String[] projection = new String[sortColumns.length + 1];
+        projection[0] = ProductEntry.COLUMN_PRODUCT_NAME;
+        System.arraycopy(sortColumns, 0, projection, 1, sortColumns.length);
+
+        List<String> names = new ArrayList<>();
+        List<String> key = null;
+        while (true) {
+            Uri.Builder builder = ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_SORT, sort)
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+            if (key != null) {
+                for (int i = 0; i < key.size() - 1; i++) {
+                    builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_KEY, key.get(i));
+                }
+                builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID, key.get(key.size() - 1));
+            }
+            Cursor cursor = TestProducts.contentResolver().query(builder.build(), projection,
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return names;
+                }
+                do {
+                    names.add(cursor.getString(0));
+                } while (cursor.moveToNext());
+                cursor.moveToLast();
+                key = new ArrayList<>();
+                for (int i = 1; i < projection.length; i++) {
+                    key.add(cursor.getString(i));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The stores: each store scoped URI reads and writes the database of its own store only, and
+ * the stock of the stores is merged across all of them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderStoreTest {
+
+    private static final long OTHER_STORE_ID = 2;
+
+    private Uri mOtherProductsUri;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+        mOtherProductsUri = StoreEntry.buildStoreUri(OTHER_STORE_ID, ProductEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void storeProductsAreIsolated() {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        long otherId = TestProducts.insert(mOtherProductsUri, TestProducts.product("Robe", 99, 7, "Jedi"));
+        TestProducts.insert(mOtherProductsUri, TestProducts.product("Helmet", 500, 2, "Sith"));
+        // Both stores number their products from 1
+        assertEquals(id, otherId);
+
+        assertEquals(1, TestProducts.count(ProductEntry.CONTENT_URI));
+        assertEquals(2, TestProducts.count(mOtherProductsUri));
+        assertEquals("Saber", TestProducts.queryString(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals("Robe", TestProducts.queryString(
+                ContentUris.withAppendedId(mOtherProductsUri, otherId), ProductEntry.COLUMN_PRODUCT_NAME));
+
+        // Deleting the products of the other store leaves the default store alone
+        assertEquals(2, TestProducts.contentResolver().delete(mOtherProductsUri, null, null));
+        assertEquals(0, TestProducts.count(mOtherProductsUri));
+        assertEquals(3, TestProducts.queryLong(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void storeStockSumsEveryStore() {
+        TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        TestProducts.insert(mOtherProductsUri, TestProducts.product("Saber", 1300, 4, "Jedi"));
+        TestProducts.insert(mOtherProductsUri, TestProducts.product("Robe", 99, 7, "Jedi"));
+
+        assertEquals(Arrays.asList("Robe 7 1", "Saber 7 2"), queryStock(null, null));
+        assertEquals(Arrays.asList("Saber 7 2"), queryStock(
+                ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{"Saber"}));
+    }
+
+    @Test
+    public void storeLowStockIsReadFromItsOwnLedger() {
+        ContentValues values = TestProducts.product("Saber", 1250, 10, "Jedi");
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, 5);
+        TestProducts.insert(values);
+        long otherId = TestProducts.insert(mOtherProductsUri, values);
+        long checkedId = latestMovementId(OTHER_STORE_ID);
+
+        Bundle extras = new Bundle();
+        extras.putLong(StoreEntry.EXTRA_STORE_ID, OTHER_STORE_ID);
+        extras.putInt(ProductEntry.EXTRA_QUANTITY, 6);
+        TestProducts.contentResolver().call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(otherId), extras);
+        long latestId = latestMovementId(OTHER_STORE_ID);
+
+        assertEquals(Arrays.asList("Saber"),
+                queryLowStock(StoreEntry.buildStoreUri(OTHER_STORE_ID, ProductEntry.CONTENT_LOW_STOCK_URI),
+                        checkedId, latestId));
+        // The same range of the ledger of the default store holds no sale
+        assertEquals(0, queryLowStock(ProductEntry.CONTENT_LOW_STOCK_URI, checkedId, latestId).size());
+    }
+
+    /**
+     * Return "name quantity stores" for each row of the stock of the stores.
+     */
+    private static List<String> queryStock(String selection, String[] selectionArgs) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = TestProducts.contentResolver().query(StoreEntry.CONTENT_STOCK_URI,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                        StoreEntry.COLUMN_STORE_COUNT}, selection, selectionArgs, null);
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getString(0) + " " + cursor.getLong(1) + " " + cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static long latestMovementId(long storeId) {
+        Cursor cursor = TestProducts.contentResolver().query(
+                StoreEntry.buildStoreUri(storeId, StockMovementEntry.CONTENT_URI),
+                new String[]{StockMovementEntry._ID}, null, null, StockMovementEntry._ID + " DESC");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> queryLowStock(Uri lowStockUri, long changedAfter, long changedUntil) {
+        Uri uri = lowStockUri.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_AFTER,
+                        String.valueOf(changedAfter))
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_CHANGED_UNTIL,
+                        String.valueOf(changedUntil))
+                .build();
+        List<String> names = new ArrayList<>();
+        Cursor cursor = TestProducts.contentResolver().query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The query results cached by {@link QueryCache}, and their invalidation by the writes to their
+ * store.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryCacheTest {
+
+    private static final long STORE_ID = 0;
+    private static final long OTHER_STORE_ID = 2;
+
+    private final QueryCache mCache = new QueryCache();
+
+    @Test
+    public void hitReturnsACopyOfTheRows() {
+        put(mCache.generation(STORE_ID), 2);
+
+        Cursor cursor = mCache.get(STORE_ID, "key");
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToLast();
+            assertEquals(2, cursor.getLong(0));
+            assertEquals("Product 2", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+        // Every hit gets its own cursor
+        cursor = mCache.get(STORE_ID, "key");
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+        assertEquals(2, mCache.hitCount());
+    }
+
+    @Test
+    public void writeInvalidatesTheEntries() {
+        put(mCache.generation(STORE_ID), 1);
+        mCache.invalidate(STORE_ID);
+
+        assertNull(mCache.get(STORE_ID, "key"));
+        assertEquals(1, mCache.missCount());
+        assertEquals(0, mCache.entryCount());
+    }
+
+    @Test
+    public void writeToAnotherStoreKeepsTheEntries() {
+        put(mCache.generation(STORE_ID), 1);
+        mCache.invalidate(OTHER_STORE_ID);
+
+        Cursor cursor = mCache.get(STORE_ID, "key");
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void resultOfAQueryOverlappingAWriteIsNotCached() {
+        long generation = mCache.generation(STORE_ID);
+        // The write commits while the query runs
+        mCache.invalidate(STORE_ID);
+        put(generation, 1);
+
+        assertNull(mCache.get(STORE_ID, "key"));
+    }
+
+    @Test
+    public void largeResultIsNotCached() {
+        put(mCache.generation(STORE_ID), 1000);
+
+        assertNull(mCache.get(STORE_ID, "key"));
+        assertEquals(0, mCache.entryCount());
+    }
+
+    /**
+     * Cache a result of products under the key, as read at the generation.
+     */
+    private void put(long generation, int count) {
+        Cursor cursor = products(count);
+        try {
+            mCache.put(STORE_ID, "key", generation, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Cursor products(int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{ItemContract.ProductEntry._ID,
+                ItemContract.ProductEntry.COLUMN_PRODUCT_NAME});
+        for (int i = 1; i <= count; i++) {
+            cursor.addRow(new Object[]{(long) i, "Product " + i});
+        }
+        return cursor;
+    }
+}
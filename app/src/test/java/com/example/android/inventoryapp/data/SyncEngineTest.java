@@ -0,0 +1,239 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+import com.example.android.inventoryapp.data.ItemContract.StoreEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sync of two stores through an {@link InMemorySyncBackend}, as two devices sharing a server.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private static final long OTHER_STORE_ID = 2;
+
+    private Context mContext;
+    private InMemorySyncBackend mBackend;
+
+    @Before
+    public void setUp() {
+        TestProducts.setUpProvider();
+        mContext = RuntimeEnvironment.getApplication();
+        mBackend = new InMemorySyncBackend();
+    }
+
+    @Test
+    public void syncCarriesOnlyTheChangesSinceTheLastOne() throws IOException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        TestProducts.insert(TestProducts.product("Robe", 99, 7, "Jedi"));
+        assertResult(0, 2, sync(StoreEntry.DEFAULT_STORE_ID));
+        assertResult(2, 0, sync(OTHER_STORE_ID));
+        assertEquals(2, TestProducts.count(otherStoreUri(ProductEntry.CONTENT_URI)));
+
+        ContentValues price = new ContentValues();
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1500);
+        TestProducts.contentResolver().update(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), price, null, null);
+
+        // The echo of the two products pushed before, and the one changed since
+        assertResult(2, 1, sync(StoreEntry.DEFAULT_STORE_ID));
+        assertResult(1, 0, sync(OTHER_STORE_ID));
+        assertEquals(1500, queryOtherStore("Saber", ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals(99, queryOtherStore("Robe", ProductEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    @Test
+    public void secondSyncPushesNothing() throws IOException {
+        // A full page of changes, then none
+        ContentValues[] products = new ContentValues[SyncEngine.BATCH_SIZE];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = TestProducts.product("Product " + i, 100 + i, i % 10, "Jedi");
+        }
+        TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, products);
+
+        assertResult(0, SyncEngine.BATCH_SIZE, sync(StoreEntry.DEFAULT_STORE_ID));
+        assertResult(SyncEngine.BATCH_SIZE, 0, sync(StoreEntry.DEFAULT_STORE_ID));
+        assertResult(0, 0, sync(StoreEntry.DEFAULT_STORE_ID));
+        // The pulled products are not pushed back
+        assertResult(SyncEngine.BATCH_SIZE, 0, sync(OTHER_STORE_ID));
+        assertResult(0, 0, sync(OTHER_STORE_ID));
+    }
+
+    @Test
+    public void pulledChangesAreNotPushedBackWithTheLocalOnes() throws IOException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 3, "Jedi"));
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        sync(OTHER_STORE_ID);
+        ContentValues price = new ContentValues();
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1500);
+        TestProducts.contentResolver().update(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), price, null, null);
+        sync(StoreEntry.DEFAULT_STORE_ID);
+
+        // A local change waits to be pushed while the new price is merged
+        TestProducts.insert(otherStoreUri(ProductEntry.CONTENT_URI),
+                TestProducts.product("Robe", 99, 7, "Jedi"));
+        assertResult(1, 1, sync(OTHER_STORE_ID));
+        assertEquals(1500, queryOtherStore("Saber", ProductEntry.COLUMN_PRODUCT_PRICE));
+        // The echo of the pushed product only
+        assertResult(1, 0, sync(OTHER_STORE_ID));
+    }
+
+    @Test
+    public void conflictingChangesMergeFieldByField() throws IOException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 10, "Jedi"));
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        sync(OTHER_STORE_ID);
+        long otherId = queryOtherStore("Saber", ProductEntry._ID);
+
+        // Both sides sell and change the price, each changes another field
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1500);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, 4);
+        TestProducts.contentResolver().update(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values, null, null);
+        sell(StoreEntry.DEFAULT_STORE_ID, id, 2);
+        values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Lightsaber");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1400);
+        TestProducts.contentResolver().update(otherStoreUri(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, otherId)), values, null, null);
+        sell(OTHER_STORE_ID, otherId, 3);
+
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        sync(OTHER_STORE_ID);
+        sync(StoreEntry.DEFAULT_STORE_ID);
+
+        Uri defaultUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Uri otherUri = otherStoreUri(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, otherId));
+        for (Uri uri : new Uri[]{defaultUri, otherUri}) {
+            assertEquals("Lightsaber", TestProducts.queryString(uri, ProductEntry.COLUMN_PRODUCT_NAME));
+            // Changed on both sides, the first one to reach the backend wins
+            assertEquals(1500, TestProducts.queryLong(uri, ProductEntry.COLUMN_PRODUCT_PRICE));
+            assertEquals(4, TestProducts.queryLong(uri, ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD));
+            assertEquals(5, TestProducts.queryLong(uri, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        }
+    }
+
+    @Test
+    public void rejectedPushIsMergedAndPushedInTheNextRound() throws IOException {
+        long id = TestProducts.insert(TestProducts.product("Saber", 1250, 10, "Jedi"));
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        sync(OTHER_STORE_ID);
+        long otherId = queryOtherStore("Saber", ProductEntry._ID);
+        sell(StoreEntry.DEFAULT_STORE_ID, id, 2);
+        sell(OTHER_STORE_ID, otherId, 3);
+
+        // The default store pushes its sale between the pull and the push of the other store
+        SyncBackend racingBackend = new SyncBackend() {
+            private boolean mRaced;
+
+            @Override
+            public byte[] pull(String cursor, int limit) throws IOException {
+                return mBackend.pull(cursor, limit);
+            }
+
+            @Override
+            public byte[] push(byte[] changes) throws IOException {
+                if (!mRaced) {
+                    mRaced = true;
+                    sync(StoreEntry.DEFAULT_STORE_ID);
+                }
+                return mBackend.push(changes);
+            }
+        };
+        SyncEngine.Result result = new SyncEngine(mContext, OTHER_STORE_ID, racingBackend).sync();
+
+        assertEquals(1, result.pulled);
+        assertEquals(1, result.pushed);
+        assertEquals(0, result.rejected);
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        assertEquals(5, TestProducts.queryLong(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(5, queryOtherStore("Saber", ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void everyPulledBatchIsVisibleOnceNotified() throws IOException {
+        ContentValues[] products = new ContentValues[SyncEngine.BATCH_SIZE + 1];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = TestProducts.product("Product " + i, 100 + i, i % 10, "Jedi");
+        }
+        TestProducts.contentResolver().bulkInsert(ProductEntry.CONTENT_URI, products);
+        sync(StoreEntry.DEFAULT_STORE_ID);
+        final Uri productsUri = otherStoreUri(ProductEntry.CONTENT_URI);
+        // Cached empty
+        assertEquals(0, TestProducts.count(productsUri));
+
+        final List<Integer> counts = new ArrayList<>();
+        // Without a handler, the observer is called on the thread of the sync
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                counts.add(TestProducts.count(productsUri));
+            }
+        };
+        TestProducts.contentResolver().registerContentObserver(productsUri, false, observer);
+        sync(OTHER_STORE_ID);
+        TestProducts.contentResolver().unregisterContentObserver(observer);
+
+        assertEquals(Arrays.asList(SyncEngine.BATCH_SIZE, SyncEngine.BATCH_SIZE + 1), counts);
+    }
+
+    private SyncEngine.Result sync(long storeId) throws IOException {
+        return new SyncEngine(mContext, storeId, mBackend).sync();
+    }
+
+    private static void assertResult(int pulled, int pushed, SyncEngine.Result result) {
+        assertEquals(pulled, result.pulled);
+        assertEquals(pushed, result.pushed);
+        assertEquals(0, result.rejected);
+    }
+
+    private static void sell(long storeId, long id, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putLong(StoreEntry.EXTRA_STORE_ID, storeId);
+        extras.putInt(ProductEntry.EXTRA_QUANTITY, quantity);
+        TestProducts.contentResolver().call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(id), extras);
+    }
+
+    private static Uri otherStoreUri(Uri uri) {
+        return StoreEntry.buildStoreUri(OTHER_STORE_ID, uri);
+    }
+
+    /**
+     * Return a column of the product of the other store with the name, as a long.
+     */
+    private static long queryOtherStore(String name, String column) {
+        Uri uri = otherStoreUri(ProductEntry.CONTENT_URI);
+        Cursor cursor = TestProducts.contentResolver().query(uri,
+                new String[]{column}, ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{name},
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ItemContract.Metrics;
+import com.example.android.inventoryapp.data.ItemContract.ProductEntry;
+
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Provider and products shared by the JVM tests of the data layer. Robolectric gives every test
+ * a new application with empty storage, so every test starts from empty store databases.
+ */
+final class TestProducts {
+
+    private TestProducts() {
+    }
+
+    /**
+     * Create and register the provider of the app, as the system does on first use.
+     */
+    static ItemProvider setUpProvider() {
+        return Robolectric.setupContentProvider(ItemProvider.class, ItemContract.CONTENT_AUTHORITY);
+    }
+
+    static ContentResolver contentResolver() {
+        return RuntimeEnvironment.getApplication().getContentResolver();
+    }
+
+    /**
+     * Return the values of a product whose supplier phone number derives from the supplier name.
+     */
+    static ContentValues product(String name, long priceCents, int quantity, String supplierName) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceCents);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierName);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555-" + supplierName.length());
+        return values;
+    }
+
+    /**
+     * Insert a product into the default store and return its ID.
+     */
+    static long insert(ContentValues values) {
+        return insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Insert a product with the URI, such as one scoped to a store, and return its ID.
+     */
+    static long insert(Uri uri, ContentValues values) {
+        Uri productUri = contentResolver().insert(uri, values);
+        if (productUri == null) {
+            throw new AssertionError("Product not inserted: " + values);
+        }
+        return ContentUris.parseId(productUri);
+    }
+
+    /**
+     * Return a column of the single row of the query, as a long, or -1 if there is no row.
+     */
+    static long queryLong(Uri uri, String column) {
+        Cursor cursor = contentResolver().query(uri, new String[]{column}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return a column of the single row of the query, as a string, or null if there is no row.
+     */
+    static String queryString(Uri uri, String column) {
+        Cursor cursor = contentResolver().query(uri, new String[]{column}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the number of rows of the query.
+     */
+    static int count(Uri uri) {
+        Cursor cursor = contentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the provider metrics, and start them again from zero.
+     */
+    static Bundle resetMetrics() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(Metrics.EXTRA_RESET, true);
+        return contentResolver().call(ProductEntry.CONTENT_URI, Metrics.METHOD, null, extras);
+    }
+}